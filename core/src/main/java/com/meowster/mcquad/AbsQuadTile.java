@@ -4,7 +4,6 @@
 
 package com.meowster.mcquad;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -25,7 +24,9 @@ abstract class AbsQuadTile implements QuadTile {
     protected Coord coord;
     protected BufferedImage image;
 
-    File onDisk;
+    TileSource source;
+    int sourceZoom;
+    Long contentHash;
 
     @Override
     public BufferedImage image() {
@@ -53,13 +54,24 @@ abstract class AbsQuadTile implements QuadTile {
     }
 
     @Override
-    public void setLocationOnDisk(File pngFile) {
-        onDisk = pngFile;
+    public Long contentHash() {
+        return contentHash;
     }
 
     @Override
-    public BufferedImage loadImageFromDisk() throws IOException {
-        return onDisk == null ? null : ImageIO.read(onDisk);
+    public void setContentHash(long hash) {
+        contentHash = hash;
+    }
+
+    @Override
+    public void setSource(TileSource source, int zoom) {
+        this.source = source;
+        this.sourceZoom = zoom;
+    }
+
+    @Override
+    public int[] loadPixelsFromDisk() throws IOException {
+        return source == null ? null : source.read(sourceZoom, coord);
     }
 
     /**
@@ -74,4 +86,43 @@ abstract class AbsQuadTile implements QuadTile {
                 SUBDIR_PREFIX + coord.x() + SLASH +
                 FILE_PREFIX + coord.z() + FILE_SUFFIX;
     }
+
+    /**
+     * Returns the index of the tile image files present in the given zoom
+     * level directory.
+     *
+     * @param zoomDir the zoom level directory
+     * @return the tiles found
+     */
+    static MortonSet scanTiles(File zoomDir) {
+        MortonSet found = new MortonSet();
+        File[] xDirs = zoomDir.listFiles();
+        if (xDirs == null)
+            return found;
+
+        for (File xDir : xDirs) {
+            int x = parseIndex(xDir.getName(), SUBDIR_PREFIX, "");
+            String[] names = x < 0 ? null : xDir.list();
+            if (names == null)
+                continue;
+            for (String name : names) {
+                int z = parseIndex(name, FILE_PREFIX, FILE_SUFFIX);
+                if (z >= 0)
+                    found.add(Morton.encode(x, z));
+            }
+        }
+        return found;
+    }
+
+    // returns the number between prefix and suffix, or -1 if no match
+    private static int parseIndex(String name, String prefix, String suffix) {
+        if (!name.startsWith(prefix) || !name.endsWith(suffix))
+            return -1;
+        try {
+            return Integer.parseInt(name.substring(prefix.length(),
+                    name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 }
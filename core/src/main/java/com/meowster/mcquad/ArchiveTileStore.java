@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.util.PngEncoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * A tile store that holds the tiles in a {@link TileArchive}, rather than
+ * as individual files. The archive is closed (writing back its indexes)
+ * when the store is flushed.
+ * <p>
+ * If {@link #dedup deduplication} is enabled, a tile whose image is
+ * identical (by content hash) to one already written to the same pack
+ * is not encoded again, but shares that copy.
+ *
+ * @author Simon Hunt
+ */
+class ArchiveTileStore implements TileSink, TileSource {
+
+    private final TileArchive archive;
+    private final PngEncoder encoder;
+    private boolean dedup;
+
+    /**
+     * Constructs a tile store on the given archive (opened for writing),
+     * encoding tiles with the given encoder.
+     *
+     * @param archive the tile archive
+     * @param encoder the PNG encoder
+     */
+    ArchiveTileStore(TileArchive archive, PngEncoder encoder) {
+        this.archive = archive;
+        this.encoder = encoder;
+    }
+
+    @Override
+    public String toString() {
+        return "ArchiveTileStore{" + archive + ", dedup=" + dedup + "}";
+    }
+
+    /**
+     * Sets whether identical tiles share a single stored image, rather
+     * than each being encoded and written.
+     *
+     * @param dedup true to deduplicate tiles
+     * @return self, for chaining
+     */
+    ArchiveTileStore dedup(boolean dedup) {
+        this.dedup = dedup;
+        return this;
+    }
+
+    @Override
+    public boolean write(int zoom, Coord coord, int[] argb,
+                         int width, int height, long hash) {
+        if (!dedup) {
+            archive.write(zoom, coord, encoder.encode(argb, width, height));
+            return false;
+        }
+
+        if (archive.link(zoom, coord, hash))
+            return true;
+        archive.write(zoom, coord, encoder.encode(argb, width, height), hash);
+        return false;
+    }
+
+    @Override
+    public boolean delete(int zoom, Coord coord) {
+        return archive.delete(zoom, coord);
+    }
+
+    @Override
+    public void flush() {
+        archive.close();
+    }
+
+    @Override
+    public int[] read(int zoom, Coord coord) throws IOException {
+        byte[] png = archive.read(zoom, coord.x(), coord.z());
+        if (png == null)
+            return null;
+        BufferedImage bi = ImageIO.read(new ByteArrayInputStream(png));
+        return bi == null ? null : TileCache.pixelsOf(bi);
+    }
+
+    @Override
+    public boolean exists(int zoom, Coord coord) {
+        return archive.contains(zoom, coord.x(), coord.z());
+    }
+
+    @Override
+    public MortonSet tiles(int zoom) {
+        return archive.tiles(zoom);
+    }
+}
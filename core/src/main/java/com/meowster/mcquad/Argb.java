@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+/**
+ * Color arithmetic on colors encoded in int values as {@code 0xAARRGGBB}.
+ * <p>
+ * These operations mirror those of {@link Color}, but work on primitive
+ * values so that no objects are allocated; they are intended for the inner
+ * loops of the rendering pipeline.
+ *
+ * @author Simon Hunt
+ */
+final class Argb {
+    private static final int FF = 0xff;
+    private static final int MAX_BYTE = 255;
+    private static final int A_SHIFT = 24;
+    private static final int R_SHIFT = 16;
+    private static final int G_SHIFT = 8;
+
+    /**
+     * Fully transparent.
+     */
+    static final int TRANSPARENT = 0;
+
+    // no instantiation
+    private Argb() {
+    }
+
+    /**
+     * Returns the alpha component of the given color.
+     *
+     * @param argb the color
+     * @return the alpha component (0 .. 255)
+     */
+    static int alpha(int argb) {
+        return argb >>> A_SHIFT;
+    }
+
+    /**
+     * Returns the red component of the given color.
+     *
+     * @param argb the color
+     * @return the red component (0 .. 255)
+     */
+    static int red(int argb) {
+        return (argb >> R_SHIFT) & FF;
+    }
+
+    /**
+     * Returns the green component of the given color.
+     *
+     * @param argb the color
+     * @return the green component (0 .. 255)
+     */
+    static int green(int argb) {
+        return (argb >> G_SHIFT) & FF;
+    }
+
+    /**
+     * Returns the blue component of the given color.
+     *
+     * @param argb the color
+     * @return the blue component (0 .. 255)
+     */
+    static int blue(int argb) {
+        return argb & FF;
+    }
+
+    /**
+     * Returns the color encoded from the given component values. As with
+     * {@link Color#Color(int, int, int, int)}, the values are clamped to
+     * the range 0 .. 255.
+     *
+     * @param alpha the alpha (opacity) component
+     * @param red   the red component
+     * @param green the green component
+     * @param blue  the blue component
+     * @return the encoded color
+     */
+    static int argb(int alpha, int red, int green, int blue) {
+        return (clampByte(alpha) << A_SHIFT) | (clampByte(red) << R_SHIFT) |
+                (clampByte(green) << G_SHIFT) | clampByte(blue);
+    }
+
+    private static int clampByte(int value) {
+        return value < 0 ? 0 : (value > MAX_BYTE ? MAX_BYTE : value);
+    }
+
+    /**
+     * Returns the color resulting from shading the given color by the
+     * specified amount.
+     *
+     * @param argb   the color
+     * @param amount amount of shading
+     * @return the resulting shaded color
+     * @see Color#shade(int)
+     */
+    static int shade(int argb, int amount) {
+        return argb(alpha(argb), red(argb) + amount, green(argb) + amount,
+                blue(argb) + amount);
+    }
+
+    /**
+     * Returns the color resulting from overlaying the given base color with
+     * the specified overlay color.
+     *
+     * @param base    the base color
+     * @param overlay the overlay color
+     * @return the resulting combined color
+     * @see Color#overlay(Color)
+     */
+    static int overlay(int base, int overlay) {
+        final int opacity = alpha(overlay);
+        final int transparency = FF - opacity;
+        return argb(
+                opacity + alpha(base) * transparency / MAX_BYTE,
+                (red(overlay) * opacity + red(base) * transparency) / MAX_BYTE,
+                (green(overlay) * opacity + green(base) * transparency) / MAX_BYTE,
+                (blue(overlay) * opacity + blue(base) * transparency) / MAX_BYTE
+        );
+    }
+
+    /**
+     * Returns the color resulting from "de-multiplying" the given color by
+     * its alpha component.
+     *
+     * @param argb the color
+     * @return the alpha-demultiplied color
+     * @see Color#demultiplyAlpha()
+     */
+    static int demultiplyAlpha(int argb) {
+        int alpha = alpha(argb);
+        return alpha == 0 ? TRANSPARENT : argb(
+                alpha,
+                red(argb) * MAX_BYTE / alpha,
+                green(argb) * MAX_BYTE / alpha,
+                blue(argb) * MAX_BYTE / alpha
+        );
+    }
+
+    /**
+     * Returns the color resulting from the given color multiplied by the
+     * specified color.
+     *
+     * @param argb       the color
+     * @param multiplier the color by which to multiply
+     * @return the resulting combined color
+     * @see Color#multiply(Color)
+     */
+    static int multiply(int argb, int multiplier) {
+        return argb(
+                alpha(argb) * alpha(multiplier) / MAX_BYTE,
+                red(argb) * red(multiplier) / MAX_BYTE,
+                green(argb) * green(multiplier) / MAX_BYTE,
+                blue(argb) * blue(multiplier) / MAX_BYTE
+        );
+    }
+
+    /**
+     * Returns the color resulting from the given color multiplied by the
+     * specified color (but ignoring the multiplier's alpha component).
+     *
+     * @param argb       the color
+     * @param multiplier the color by which to multiply
+     * @return the resulting combined color
+     * @see Color#multiplySolid(Color)
+     */
+    static int multiplySolid(int argb, int multiplier) {
+        return argb(
+                alpha(argb),
+                red(argb) * red(multiplier) / MAX_BYTE,
+                green(argb) * green(multiplier) / MAX_BYTE,
+                blue(argb) * blue(multiplier) / MAX_BYTE
+        );
+    }
+
+    /**
+     * Returns the average of the given colors.
+     *
+     * @param argb the colors to average
+     * @return the computed average color
+     * @see Color#averageColor(int...)
+     */
+    static int average(int... argb) {
+        if (argb == null || argb.length == 0)
+            return TRANSPARENT;
+        if (argb.length == 1)
+            return argb[0];
+
+        int a = 0;
+        int r = 0;
+        int g = 0;
+        int b = 0;
+
+        for (int c : argb) {
+            a += alpha(c);
+            r += red(c);
+            g += green(c);
+            b += blue(c);
+        }
+        final int n = argb.length;
+        return argb(a / n, r / n, g / n, b / n);
+    }
+}
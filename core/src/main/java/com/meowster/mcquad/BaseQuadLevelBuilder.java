@@ -5,22 +5,55 @@
 package com.meowster.mcquad;
 
 import com.meowster.util.PathUtils;
+import com.meowster.util.PngEncoder;
+import com.meowster.util.StagedPipeline;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.meowster.util.StringUtils.EOL;
 import static com.meowster.util.StringUtils.print;
 import static com.meowster.util.StringUtils.printOut;
-import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 
 /**
  * A base quad level builder. This implementation knows how
  * to create the base quad level (1x1 pixels per block), as well as the
  * two underlying zoomed-in levels (2x2 and 4x4 pixels per block).
+ * <p>
+ * Each stale region is rendered as an independent unit of work, so regions
+ * may be farmed out to a pool of worker threads; see
+ * {@link #renderThreads(int)}. Alternatively, the rendering of each region
+ * may be split into stages (reading, decoding, tile derivation and
+ * writing), each with its own worker threads, so that disk I/O and
+ * computation overlap; see {@link #renderStages(RenderStages)}.
+ * <p>
+ * If a raster cache directory is configured (see
+ * {@link #rasterCache(File)}), the surface data computed for each region
+ * is cached, along with the timestamps of its chunks. The next time the
+ * region is rendered, only the chunks that have changed are decoded, and
+ * only the base tiles that they touch are regenerated (along with the
+ * tiles zoomed in and out from those).
+ * <p>
+ * If the fused pyramid mode is enabled (see {@link #fusedPyramid(boolean)}),
+ * regions are rendered in Morton order, and the base tiles are fed to a
+ * {@link PyramidReducer}, which builds all the zoomed-out levels in the
+ * same pass.
  *
  * @author Simon Hunt
  */
@@ -28,6 +61,10 @@ class BaseQuadLevelBuilder extends QuadLevelBuilder {
 
     private static final int NPIXELS = 256;
     private static final int HALF_NPIXELS = NPIXELS / 2;
+    private static final String THREAD_PREFIX = "mcquad-render-";
+    private static final String PIPELINE_NAME = "mcquad";
+    // maximum regions in flight (rendering or awaiting collection) per thread
+    private static final int REGIONS_PER_THREAD = 2;
 
     private final QuadData quadData;
     private final Coord regionToQuadDelta;
@@ -36,6 +73,18 @@ class BaseQuadLevelBuilder extends QuadLevelBuilder {
     private QdLvl levelZoomPlus1;
     private QdLvl levelZoomPlus2;
 
+    private int renderThreads = 1;
+    private RenderStages renderStages;
+    private boolean fastSurface;
+    private File rasterCache;
+    private Set<Coord> regenerated;
+    private boolean fusedPyramid;
+    private PyramidReducer reducer;
+
+    // base tiles present from previous runs
+    private MortonSet onDisk;
+    private final AtomicInteger regionCount = new AtomicInteger();
+
     /**
      * Constructs a base quad level builder.
      *
@@ -48,9 +97,74 @@ class BaseQuadLevelBuilder extends QuadLevelBuilder {
         regionToQuadDelta = quadData.calibration().negation();
     }
 
+    /**
+     * Sets the number of worker threads used to render regions. A value
+     * of 1 (the default) renders the regions sequentially on the
+     * calling thread.
+     *
+     * @param renderThreads number of render threads
+     * @return self, for chaining
+     */
+    BaseQuadLevelBuilder renderThreads(int renderThreads) {
+        this.renderThreads = renderThreads < 1 ? 1 : renderThreads;
+        return this;
+    }
+
+    /**
+     * Sets the configuration of the staged pipeline used to render
+     * regions. If null (the default), each region is rendered as a whole,
+     * by one of the {@link #renderThreads(int) render threads}.
+     *
+     * @param renderStages the render pipeline configuration
+     * @return self, for chaining
+     */
+    BaseQuadLevelBuilder renderStages(RenderStages renderStages) {
+        this.renderStages = renderStages;
+        return this;
+    }
+
+    /**
+     * Sets whether regions are rendered in "fast surface" mode; that is,
+     * using each chunk's stored height map to speed up the surface scan.
+     *
+     * @param fastSurface true to use fast surface mode
+     * @return self, for chaining
+     */
+    BaseQuadLevelBuilder fastSurface(boolean fastSurface) {
+        this.fastSurface = fastSurface;
+        return this;
+    }
+
+    /**
+     * Sets the directory in which computed region rasters are cached.
+     * If null (the default), no rasters are cached, and every stale region
+     * is rendered in full.
+     *
+     * @param rasterCache the raster cache directory
+     * @return self, for chaining
+     */
+    BaseQuadLevelBuilder rasterCache(File rasterCache) {
+        this.rasterCache = rasterCache;
+        return this;
+    }
+
+    /**
+     * Sets whether the zoomed-out levels are built by this builder, in the
+     * same pass as the base levels, using a {@link PyramidReducer}. If so,
+     * {@link #getLevel()} returns the top level, so that no further levels
+     * need be built.
+     *
+     * @param fusedPyramid true to build the zoomed-out levels too
+     * @return self, for chaining
+     */
+    BaseQuadLevelBuilder fusedPyramid(boolean fusedPyramid) {
+        this.fusedPyramid = fusedPyramid;
+        return this;
+    }
+
     @Override
     public QuadLevel getLevel() {
-        return levelZoomPlus0;
+        return reducer != null ? reducer.topLevel() : levelZoomPlus0;
     }
 
     @Override
@@ -59,14 +173,29 @@ class BaseQuadLevelBuilder extends QuadLevelBuilder {
         stats.add(levelZoomPlus2.getStats());
         stats.add(levelZoomPlus1.getStats());
         stats.add(levelZoomPlus0.getStats());
+        if (reducer != null)
+            reducer.saveStats(stats);
     }
 
     @Override
     public void prepare(Set<Coord> stale) {
         toProcess = stale;
+        regenerated = ConcurrentHashMap.newKeySet();
         levelZoomPlus0 = makeQdLvl(0);
         levelZoomPlus1 = makeQdLvl(1);
         levelZoomPlus2 = makeQdLvl(2);
+        reducer = fusedPyramid && levelZoomPlus0.zoom() > 1
+                ? new PyramidReducer(tilesDir, levelZoomPlus0, stale != null)
+                        .tileWriter(tileWriter)
+                : null;
+
+        if (stale != null) {
+            onDisk = seedOccupancy(levelZoomPlus0);
+            if (reducer != null)
+                reducer.seedOccupancy(this, onDisk);
+        } else {
+            onDisk = new MortonSet();
+        }
     }
 
     private QdLvl makeQdLvl(int zoomPlus) {
@@ -89,6 +218,8 @@ class BaseQuadLevelBuilder extends QuadLevelBuilder {
         PathUtils.createIfNeedBe(tilesDir, levelZoomPlus0.name());
         PathUtils.createIfNeedBe(tilesDir, levelZoomPlus1.name());
         PathUtils.createIfNeedBe(tilesDir, levelZoomPlus2.name());
+        if (reducer != null)
+            reducer.createDirectories();
     }
 
     @Override
@@ -120,42 +251,36 @@ class BaseQuadLevelBuilder extends QuadLevelBuilder {
                                             +---+---+---+---+
          */
 
-        long totalTilesGenerated = 0;
-
         levelZoomPlus0.startTracker();
         levelZoomPlus1.startTracker();
         levelZoomPlus2.startTracker();
 
-        // don't forget, we are splitting the 512x512 block regions
-        //  into four 256x256 block sub-regions, and then scaling each
-        //  of those up an extra couple of zoom levels
-        List<QuadTile> tiles0, tiles1, tiles2;
-
         printOut(String.format(EOL + "Rendering zoom levels %d, %d, and %d:",
                 levelZoomPlus0.zoom(),
                 levelZoomPlus1.zoom(),
                 levelZoomPlus2.zoom()));
 
-        int regionCount = 0;
+        List<Region> work = new ArrayList<>();
         for (Region r : quadData.regionData().regions()) {
-            if (noChangeSinceLastTime(r)) {
-                continue;
+            if (!noChangeSinceLastTime(r)) {
+                work.add(r);
             }
+        }
 
-            regionCount++;
-
-            tiles0 = generateZoomPlus0Tiles(r, suppressWrite);
-            tiles1 = tileZoomIn(tiles0, levelZoomPlus1, suppressWrite);
-            tiles2 = tileZoomIn(tiles1, levelZoomPlus2, suppressWrite);
-
-            totalTilesGenerated += tiles0.size() + tiles1.size() + tiles2.size();
-
-            printMark(regionCount);
-
-            releaseTiles(tiles0);
-            releaseTiles(tiles1);
-            releaseTiles(tiles2);
+        if (reducer != null) {
+            // the reducer requires its tiles in Morton order
+            work.sort(Comparator.comparingLong(this::mortonCode));
+            reducer.start();
         }
+
+        regionCount.set(0);
+        long totalTilesGenerated;
+        if (renderStages != null && work.size() > 1)
+            totalTilesGenerated = renderPipelined(work, suppressWrite);
+        else if (renderThreads > 1 && work.size() > 1)
+            totalTilesGenerated = renderParallel(work, suppressWrite);
+        else
+            totalTilesGenerated = renderSequential(work, suppressWrite);
         print(EOL);
 
         levelZoomPlus2.stopTracker();
@@ -166,9 +291,193 @@ class BaseQuadLevelBuilder extends QuadLevelBuilder {
         printOut(levelZoomPlus1.getStats().toString());
         printOut(levelZoomPlus0.getStats().toString());
 
+        if (reducer != null)
+            totalTilesGenerated += reducer.finish();
+
+        saveOccupancy(levelZoomPlus0);
+        if (reducer != null)
+            reducer.saveOccupancy(this);
+
+        return totalTilesGenerated;
+    }
+
+    private long mortonCode(Region r) {
+        Coord rc = r.coord();
+        return Morton.encode(quadData.regionToQuad(rc.x(), rc.z()));
+    }
+
+    private long renderSequential(List<Region> work, boolean suppressWrite) {
+        long totalTilesGenerated = 0;
+        try {
+            for (Region r : work) {
+                totalTilesGenerated += collect(renderRegion(r, suppressWrite));
+            }
+        } finally {
+            releaseThreadResources();
+        }
         return totalTilesGenerated;
     }
 
+    // collects the result of rendering a region, in region order
+    private long collect(RenderedRegion rr) {
+        if (reducer != null) {
+            for (Map.Entry<Long, int[]> e : rr.tiles.entrySet()) {
+                reducer.add(levelZoomPlus0.zoom(), Morton.decode(e.getKey()),
+                        e.getValue());
+            }
+        }
+        return rr.count;
+    }
+
+    private long renderParallel(List<Region> work, boolean suppressWrite) {
+        printOut("  (using {} render threads)", renderThreads);
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(renderThreads,
+                r -> {
+                    Thread t = new Thread(() -> {
+                        try {
+                            r.run();
+                        } finally {
+                            releaseThreadResources();
+                        }
+                    }, THREAD_PREFIX + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+
+        try {
+            // results are collected in order, with a bounded number of
+            // regions in flight at any one time
+            final int window = renderThreads * REGIONS_PER_THREAD;
+            Deque<Future<RenderedRegion>> results = new ArrayDeque<>(window);
+            Iterator<Region> it = work.iterator();
+
+            long totalTilesGenerated = 0;
+            while (it.hasNext() || !results.isEmpty()) {
+                while (it.hasNext() && results.size() < window) {
+                    Region r = it.next();
+                    results.add(pool.submit(() -> renderRegion(r, suppressWrite)));
+                }
+                totalTilesGenerated += collect(results.remove().get());
+            }
+            return totalTilesGenerated;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while rendering", e);
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new RuntimeException("Failed to render region", cause);
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private long renderPipelined(List<Region> work, boolean suppressWrite) {
+        printOut("  (using render pipeline: {})", renderStages);
+        long[] total = {0};
+        StagedPipeline.<Region>create(PIPELINE_NAME, renderStages.capacity)
+                .stage("read", renderStages.read, r -> readRegion(r, true))
+                .stage("decode", renderStages.decode, this::decodeRegion)
+                .stage("derive", renderStages.derive,
+                        job -> deriveTiles(job, suppressWrite))
+                .stage("write", renderStages.write,
+                        job -> writeRegion(job, suppressWrite))
+                .threadExit(BaseQuadLevelBuilder::releaseThreadResources)
+                .run(work.iterator(), rr -> total[0] += collect(rr));
+        return total[0];
+    }
+
+    // frees the native (zlib) state of a render thread's inflater and
+    // deflaters, rather than leaving it to finalization
+    private static void releaseThreadResources() {
+        ChunkInflater.releaseForThread();
+        PngEncoder.releaseForThread();
+    }
+
+    // renders a single region, through all three zoom levels
+    private RenderedRegion renderRegion(Region r, boolean suppressWrite) {
+        // don't forget, we are splitting the 512x512 block regions
+        //  into four 256x256 block sub-regions, and then scaling each
+        //  of those up an extra couple of zoom levels
+        RegionJob job = decodeRegion(readRegion(r, false));
+        return writeRegion(deriveTiles(job, suppressWrite), suppressWrite);
+    }
+
+    // stage (a): reads the cached raster, and optionally the region file
+    // itself, into memory
+    private RegionJob readRegion(Region r, boolean preload) {
+        RegionJob job = new RegionJob(r, loadRaster(r));
+        if (preload)
+            r.preload();
+        return job;
+    }
+
+    // stage (b): decodes the (changed) chunks, and computes the surface
+    private RegionJob decodeRegion(RegionJob job) {
+        job.image = new RegionImageData(job.region, regionToQuadDelta,
+                fastSurface, job.previous);
+        job.previous = null;
+        return job;
+    }
+
+    // stage (c): derives the tiles of all three levels, dropping those
+    // that are unchanged since they were last written
+    private RegionJob deriveTiles(RegionJob job, boolean suppressWrite) {
+        job.tiles0 = generateZoomPlus0Tiles(job.image, job.incremental,
+                job.blanks, suppressWrite);
+        job.tiles1 = tileZoomIn(job.tiles0, levelZoomPlus1, suppressWrite);
+        job.tiles2 = tileZoomIn(job.tiles1, levelZoomPlus2, suppressWrite);
+        return job;
+    }
+
+    // stage (d): encodes and writes the tiles
+    private RenderedRegion writeRegion(RegionJob job, boolean suppressWrite) {
+        if (!suppressWrite) {
+            storeTiles(job.tiles0, levelZoomPlus0);
+            // (the pyramid reducer, if any, is given the tiles directly)
+            if (reducer == null)
+                cacheTiles(job.tiles0, levelZoomPlus0.zoom());
+            storeTiles(job.tiles1, levelZoomPlus1);
+            storeTiles(job.tiles2, levelZoomPlus2);
+        }
+
+        RenderedRegion rr = new RenderedRegion(job.tiles0.size() +
+                job.tiles1.size() + job.tiles2.size());
+        if (reducer != null && !suppressWrite) {
+            for (QuadTile t : job.tiles0)
+                rr.tiles.put(Morton.encode(t.coord()),
+                        TileCache.pixelsOf(t.image()));
+            for (Coord c : job.blanks)
+                rr.tiles.put(Morton.encode(c), null);
+        }
+
+        // only once the tiles are safely written do we cache the raster
+        if (rasterCache != null && !suppressWrite)
+            job.image.raster().save(
+                    RegionRaster.file(rasterCache, job.region.coord()));
+
+        printMark(regionCount.incrementAndGet());
+
+        releaseTiles(job.tiles0);
+        releaseTiles(job.tiles1);
+        releaseTiles(job.tiles2);
+        return rr;
+    }
+
+    // returns the previously cached raster for the region, or null if
+    // there is none; note that even when all tiles are being regenerated
+    // (calibration change) the raster saves us decoding unchanged chunks
+    private RegionRaster loadRaster(Region r) {
+        if (rasterCache == null)
+            return null;
+        return RegionRaster.load(RegionRaster.file(rasterCache, r.coord()));
+    }
+
     private boolean noChangeSinceLastTime(Region r) {
         if (toProcess == null) {
             // calibration change -- force all tiles to be stale
@@ -179,34 +488,21 @@ class BaseQuadLevelBuilder extends QuadLevelBuilder {
         return !toProcess.contains(qc);
     }
 
-    private List<QuadTile> generateZoomPlus0Tiles(Region r, boolean suppressWrite) {
-        RegionImageData ri = new RegionImageData(r, regionToQuadDelta);
+    private List<QuadTile> generateZoomPlus0Tiles(RegionImageData ri,
+                                                  boolean incremental,
+                                                  List<Coord> blanks,
+                                                  boolean suppressWrite) {
         List<QuadTile> tiles = new ArrayList<>();
-        QuadTile tile;
-
-        tile = makeBaseQuadTile(ri, 0, 0);
-        levelZoomPlus0.addTile(tile);
-        if (tile != null)
-            tiles.add(tile);
-
-        tile = makeBaseQuadTile(ri, 1, 0);
-        levelZoomPlus0.addTile(tile);
-        if (tile != null)
-            tiles.add(tile);
-
-        tile = makeBaseQuadTile(ri, 0, 1);
-        levelZoomPlus0.addTile(tile);
-        if (tile != null)
-            tiles.add(tile);
+        addBaseQuadTile(tiles, blanks, ri, 0, 0, incremental, suppressWrite);
+        addBaseQuadTile(tiles, blanks, ri, 1, 0, incremental, suppressWrite);
+        addBaseQuadTile(tiles, blanks, ri, 0, 1, incremental, suppressWrite);
+        addBaseQuadTile(tiles, blanks, ri, 1, 1, incremental, suppressWrite);
 
-        tile = makeBaseQuadTile(ri, 1, 1);
-        levelZoomPlus0.addTile(tile);
-        if (tile != null)
-            tiles.add(tile);
-
-        if (!suppressWrite) {
-            writeTiles(tiles, levelZoomPlus0.outputDir());
-        }
+        if (!suppressWrite)
+            dropUnchangedTiles(tiles, levelZoomPlus0);
+        // (tiles that turned out to be unchanged are no longer listed)
+        for (QuadTile tile : tiles)
+            regenerated.add(tile.coord());
 
         return tiles;
     }
@@ -217,87 +513,148 @@ class BaseQuadLevelBuilder extends QuadLevelBuilder {
         QuadTile tile;
 
         for (QuadTile inTile : inTiles) {
-            tile = makeScaledTile(inTile, 0, 0);
-            destLvl.addTile(tile);
-            if (tile != null)
-                tiles.add(tile);
-
-            tile = makeScaledTile(inTile, 1, 0);
-            destLvl.addTile(tile);
-            if (tile != null)
-                tiles.add(tile);
-
-            tile = makeScaledTile(inTile, 0, 1);
-            destLvl.addTile(tile);
-            if (tile != null)
-                tiles.add(tile);
-
-            tile = makeScaledTile(inTile, 1, 1);
-            destLvl.addTile(tile);
-            if (tile != null)
-                tiles.add(tile);
-
+            for (int i = 0; i < 4; i++) {
+                tile = makeScaledTile(inTile, i & 1, i >> 1);
+                destLvl.addTile(tile);
+                if (tile != null) {
+                    tiles.add(tile);
+                } else if (!suppressWrite) {
+                    Coord c = childOf(inTile.coord(), i);
+                    if (wasOnDisk(destLvl, c))
+                        deleteBlankTile(destLvl, c);
+                }
+            }
         }
 
         if (!suppressWrite) {
-            writeTiles(tiles, destLvl.outputDir());
+            dropUnchangedTiles(tiles, destLvl);
         }
 
         return tiles;
     }
 
 
+    // generates the base tile for the given quadrant, unless rendering
+    // incrementally and neither the quadrant nor its tile on disk changed;
+    // a tile on disk that is now blank is deleted, and listed in blanks
+    private void addBaseQuadTile(List<QuadTile> tiles, List<Coord> blanks,
+                                 RegionImageData ri,
+                                 int dx, int dz, boolean incremental,
+                                 boolean suppressWrite) {
+        Coord c = new Coord(ri.coord().x() + dx, ri.coord().z() + dz);
+        boolean changed = !incremental || ri.quadrantChanged(dx, dz);
+        if (!changed && onDisk.contains(c.x(), c.z()))
+            return;
+
+        QuadTile tile = makeBaseQuadTile(ri, dx, dz);
+        levelZoomPlus0.addTile(tile);
+        if (tile != null)
+            tiles.add(tile);
+        else if (changed && onDisk.contains(c.x(), c.z())) {
+            regenerated.add(c);     // the tile is now blank
+            if (!suppressWrite) {
+                deleteBlankTile(levelZoomPlus0, c);
+                blanks.add(c);
+            }
+        }
+    }
+
+    // removes the tile (now blank) at the given level, along with the
+    // tiles zoomed in from it, rather than leaving their old images
+    private void deleteBlankTile(QdLvl level, Coord c) {
+        tileWriter.delete(level, c);
+        QdLvl next = level == levelZoomPlus0 ? levelZoomPlus1
+                : level == levelZoomPlus1 ? levelZoomPlus2 : null;
+        if (next != null) {
+            for (int i = 0; i < 4; i++)
+                deleteBlankTile(next, childOf(c, i));
+        }
+    }
+
+    // true if the given tile may be on disk from a previous run; that is,
+    // if the base tile it was zoomed in from was
+    private boolean wasOnDisk(QdLvl level, Coord c) {
+        int shift = level.zoom() - levelZoomPlus0.zoom();
+        return onDisk.contains(c.x() >> shift, c.z() >> shift);
+    }
+
+    // the coordinates of the given child (0..3, in row order) of a tile
+    private static Coord childOf(Coord c, int i) {
+        return new Coord(c.x() * 2 + (i & 1), c.z() * 2 + (i >> 1));
+    }
+
     // return null if image is completely transparent (empty tile)
     private QuadTile makeBaseQuadTile(RegionImageData ri, int dx, int dz) {
-        BufferedImage bi = ri.getImage(dx, dz);
-        if (imageIsBlank(bi))
+        int[] pixels = ri.quadrant(dx, dz);
+        if (pixels == null)
             return null;
 
         int x = ri.region().coord().x() * 2 + regionToQuadDelta.x() + dx;
         int z = ri.region().coord().z() * 2 + regionToQuadDelta.z() + dz;
-        return new SubregionQTile(bi, x, z);
-    }
-
-    // scans the image: first non-transparent pixel will exit with false
-    private boolean imageIsBlank(BufferedImage bi) {
-        int a, b;
-        int w = bi.getWidth();
-        int h = bi.getHeight();
-        for (a = 0; a < w; a++) {
-            for (b = 0; b < h; b++) {
-                if (bi.getRGB(a, b) != 0)
-                    return false;
-            }
+        return new SubregionQTile(Pixels.image(pixels, NPIXELS, NPIXELS), x, z);
+    }
+
+    /**
+     * Returns the set of stale coordinates for one level zoomed out. Only
+     * those base tiles that were actually regenerated (and, if tile hashes
+     * are kept, found to have changed) need be considered.
+     *
+     * @return stale coordinates one level up
+     */
+    @Override
+    Set<Coord> zoomedOutStale() {
+        if (toProcess == null) {
+            return null;
         }
-        return true;
+        Set<Coord> result = new HashSet<>();
+        for (Coord c : regenerated) {
+            result.add(c.div2());
+        }
+        return result;
     }
 
+    // scales up a quadrant of the given tile; null if it is blank
     private QuadTile makeScaledTile(QuadTile tile, int dx, int dz) {
-        int ox = HALF_NPIXELS * dx;
-        int oz = HALF_NPIXELS * dz;
-        BufferedImage src = tile.image();
-        int a, a2, b, b2, color;
-        int aggr = 0;
-
-        BufferedImage bi =
-                new BufferedImage(NPIXELS, NPIXELS, TYPE_INT_ARGB);
-
-        for (a = 0; a < HALF_NPIXELS; a++) {
-            a2 = 2 * a;
-            for (b = 0; b < HALF_NPIXELS; b++) {
-                b2 = 2 * b;
-                color = src.getRGB(ox + a, oz + b);
-                aggr |= color; // aggregate color
-                bi.setRGB(a2, b2, color);
-                bi.setRGB(a2 + 1, b2, color);
-                bi.setRGB(a2, b2 + 1, color);
-                bi.setRGB(a2 + 1, b2 + 1, color);
-            }
-        }
+        int[] src = TileCache.pixelsOf(tile.image());
+        int off = HALF_NPIXELS * (dz * NPIXELS + dx);
+        if (Pixels.isBlank(src, off, NPIXELS, HALF_NPIXELS, HALF_NPIXELS))
+            return null;
+
+        int[] pixels = new int[NPIXELS * NPIXELS];
+        Pixels.upscale(src, off, NPIXELS, HALF_NPIXELS, HALF_NPIXELS, 2, pixels);
 
         int x = tile.coord().x() * 2 + dx;
         int z = tile.coord().z() * 2 + dz;
-        return aggr == 0 ? null : new SubregionQTile(bi, x, z);
+        return new SubregionQTile(Pixels.image(pixels, NPIXELS, NPIXELS), x, z);
     }
 
+    // a region passing through the render stages
+    private static final class RegionJob {
+        private final Region region;
+        private final boolean incremental;
+        private RegionRaster previous;
+        private RegionImageData image;
+        private List<QuadTile> tiles0;
+        private final List<Coord> blanks = new ArrayList<>(0);
+        private List<QuadTile> tiles1;
+        private List<QuadTile> tiles2;
+
+        private RegionJob(Region region, RegionRaster previous) {
+            this.region = region;
+            this.previous = previous;
+            incremental = previous != null;
+        }
+    }
+
+    // the outcome of rendering a region: the number of tiles generated,
+    // and (for the pyramid reducer) the base tiles' pixel data, by Morton
+    // code (null for a tile that is now blank)
+    private static final class RenderedRegion {
+        private final long count;
+        private final SortedMap<Long, int[]> tiles = new TreeMap<>();
+
+        private RenderedRegion(long count) {
+            this.count = count;
+        }
+    }
 }
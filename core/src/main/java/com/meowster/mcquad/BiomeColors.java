@@ -10,7 +10,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * Encapsulates biome color data. When color information about a biome is
@@ -22,9 +22,14 @@ import java.util.TreeSet;
 class BiomeColors {
     private static final String E_NO_DEFAULT = "No default biome record found";
 
+    private static final int NBIOMES = 256;
+
     private final Biome defaultBiome;
     private final Map<BiomeId, Biome> cache = new HashMap<>();
-    private final Set<BiomeId> defaulted = new TreeSet<>();
+    // dense lookup table, indexed by biome id
+    private final Biome[] table = new Biome[NBIOMES];
+    // sorted, and safe to update from concurrent render threads
+    private final Set<BiomeId> defaulted = new ConcurrentSkipListSet<>();
 
     /**
      * Creates a biome color data instance.
@@ -44,6 +49,7 @@ class BiomeColors {
             }
 
             cache.put(b.biomeId(), b);
+            table[b.biomeId().id()] = b;
         }
 
         if (defaultFound == null)
@@ -76,15 +82,38 @@ class BiomeColors {
      * @return the corresponding biome (or the default biome)
      */
     Biome getBiome(int id) {
-        BiomeId biomeId = new BiomeId(id);
-        Biome b = cache.get(biomeId);
+        Biome b = table[id];
         if (b == null) {
-            defaulted.add(biomeId);
+            defaulted.add(new BiomeId(id));
             return defaultBiome;
         }
         return b;
     }
 
+    /**
+     * Returns the biome with the given biome ID, or the default biome if
+     * no such biome is cached. Unlike {@link #getBiome(int)}, the defaulted
+     * set is not updated.
+     *
+     * @param id the biome id
+     * @return the corresponding biome (or the default biome)
+     */
+    Biome peek(int id) {
+        Biome b = table[id];
+        return b == null ? defaultBiome : b;
+    }
+
+    /**
+     * Checks that the biome with the given ID is mapped, adding the ID to
+     * the defaulted set if it is not.
+     *
+     * @param id the biome id
+     */
+    void checkMapped(int id) {
+        if (table[id] == null)
+            defaulted.add(new BiomeId(id));
+    }
+
 
     /**
      * Returns a read-only view of the defaulted biome IDs.
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A precomputed lookup table of final (biome-influenced) block colors,
+ * indexed by block key and biome index, along with fully-opaque and
+ * visible (not fully transparent) bit-sets indexed by block key.
+ * <p>
+ * Most blocks are not influenced by biome, so a fully flattened
+ * (block &times; biome) table would mostly be 256 copies of the same
+ * value. Instead, the colors of biome-independent blocks are held directly
+ * in a table indexed by block key, and each distinct biome-influenced block
+ * is given a "slot" holding its color in every biome. Either way, looking
+ * up a color is a matter of one or two array reads, with no hashing and no
+ * allocation.
+ *
+ * @author Simon Hunt
+ */
+class BlockColorTable {
+
+    /**
+     * The biome index denoting the default biome (used for chunks that
+     * have no biome data).
+     */
+    static final int DEFAULT_BIOME = 256;
+
+    private static final int NBIOMES = DEFAULT_BIOME + 1;
+    private static final int LONG_BITS = 6;
+    private static final int NO_SLOT = 0;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // final colors for blocks that are not biome-influenced
+    private final int[] colors = new int[BlockColors.NKEYS];
+    // biome-influence slot for each block key (NO_SLOT if not influenced)
+    private final short[] slots = new short[BlockColors.NKEYS];
+    // final colors for influenced blocks, indexed by [slot, biome]
+    private final int[] biomeColors;
+    // fully-opaque flags, indexed by block key
+    private final long[] opaque = new long[BlockColors.NKEYS >> LONG_BITS];
+    // visible (alpha > 0) flags, indexed by block key
+    private final long[] visible = new long[BlockColors.NKEYS >> LONG_BITS];
+    // hash of the table contents
+    private final long fingerprint;
+
+    /**
+     * Constructs the color table from the given block and biome colors.
+     *
+     * @param blockDb the block colors
+     * @param biomeDb the biome colors
+     */
+    BlockColorTable(BlockColors blockDb, BiomeColors biomeDb) {
+        Biome[] biomes = new Biome[NBIOMES];
+        for (int i = 0; i < DEFAULT_BIOME; i++)
+            biomes[i] = biomeDb.peek(i);
+        biomes[DEFAULT_BIOME] = biomeDb.getDefaultBiome();
+
+        Map<Block, Integer> slotOf = new IdentityHashMap<>();
+        for (int key = 0; key < BlockColors.NKEYS; key++) {
+            Block b = blockDb.peek(key);
+            if (b.isFullyOpaque())
+                opaque[key >> LONG_BITS] |= 1L << key;
+            if (b.color().alpha() > 0)
+                visible[key >> LONG_BITS] |= 1L << key;
+
+            if (b.biomeInfluence() == BiomeInfluence.NONE) {
+                colors[key] = computeColor(b, biomes[DEFAULT_BIOME]);
+            } else {
+                Integer slot = slotOf.get(b);
+                if (slot == null) {
+                    slot = slotOf.size() + 1;
+                    slotOf.put(b, slot);
+                }
+                slots[key] = slot.shortValue();
+            }
+        }
+
+        biomeColors = new int[(slotOf.size() + 1) * NBIOMES];
+        for (Map.Entry<Block, Integer> e : slotOf.entrySet()) {
+            int base = e.getValue() * NBIOMES;
+            for (int i = 0; i < NBIOMES; i++)
+                biomeColors[base + i] = computeColor(e.getKey(), biomes[i]);
+        }
+        fingerprint = computeFingerprint();
+    }
+
+    private static int computeColor(Block block, Biome biome) {
+        Color influenceColor = biome.influence(block.biomeInfluence());
+        return block.color().multiplySolid(influenceColor).toInt();
+    }
+
+    // FNV-1a (64 bit), applied to whole values rather than bytes
+    private long computeFingerprint() {
+        long h = FNV_OFFSET;
+        for (int key = 0; key < BlockColors.NKEYS; key++) {
+            h = (h ^ argb(key, DEFAULT_BIOME)) * FNV_PRIME;
+            h = (h ^ slots[key]) * FNV_PRIME;
+        }
+        for (int c : biomeColors)
+            h = (h ^ c) * FNV_PRIME;
+        for (int i = 0; i < opaque.length; i++) {
+            h = (h ^ opaque[i]) * FNV_PRIME;
+            h = (h ^ visible[i]) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        int nSlots = biomeColors.length / NBIOMES - 1;
+        return "BlockColorTable{#influenced=" + nSlots + "}";
+    }
+
+    /**
+     * Returns the computed color (as an ARGB int) of the block with the
+     * given key, in the given biome.
+     *
+     * @param key   the block key
+     * @param biome the biome index (0..255, or {@link #DEFAULT_BIOME})
+     * @return the computed color
+     * @see BlockColors#key(int, int)
+     */
+    int argb(int key, int biome) {
+        int slot = slots[key];
+        return slot == NO_SLOT ? colors[key] : biomeColors[slot * NBIOMES + biome];
+    }
+
+    /**
+     * Returns true if the block with the given key is fully opaque.
+     *
+     * @param key the block key
+     * @return true if the block is fully opaque
+     * @see BlockColors#key(int, int)
+     */
+    boolean fullyOpaque(int key) {
+        return (opaque[key >> LONG_BITS] & (1L << key)) != 0;
+    }
+
+    /**
+     * Returns true if the block with the given key is visible; that is, if
+     * its color is not fully transparent. Note that overlaying a fully
+     * transparent color leaves the underlying color unchanged, so such
+     * blocks (air, for example) can be skipped entirely.
+     *
+     * @param key the block key
+     * @return true if the block is visible
+     * @see BlockColors#key(int, int)
+     */
+    boolean visible(int key) {
+        return (visible[key >> LONG_BITS] & (1L << key)) != 0;
+    }
+
+    /**
+     * Returns a fingerprint (hash) of the contents of this table. Surface
+     * data computed with a table having a different fingerprint should be
+     * considered out of date.
+     *
+     * @return the table fingerprint
+     */
+    long fingerprint() {
+        return fingerprint;
+    }
+
+
+    /**
+     * Our shared instance.
+     */
+    static final BlockColorTable COLOR_TABLE =
+            new BlockColorTable(BlockColors.BLOCK_DB, BiomeColors.BIOME_DB);
+}
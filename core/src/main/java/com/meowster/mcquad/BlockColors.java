@@ -8,11 +8,9 @@ import com.meowster.rec.Record;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * Encapsulates block color data. When color information about a block
@@ -24,11 +22,21 @@ import java.util.TreeSet;
 class BlockColors {
     private static final String E_NO_DEFAULT = "No default block record found";
     private static final int MAX_DV = 16;
+    private static final int MAX_ID = 4096;
+    private static final int DV_BITS = 4;
+    private static final int DV_MASK = MAX_DV - 1;
+
+    /**
+     * The number of distinct block keys.
+     */
+    static final int NKEYS = MAX_ID << DV_BITS;
 
     private final Block defaultBlock;
-    private final Map<BlockId, Block> cache = new HashMap<>();
-    private final Map<BlockId, Boolean> opaque = new HashMap<>();
-    private final Set<BlockId> defaulted = new TreeSet<>();
+    // dense lookup table, indexed by block key (see key(id, dv))
+    private final Block[] table = new Block[NKEYS];
+    private int size;
+    // sorted, and safe to update from concurrent render threads
+    private final Set<BlockId> defaulted = new ConcurrentSkipListSet<>();
 
     /**
      * Creates a block color data instance.
@@ -75,13 +83,27 @@ class BlockColors {
     }
 
     private void indexUnder(BlockId blockId, Block b) {
-        cache.put(blockId, b);
-        opaque.put(blockId, b.isFullyOpaque());
+        int key = key(blockId.id(), blockId.dv());
+        if (table[key] == null)
+            size++;
+        table[key] = b;
+    }
+
+    /**
+     * Returns the block key for the given block ID and data value; that is,
+     * the two values packed into 16 bits as {@code (id << 4) | dv}.
+     *
+     * @param id the block id (0..4095)
+     * @param dv the block data value (0..15)
+     * @return the block key
+     */
+    static int key(int id, int dv) {
+        return (id << DV_BITS) | dv;
     }
 
     @Override
     public String toString() {
-        return "BlockColors{size=" + cache.size() +
+        return "BlockColors{size=" + size +
                 ", #defaulted=" + defaulted.size() +
                 "}";
     }
@@ -117,15 +139,57 @@ class BlockColors {
      * @return the corresponding block (or the default block)
      */
     Block getBlock(int id, int dv) {
-        BlockId blockId = new BlockId(id, dv);
-        Block b = cache.get(blockId);
+        return blockFor(key(id, dv));
+    }
+
+    /**
+     * Returns the block with the given block key. If no such block is
+     * cached, the ID is added to the defaulted set, and the default block
+     * is returned.
+     *
+     * @param key the block key
+     * @return the corresponding block (or the default block)
+     * @see #key(int, int)
+     */
+    Block blockFor(int key) {
+        Block b = table[key];
         if (b == null) {
-            defaulted.add(blockId);
+            addDefaulted(key);
             return defaultBlock;
         }
         return b;
     }
 
+    /**
+     * Returns the block with the given block key, or the default block if
+     * no such block is cached. Unlike {@link #blockFor(int)}, the defaulted
+     * set is not updated.
+     *
+     * @param key the block key
+     * @return the corresponding block (or the default block)
+     */
+    Block peek(int key) {
+        Block b = table[key];
+        return b == null ? defaultBlock : b;
+    }
+
+    /**
+     * Checks that the block with the given block key is mapped, adding
+     * its ID to the defaulted set if it is not.
+     *
+     * @param key the block key
+     * @see #key(int, int)
+     */
+    void checkMapped(int key) {
+        if (table[key] == null)
+            addDefaulted(key);
+    }
+
+    private void addDefaulted(int key) {
+        defaulted.add(new BlockId(key >> DV_BITS, key & DV_MASK));
+    }
+
+
     /**
      * Returns true if the block with the given ID and data value is fully
      * opaque; that is, if its alpha component is 0xff.
@@ -135,8 +199,7 @@ class BlockColors {
      * @return true if the corresponding block color is fully opaque
      */
     public boolean fullyOpaque(int id, int dv) {
-        BlockId blockId = new BlockId(id, dv);
-        return opaque.get(blockId);
+        return table[key(id, dv)].isFullyOpaque();
     }
 
     /**
@@ -4,26 +4,33 @@
 
 package com.meowster.mcquad;
 
-import org.jnbt.CompoundTag;
-import org.jnbt.NBTInputStream;
-import org.jnbt.Tag;
-
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
-import static com.meowster.mcquad.NbtUtils.BIOMES;
-import static com.meowster.mcquad.NbtUtils.LEVEL;
-import static com.meowster.mcquad.NbtUtils.SECTIONS;
-import static com.meowster.mcquad.NbtUtils.Y;
-import static com.meowster.mcquad.NbtUtils.getByteArrayFromTag;
-import static com.meowster.mcquad.NbtUtils.getCompoundTagFromTag;
-import static com.meowster.mcquad.NbtUtils.getIntFromTag;
-import static com.meowster.mcquad.NbtUtils.getTagListFromTag;
-import static com.meowster.mcquad.NbtUtils.tagExists;
+import static com.meowster.mcquad.NbtUtils.LEVEL_BIOMES;
+import static com.meowster.mcquad.NbtUtils.LEVEL_HEIGHTMAP;
+import static com.meowster.mcquad.NbtUtils.LEVEL_SECTIONS;
+import static com.meowster.mcquad.NbtUtils.SECTION_ADD;
+import static com.meowster.mcquad.NbtUtils.SECTION_BLOCKS;
+import static com.meowster.mcquad.NbtUtils.SECTION_DATA;
+import static com.meowster.mcquad.NbtUtils.SECTION_Y;
 
 /**
  * Encapsulates the data associated with a chunk.
+ * <p>
+ * Only the parts of the chunk's NBT data that we need for rendering
+ * (the section block IDs and data values, the biomes, and the height map)
+ * are read; everything else (entities, lighting, ticks, etc.) is skipped
+ * over.
+ * <p>
+ * In "fast surface" mode, the height map stored with the chunk is used to
+ * seed the search for the surface in each column, and chunk sections are
+ * only unpacked when the surface scan needs to look at them; typically,
+ * the sections below the surface are never unpacked at all. Note that
+ * unmapped blocks in sections that are not unpacked will not be reported
+ * as defaulted.
  *
  * @author Simon Hunt
  */
@@ -31,14 +38,27 @@ class Chunk {
     private static final int NSECTIONS = 16;
     private static final int NBLOCKS = 16;
 
-    private static final BlockData AIR_BLOCK = new BlockData();
+    /**
+     * Alpha below which blocks are considered transparent for purposes of
+     * shading (i.e. blocks with alpha < this will not be shaded)
+     */
+    private static final int SHADE_OPACITY_CUTOFF = 0x20;
+
+    private static final SelectiveNbtReader READER =
+            new SelectiveNbtReader(LEVEL_BIOMES, LEVEL_HEIGHTMAP, SECTION_Y,
+                    SECTION_BLOCKS, SECTION_DATA, SECTION_ADD);
 
 
-    private Color[][] surfaceColors = new Color[NBLOCKS][NBLOCKS];
+    private int[][] surfaceColors = new int[NBLOCKS][NBLOCKS];
     private short[][] surfaceHeights = new short[NBLOCKS][NBLOCKS];
 
     private ChunkSection[] sections = new ChunkSection[NSECTIONS];
+    // sections not yet unpacked (fast surface mode only)
+    private RawSection[] pending = new RawSection[NSECTIONS];
+    private ChunkBiomeData biomeData;
+    private int[] heightMap;
 
+    private final boolean fastSurface;
     private int highestSection;
 
     /**
@@ -47,19 +67,29 @@ class Chunk {
      * @param dis the source data
      */
     Chunk(DataInputStream dis) {
-        NBTInputStream nis = null;
+        this(dis, false);
+    }
+
+    /**
+     * Constructs a chunk from the given data input stream, optionally
+     * using the chunk's stored height map to speed up the surface scan.
+     *
+     * @param dis         the source data
+     * @param fastSurface true to use fast surface mode
+     */
+    Chunk(DataInputStream dis, boolean fastSurface) {
+        this.fastSurface = fastSurface;
         try {
-            nis = new NBTInputStream(dis);
-            loadChunkData(getLevelTag(nis));
+            ChunkLoader loader = new ChunkLoader();
+            READER.read(dis, loader);
+            loadChunkData(loader);
         } catch (IOException e) {
             e.printStackTrace();  // TODO should we leave this here?
         } finally {
-            if (nis != null) {
-                try {
-                    nis.close();
-                } catch (IOException e) {
-                    // really, what are we going to do?
-                }
+            try {
+                dis.close();
+            } catch (IOException e) {
+                // really, what are we going to do?
             }
         }
     }
@@ -72,50 +102,46 @@ class Chunk {
     private String sectionMap() {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < NSECTIONS; i++)
-            sb.append(sections[i] != null ? "#" : ".");
+            sb.append(sections[i] != null ? "#"
+                    : (pending[i] != null ? "+" : "."));
         return sb.toString();
     }
 
-    private CompoundTag getLevelTag(NBTInputStream nis) throws IOException {
-        CompoundTag rootTag = (CompoundTag) nis.readTag();
-        return getCompoundTagFromTag(rootTag, LEVEL);
-    }
-
-    private void loadChunkData(CompoundTag levelTag) {
+    private void loadChunkData(ChunkLoader loader) {
         // first, grab the biome data for the chunk...
-        ChunkBiomeData biomeData = loadBiomeData(levelTag);
+        biomeData = loader.biomes == null
+                ? new ChunkBiomeData() : new ChunkBiomeData(loader.biomes);
 
-        // then grab all the defined sections...
-        for (Tag t : getSectionTags(levelTag)) {
-            CompoundTag sectionTag = (CompoundTag) t;
-            int sIdx = getSectionIndex(sectionTag);
-            sections[sIdx] = new ChunkSection(sectionTag, biomeData);
+        // only of use if it is the right size
+        if (loader.heightMap != null &&
+                loader.heightMap.length == NBLOCKS * NBLOCKS)
+            heightMap = loader.heightMap;
+
+        // then grab all the defined sections (deferring the unpacking of
+        // them if we are in fast surface mode)...
+        boolean anySections = false;
+        for (RawSection raw : loader.sections) {
+            if (raw.isValid()) {
+                pending[raw.y] = raw;
+                if (!fastSurface)
+                    section(raw.y);
+                anySections = true;
+            }
         }
+        if (anySections)
+            biomeData.checkMapped();
 
-        // remember the highest "used" section
+        // remember the highest "used" (i.e. not all air) section
         highestSection = highestUsedSection();
     }
 
-    private ChunkBiomeData loadBiomeData(CompoundTag levelTag) {
-        if (!tagExists(levelTag, BIOMES))
-            return new ChunkBiomeData();
-        return new ChunkBiomeData(getByteArrayFromTag(levelTag, BIOMES));
-    }
-
-    private List<Tag> getSectionTags(CompoundTag levelTag) {
-        return getTagListFromTag(levelTag, SECTIONS);
-    }
-
-    private int getSectionIndex(CompoundTag t) {
-        return getIntFromTag(t, Y);
-    }
-
     /**
-     * Returns a reference to our computed surface colors.
+     * Returns a reference to our computed surface colors, encoded as
+     * {@code 0xAARRGGBB}.
      *
      * @return the surface colors
      */
-    Color[][] getSurfaceColors() {
+    int[][] getSurfaceColors() {
         return surfaceColors;
     }
 
@@ -132,6 +158,9 @@ class Chunk {
      * Computes the surface colors and heights based on the loaded data.
      */
     void computeColorsAndHeights() {
+        if (highestSection < 0)
+            return;     // nothing visible at all; leave it transparent
+
         // iterate over each vertical stack of blocks...
         for (int z = 0; z < NBLOCKS; z++) {
             for (int x = 0; x < NBLOCKS; x++) {
@@ -139,45 +168,82 @@ class Chunk {
                 // Find the location of the highest fully-opaque block at [x,z].
                 // Worst case is that we'll hit bedrock, which is opaque,
                 // so we'll always have a y-value >= 0.
-                int yOpaque = highestOpaqueBlock(x, z, highestSection);
+                // (In fast surface mode, any fully-opaque block at or below
+                // that will do, since overlaying a fully opaque color
+                // replaces whatever was beneath it.)
+                int yOpaque = fastSurface ? seededOpaqueBlock(x, z) : -1;
+                if (yOpaque < 0)
+                    yOpaque = highestOpaqueBlock(x, z, highestSection);
                 int height = yOpaque;
-                BlockData block = blockAt(x, yOpaque, z);
 
                 // We start with the color of that block, then overlay the
-                // colors of the blocks above it, until we hit the top of
-                // the highest populated chunk section
-                Color pixelColor = block.computedColor();
-                final int maxY = (highestSection + 1) * NBLOCKS;
-
-                for (int y = yOpaque + 1; y < maxY; y++) {
-                    BlockData b = blockAt(x, y, z);
-                    Color c = b.computedColor();
-                    pixelColor = pixelColor.overlay(c);
+                // colors of the blocks above it, until we hit the highest
+                // visible block (anything above that is fully transparent,
+                // and would leave the color unchanged)
+                int pixelColor = yOpaque < 0 ? Argb.TRANSPARENT
+                        : argbAt(x, yOpaque, z);
+                final int maxY = highestVisibleBlock(x, z, yOpaque);
+
+                for (int y = yOpaque + 1; y <= maxY; y++) {
+                    int c = argbAt(x, y, z);
+                    pixelColor = Pixels.overlay(pixelColor, c);
                     // while we are here, see if the the overlay block is
                     // opaque enough to increase our height marker...
-                    if (b.opaqueEnough())
+                    if (Argb.alpha(c) >= SHADE_OPACITY_CUTOFF)
                         height = y;
                 }
 
                 // and while we are at it, demultiply alpha as the last step.
-                surfaceColors[z][x] = pixelColor.demultiplyAlpha();
+                surfaceColors[z][x] = Argb.demultiplyAlpha(pixelColor);
                 surfaceHeights[z][x] = (short) height;
             }
         }
     }
 
 
-    private BlockData blockAt(int x, int y, int z) {
+    private ChunkSection section(int sIdx) {
+        ChunkSection s = sections[sIdx];
+        if (s == null && pending[sIdx] != null) {
+            RawSection raw = pending[sIdx];
+            s = new ChunkSection(raw.blocks, raw.add, raw.data, biomeData);
+            sections[sIdx] = s;
+            pending[sIdx] = null;
+        }
+        return s;
+    }
+
+    private int argbAt(int x, int y, int z) {
         int sIdx = y / NSECTIONS;
         int localY = y % NSECTIONS;
-        ChunkSection s = sections[sIdx];
-        return s == null ? AIR_BLOCK : s.blockAt(x, localY, z);
+        ChunkSection s = section(sIdx);
+        return s == null ? Argb.TRANSPARENT : s.argbAt(x, localY, z);
+    }
+
+    /*
+     * The stored height map holds, for each column, the lowest y-value
+     * at which sky light is at full strength; that is, one above the
+     * highest light-blocking block. If that block is fully opaque (by our
+     * reckoning), it serves as a floor for the surface scan; otherwise
+     * (no height map, or the map disagrees with our block colors) we
+     * return -1 to signal that a full scan is required.
+     */
+    private int seededOpaqueBlock(int x, int z) {
+        if (heightMap == null)
+            return -1;
+        int y = heightMap[z * NBLOCKS + x] - 1;
+        if (y < 0 || y >= (highestSection + 1) * NBLOCKS)
+            return -1;
+        ChunkSection s = section(y / NBLOCKS);
+        if (s == null)
+            return -1;
+        int key = s.blockKeyAt(x, y % NBLOCKS, z);
+        return BlockColorTable.COLOR_TABLE.fullyOpaque(key) ? y : -1;
     }
 
     private int highestOpaqueBlock(int x, int z, int highestSection) {
         int highestOpaque = -1;
         for (int sIdx = highestSection; sIdx >= 0; sIdx--) {
-            ChunkSection s = sections[sIdx];
+            ChunkSection s = section(sIdx);
             if (s != null) {
                 int high = s.highOpaque(x, z);
                 if (high > -1)
@@ -189,10 +255,94 @@ class Chunk {
         return highestOpaque;
     }
 
+    private int highestVisibleBlock(int x, int z, int floor) {
+        int lowest = floor < 0 ? 0 : floor / NBLOCKS;
+        for (int sIdx = highestSection; sIdx >= lowest; sIdx--) {
+            ChunkSection s = section(sIdx);
+            if (s != null) {
+                int high = s.highVisible(x, z);
+                if (high > -1)
+                    return Math.max(high + sIdx * NBLOCKS, floor);
+            }
+        }
+        return floor;
+    }
+
     private int highestUsedSection() {
         int highest = NSECTIONS - 1;
-        while (sections[highest] == null)
+        while (highest >= 0 && (section(highest) == null ||
+                section(highest).isAllAir()))
             highest--;
         return highest;
     }
+
+    /**
+     * The raw NBT arrays for a single chunk section.
+     */
+    private static class RawSection {
+        private int y = -1;
+        private byte[] blocks;
+        private byte[] add;
+        private byte[] data;
+
+        private boolean isValid() {
+            return y >= 0 && y < NSECTIONS && blocks != null && data != null;
+        }
+    }
+
+    /**
+     * Collects the selected tags as they are streamed from the NBT reader.
+     */
+    private static class ChunkLoader implements SelectiveNbtReader.Handler {
+        private final List<RawSection> sections = new ArrayList<>(NSECTIONS);
+        private RawSection current;
+        private byte[] biomes;
+        private int[] heightMap;
+
+        @Override
+        public void startCompound(String path) {
+            if (LEVEL_SECTIONS.equals(path))
+                current = new RawSection();
+        }
+
+        @Override
+        public void endCompound(String path) {
+            if (LEVEL_SECTIONS.equals(path)) {
+                sections.add(current);
+                current = null;
+            }
+        }
+
+        @Override
+        public void byteValue(String path, byte value) {
+            if (current != null && SECTION_Y.equals(path))
+                current.y = value;
+        }
+
+        @Override
+        public void byteArray(String path, byte[] value) {
+            switch (path) {
+                case LEVEL_BIOMES:
+                    biomes = value;
+                    break;
+                case SECTION_BLOCKS:
+                    current.blocks = value;
+                    break;
+                case SECTION_ADD:
+                    current.add = value;
+                    break;
+                case SECTION_DATA:
+                    current.data = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void intArray(String path, int[] value) {
+            if (LEVEL_HEIGHTMAP.equals(path))
+                heightMap = value;
+        }
+    }
 }
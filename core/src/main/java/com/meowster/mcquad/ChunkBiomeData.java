@@ -34,15 +34,25 @@ class ChunkBiomeData {
     }
 
     /**
-     * Returns the biome for the given Y-Z-X coordinates encoded in the
-     * specified integer.
+     * Returns the biome index for the given Y-Z-X coordinates encoded in
+     * the specified integer. This is the biome ID, or
+     * {@link BlockColorTable#DEFAULT_BIOME} if there is no biome data.
      *
      * @param yzxIndex the Y-Z-X coordinates
-     * @return the biome for the corresponding [x,z] coordinates
+     * @return the biome index for the corresponding [x,z] coordinates
      */
-    Biome biomeAt(int yzxIndex) {
-        int xz = yzxIndex % SQUARE_NBLOCKS;
-        return data == null ? BiomeColors.BIOME_DB.getDefaultBiome()
-                : BiomeColors.BIOME_DB.getBiome(data[xz] & FF);
+    int biomeIndexAt(int yzxIndex) {
+        return data == null ? BlockColorTable.DEFAULT_BIOME
+                : data[yzxIndex % SQUARE_NBLOCKS] & FF;
+    }
+
+    /**
+     * Checks that all the biomes referenced by this chunk are mapped,
+     * so that any that are not get reported as defaulted.
+     */
+    void checkMapped() {
+        if (data != null)
+            for (int xz = 0; xz < SQUARE_NBLOCKS; xz++)
+                BiomeColors.BIOME_DB.checkMapped(data[xz] & FF);
     }
 }
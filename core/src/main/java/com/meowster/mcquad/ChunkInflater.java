@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses chunk data into a reusable, growable byte buffer. Each thread
+ * gets its own instance (see {@link #forThread()}), so that a single native
+ * {@link Inflater} and a single pair of buffers are recycled for every chunk
+ * that thread decompresses, rather than allocating (and relying on
+ * finalization to free) fresh zlib state per chunk.
+ * <p>
+ * Note that the inflated data is only valid until the next chunk is
+ * decompressed on the same thread.
+ *
+ * @author Simon Hunt
+ */
+class ChunkInflater {
+    private static final String E_TRUNCATED = "Truncated chunk data";
+
+    // typical chunks inflate to well under this; the buffer grows if needed
+    private static final int INITIAL_OUTPUT = 128 * 1024;
+    private static final int INITIAL_INPUT = 16 * 1024;
+
+    private static final ThreadLocal<ChunkInflater> POOL = new ThreadLocal<>();
+
+    private final Inflater inflater = new Inflater();
+    private byte[] input = new byte[INITIAL_INPUT];
+    private byte[] output = new byte[INITIAL_OUTPUT];
+    private int length;
+
+    // instances are obtained via forThread()
+    private ChunkInflater() {
+    }
+
+    /**
+     * Returns the inflater instance for the current thread.
+     *
+     * @return this thread's chunk inflater
+     */
+    static ChunkInflater forThread() {
+        ChunkInflater ci = POOL.get();
+        if (ci == null) {
+            ci = new ChunkInflater();
+            POOL.set(ci);
+        }
+        return ci;
+    }
+
+    /**
+     * Releases the native resources held by the current thread's inflater
+     * (if it has one). Should be invoked when a thread has finished
+     * decompressing chunks.
+     */
+    static void releaseForThread() {
+        ChunkInflater ci = POOL.get();
+        if (ci != null) {
+            ci.inflater.end();
+            POOL.remove();
+        }
+    }
+
+    /**
+     * Inflates the given zlib-compressed data into our internal buffer.
+     * The buffer's remaining bytes are consumed.
+     *
+     * @param compressed the compressed data
+     * @return the number of inflated bytes
+     * @throws DataFormatException if the compressed data is malformed
+     */
+    int inflate(ByteBuffer compressed) throws DataFormatException {
+        int n = compressed.remaining();
+        if (input.length < n)
+            input = new byte[Math.max(n, input.length * 2)];
+        compressed.get(input, 0, n);
+
+        inflater.reset();
+        inflater.setInput(input, 0, n);
+        length = 0;
+
+        while (!inflater.finished()) {
+            if (length == output.length)
+                output = Arrays.copyOf(output, output.length * 2);
+
+            int k = inflater.inflate(output, length, output.length - length);
+            if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                throw new DataFormatException(E_TRUNCATED);
+            length += k;
+        }
+        return length;
+    }
+
+    /**
+     * Reads the given (already decompressing) stream to its end, into our
+     * internal buffer. This is used for the rarely seen gzip compressed
+     * chunks.
+     *
+     * @param in the stream to read
+     * @return the number of bytes read
+     * @throws IOException if there is an error reading the stream
+     */
+    int readFully(InputStream in) throws IOException {
+        length = 0;
+        int k;
+        do {
+            if (length == output.length)
+                output = Arrays.copyOf(output, output.length * 2);
+            k = in.read(output, length, output.length - length);
+            if (k > 0)
+                length += k;
+        } while (k != -1);
+        return length;
+    }
+
+    /**
+     * Returns a data input stream over the most recently inflated data.
+     *
+     * @return a stream of the inflated data
+     */
+    DataInputStream stream() {
+        return new DataInputStream(new ByteArrayInputStream(output, 0, length));
+    }
+}
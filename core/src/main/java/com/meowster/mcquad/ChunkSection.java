@@ -4,65 +4,92 @@
 
 package com.meowster.mcquad;
 
-import org.jnbt.ByteArrayTag;
-import org.jnbt.CompoundTag;
-import org.jnbt.Tag;
-
-import static com.meowster.mcquad.NbtUtils.ADD;
-import static com.meowster.mcquad.NbtUtils.BLOCKS;
-import static com.meowster.mcquad.NbtUtils.DATA;
-import static com.meowster.mcquad.NbtUtils.getByteArrayFromTag;
+import java.util.Arrays;
 
 /**
  * Encapsulates data about a chunk section (16x16x16 blocks).
+ * <p>
+ * Block IDs and data values are held as packed block keys in a primitive
+ * array; colors are only resolved for the blocks that are actually asked
+ * about. When the section is loaded, the heights of the highest fully
+ * opaque and highest visible blocks in each column are noted, so that
+ * surface scans need not search for them.
  *
  * @author Simon Hunt
  */
 class ChunkSection {
 
     private static final int CUBE_16 = 16 * 16 * 16;
+    private static final int SQUARE_16 = 16 * 16;
     private static final int NBLOCKS = 16;
+    private static final byte NONE = -1;
     private static final int FF = 0xff;
+    private static final int FFFF = 0xffff;
+
+    private static final BlockColors BLOCK_DB = BlockColors.BLOCK_DB;
+    private static final BlockColorTable COLOR_TABLE =
+            BlockColorTable.COLOR_TABLE;
 
-    private final BlockData[] blockData = new BlockData[CUBE_16];
+    // block keys (see BlockColors.key()), indexed by [y,z,x]
+    private final short[] blocks = new short[CUBE_16];
+    private final ChunkBiomeData biomeData;
+
+    // local y of highest fully opaque / visible block, indexed by [z,x]
+    private final byte[] highOpaque = new byte[SQUARE_16];
+    private final byte[] highVisible = new byte[SQUARE_16];
+    private boolean allAir = true;
 
     /**
-     * Creates the chunk section from the specified (NBT compound) section tag.
+     * Creates the chunk section from the raw arrays read from the section's
+     * NBT data.
      *
-     * @param sectionTag the section tag
-     * @param biomeData  the biome data associated with this chunk
+     * @param idsLow    the "Blocks" array (low 8 bits of the block IDs)
+     * @param add       the "Add" array (high 4 bits of the block IDs),
+     *                  which may be null
+     * @param data      the "Data" array (block data values)
+     * @param biomeData the biome data associated with this chunk
      */
-    ChunkSection(CompoundTag sectionTag, ChunkBiomeData biomeData) {
-        byte[] idsLow = getByteArrayFromTag(sectionTag, BLOCKS);
-        Tag addTag = sectionTag.getValue().get(ADD);
-        byte[] add = addTag == null ? null : ((ByteArrayTag) addTag).getValue();
-        byte[] data = getByteArrayFromTag(sectionTag, DATA);
-
+    ChunkSection(byte[] idsLow, byte[] add, byte[] data,
+                 ChunkBiomeData biomeData) {
+        this.biomeData = biomeData;
+        Arrays.fill(highOpaque, NONE);
+        Arrays.fill(highVisible, NONE);
         if (add != null) {
-            process(idsLow, add, data, biomeData);
+            process(idsLow, add, data);
         } else {
-            process(idsLow, data, biomeData);
+            process(idsLow, data);
         }
     }
 
-    private void process(byte[] idsLow, byte[] add, byte[] data,
-                         ChunkBiomeData biomeData) {
+    private void process(byte[] idsLow, byte[] add, byte[] data) {
         for (int index = 0; index < CUBE_16; index++) {
-            short blockId = (short) (idsLow[index] & FF);
+            int blockId = idsLow[index] & FF;
             blockId |= nybble(add, index) << 8;
-            byte datum = nybble(data, index);
-            Biome biome = biomeData.biomeAt(index);
-            blockData[index] = new BlockData(blockId, datum, biome);
+            store(index, BlockColors.key(blockId, nybble(data, index)));
         }
     }
 
-    private void process(byte[] idsLow, byte[] data,
-                         ChunkBiomeData biomeData) {
+    private void process(byte[] idsLow, byte[] data) {
         for (int index = 0; index < CUBE_16; index++) {
-            short blockId = (short) (idsLow[index] & FF);
-            byte datum = nybble(data, index);
-            Biome biome = biomeData.biomeAt(index);
-            blockData[index] = new BlockData(blockId, datum, biome);
+            int blockId = idsLow[index] & FF;
+            store(index, BlockColors.key(blockId, nybble(data, index)));
+        }
+    }
+
+    private void store(int index, int key) {
+        blocks[index] = (short) key;
+        // make sure unmapped blocks get reported, even if not rendered
+        BLOCK_DB.checkMapped(key);
+
+        // blocks are stored in ascending y order, so the last visible
+        // (or opaque) block we see in a column is the highest
+        if (COLOR_TABLE.visible(key)) {
+            int xz = index % SQUARE_16;
+            byte y = (byte) (index / SQUARE_16);
+            highVisible[xz] = y;
+            allAir = false;
+            if (COLOR_TABLE.fullyOpaque(key))
+                highOpaque[xz] = y;
         }
     }
 
@@ -83,15 +110,30 @@ class ChunkSection {
     }
 
     /**
-     * Returns the block data for the given coordinates [x,y,z].
+     * Returns the block key for the given coordinates [x,y,z].
      *
      * @param x the x-coord (0..15)
      * @param y the y-coord (0..15)
      * @param z the z-coord (0..15)
-     * @return the block at those coordinates
+     * @return the key of the block at those coordinates
      */
-    BlockData blockAt(int x, int y, int z) {
-        return blockData[index(x, y, z)];
+    int blockKeyAt(int x, int y, int z) {
+        return blocks[index(x, y, z)] & FFFF;
+    }
+
+    /**
+     * Returns the computed color (as an ARGB int) of the block at the given
+     * coordinates [x,y,z], taking biome influence into consideration.
+     *
+     * @param x the x-coord (0..15)
+     * @param y the y-coord (0..15)
+     * @param z the z-coord (0..15)
+     * @return the computed color of the block at those coordinates
+     */
+    int argbAt(int x, int y, int z) {
+        int index = index(x, y, z);
+        return COLOR_TABLE.argb(blocks[index] & FFFF,
+                biomeData.biomeIndexAt(index));
     }
 
     /**
@@ -103,12 +145,29 @@ class ChunkSection {
      * @return the y value of the highest fully opaque block at those coords
      */
     int highOpaque(int x, int z) {
-        for (int y = NBLOCKS - 1; y >= 0; y--) {
-            BlockData block = blockAt(x, y, z);
-            if (block.isFullyOpaque())
-                return y;
-        }
-        return -1;
+        return highOpaque[z * NBLOCKS + x];
+    }
+
+    /**
+     * Returns the (local) y-value (0..15) of the highest visible (that is,
+     * not fully transparent) block at [x,z]. If none are found, -1 is
+     * returned.
+     *
+     * @param x the x-coord
+     * @param z the z-coord
+     * @return the y value of the highest visible block at those coords
+     */
+    int highVisible(int x, int z) {
+        return highVisible[z * NBLOCKS + x];
+    }
+
+    /**
+     * Returns true if every block in this section is fully transparent.
+     *
+     * @return true if the section is all air
+     */
+    boolean isAllAir() {
+        return allAir;
     }
 
     private int index(int x, int y, int z) {
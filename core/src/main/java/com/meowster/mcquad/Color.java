@@ -222,7 +222,7 @@ class Color {
      * @return the resulting shaded color
      */
     public Color shade(int amount) {
-        return new Color(alpha, red + amount, green + amount, blue + amount);
+        return new Color(Argb.shade(raw, amount));
     }
 
     /**
@@ -233,13 +233,7 @@ class Color {
      * @return the resulting combined color
      */
     public Color overlay(Color overlayColor) {
-        final OverlayFilter filter = new OverlayFilter(overlayColor);
-        return new Color(
-                filter.combinedAlpha(alpha),
-                filter.combinedRgb(overlayColor.red, red),
-                filter.combinedRgb(overlayColor.green, green),
-                filter.combinedRgb(overlayColor.blue, blue)
-        );
+        return new Color(Argb.overlay(raw, overlayColor.raw));
     }
 
     /**
@@ -266,16 +260,7 @@ class Color {
      * @return the alpha-demultiplied color
      */
     public Color demultiplyAlpha() {
-        return alpha == 0 ? TRANSPARENT : new Color(
-                alpha,
-                demultAlpha(red),
-                demultAlpha(green),
-                demultAlpha(blue)
-        );
-    }
-
-    private int demultAlpha(int component) {
-        return component * MAX_BYTE / alpha;
+        return alpha == 0 ? TRANSPARENT : new Color(Argb.demultiplyAlpha(raw));
     }
 
     /**
@@ -286,12 +271,7 @@ class Color {
      * @return the resulting combined color
      */
     public Color multiply(Color multiplier) {
-        return new Color(
-                multiply(alpha, multiplier.alpha),
-                multiply(red, multiplier.red),
-                multiply(green, multiplier.green),
-                multiply(blue, multiplier.blue)
-        );
+        return new Color(Argb.multiply(raw, multiplier.raw));
     }
 
     /**
@@ -302,45 +282,7 @@ class Color {
      * @return the resulting combined color
      */
     public Color multiplySolid(Color multiplier) {
-        return new Color(
-                alpha,
-                multiply(red, multiplier.red),
-                multiply(green, multiplier.green),
-                multiply(blue, multiplier.blue)
-        );
-    }
-
-    private int multiply(int component, int multComponent) {
-        return component * multComponent / MAX_BYTE;
-    }
-
-    /**
-     * Private helper class to encapsulate overlay filtering behavior.
-     */
-    private static class OverlayFilter {
-        private final int opacity;
-        private final int transparency;
-
-        OverlayFilter(Color overlay) {
-            opacity = overlay.alpha();
-            transparency = overlay.transparency();
-        }
-
-        int combinedAlpha(int alpha) {
-            return opacity + showing(alpha) / MAX_BYTE;
-        }
-
-        int combinedRgb(int overlayComponent, int component) {
-            return (occluded(overlayComponent) + showing(component)) / MAX_BYTE;
-        }
-
-        private int showing(int component) {
-            return component * transparency;
-        }
-
-        private int occluded(int component) {
-            return component * opacity;
-        }
+        return new Color(Argb.multiplySolid(raw, multiplier.raw));
     }
 
     /**
@@ -353,22 +295,6 @@ class Color {
     public static Color averageColor(int... argb) {
         if (argb == null || argb.length == 0)
             return TRANSPARENT;
-        if (argb.length == 1)
-            return new Color(argb[0]);
-
-        int a = 0;
-        int r = 0;
-        int g = 0;
-        int b = 0;
-
-        for (int c : argb) {
-            Color color = new Color(c);
-            a += color.alpha;
-            r += color.red;
-            g += color.green;
-            b += color.blue;
-        }
-        final int n = argb.length;
-        return new Color(a / n, r / n, g / n, b / n);
+        return new Color(Argb.average(argb));
     }
 }
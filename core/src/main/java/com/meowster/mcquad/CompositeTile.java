@@ -7,8 +7,6 @@ package com.meowster.mcquad;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 
-import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
-
 /**
  * Embodies a composite tile, made from four individual tiles in a 2x2
  * configuration.
@@ -19,10 +17,12 @@ class CompositeTile {
     private static final int NPIXELS = 256; // pixel dimension of tile
     private static final int HALF = NPIXELS / 2;
 
+    private final int[] pixels = new int[NPIXELS * NPIXELS];
     private BufferedImage image;
 
     /**
-     * Constructs a composite tile from the given quadrant tiles.
+     * Constructs a composite tile from the given quadrant tiles, reloading
+     * their images from disk.
      *
      * @param tl top-left quadrant
      * @param tr top-right quadrant
@@ -30,44 +30,55 @@ class CompositeTile {
      * @param br bottom-right quadrant
      */
     CompositeTile(QuadTile tl, QuadTile tr, QuadTile bl, QuadTile br) {
-        image = new BufferedImage(NPIXELS, NPIXELS, TYPE_INT_ARGB);
+        this(loadPixels(tl), loadPixels(tr), loadPixels(bl), loadPixels(br));
+    }
+
+    /**
+     * Constructs a composite tile from the given quadrant tile pixel data
+     * (ARGB ints, row by row). A null quadrant is left transparent.
+     *
+     * @param tl top-left quadrant
+     * @param tr top-right quadrant
+     * @param bl bottom-left quadrant
+     * @param br bottom-right quadrant
+     */
+    CompositeTile(int[] tl, int[] tr, int[] bl, int[] br) {
         compose(tl, 0, 0);
         compose(tr, HALF, 0);
         compose(bl, 0, HALF);
         compose(br, HALF, HALF);
+        image = Pixels.image(pixels, NPIXELS, NPIXELS);
     }
 
-    private void compose(QuadTile tile, int offx, int offz) {
+    /**
+     * Reloads the given tile's image from disk, returning its pixel data,
+     * or null if the tile is null or its image could not be loaded.
+     *
+     * @param tile the tile
+     * @return the tile pixel data
+     */
+    static int[] loadPixels(QuadTile tile) {
         if (tile == null)
-            return; // nothing to do
+            return null;
 
         // the quad-tile's image needs to be reloaded from disk...
         try {
-            BufferedImage tileImage = tile.loadImageFromDisk();
-            if (tileImage == null)
-                return; // unable to load image
-
-            for (int z = 0; z < NPIXELS; z += 2) {
-                int z2 = z / 2;
-                for (int x = 0; x < NPIXELS; x += 2) {
-                    int x2 = x / 2;
-                    Color av = getAvColor(tileImage, x, z);
-                    image.setRGB(offx + x2, offz + z2, av.toInt());
-                }
-            }
+            return tile.loadPixelsFromDisk();
 
         } catch (IOException e) {
             // TODO: should we try and write *something* in the tile quadrant?
             System.err.println("Failed to load image for: " + tile);
+            return null;
         }
     }
 
-    private Color getAvColor(BufferedImage tileImage, int x, int z) {
-        int a = tileImage.getRGB(x, z);
-        int b = tileImage.getRGB(x + 1, z);
-        int c = tileImage.getRGB(x, z + 1);
-        int d = tileImage.getRGB(x + 1, z + 1);
-        return Color.averageColor(a, b, c, d);
+    // scales the quadrant tile down into its place in the composite
+    private void compose(int[] tile, int offx, int offz) {
+        if (tile == null)
+            return; // nothing to do
+
+        Pixels.downscale(tile, NPIXELS, NPIXELS,
+                pixels, offz * NPIXELS + offx, NPIXELS);
     }
 
     /**
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.util.PathUtils;
+import com.meowster.util.PngEncoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The default tile store; holds each tile as a PNG file of its own, in
+ * the tiles directory layout served by the web map:
+ * <pre>
+ *     tiles/z7/x12/t.34.png
+ * </pre>
+ * If {@link #dedup deduplication} is enabled, a tile whose image is
+ * identical (by content hash) to one already written is not encoded
+ * again, but hard linked to the earlier file. Should that fail, as when
+ * the file system's limit on links per file is reached (e.g. 65000 on
+ * ext4), or it has no hard links at all, the tile is written after all;
+ * the new file then being the one to which later tiles are linked.
+ *
+ * @author Simon Hunt
+ */
+class FileTileStore implements TileSink, TileSource {
+
+    private static final String ZOOM_PREFIX = "z";
+
+    private final File tilesDir;
+    private final PngEncoder encoder;
+    private boolean dedup;
+    // the file to link to for each image, by content hash
+    private final Map<Long, File> blobs = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a tile store for the given tiles directory, encoding
+     * tiles with the given encoder.
+     *
+     * @param tilesDir the tiles directory
+     * @param encoder  the PNG encoder
+     */
+    FileTileStore(File tilesDir, PngEncoder encoder) {
+        this.tilesDir = tilesDir;
+        this.encoder = encoder;
+    }
+
+    @Override
+    public String toString() {
+        return "FileTileStore{" + tilesDir + ", dedup=" + dedup + "}";
+    }
+
+    /**
+     * Sets whether identical tiles share a single file, rather than each
+     * being encoded and written.
+     *
+     * @param dedup true to deduplicate tiles
+     * @return self, for chaining
+     */
+    FileTileStore dedup(boolean dedup) {
+        this.dedup = dedup;
+        return this;
+    }
+
+    @Override
+    public boolean write(int zoom, Coord coord, int[] argb,
+                         int width, int height, long hash) {
+        File pngFile = pngFile(zoom, coord);
+        File xDir = pngFile.getParentFile();
+        if (!xDir.exists()) {
+            PathUtils.createIfNeedBe(xDir.getParentFile());
+            PathUtils.createIfNeedBe(xDir);
+        }
+        if (!dedup) {
+            encoder.write(argb, width, height, pngFile);
+            return false;
+        }
+
+        File blob = blobs.get(hash);
+        if (blob != null && !blob.equals(pngFile) && link(pngFile, blob))
+            return true;
+        encoder.write(argb, width, height, pngFile);
+        // (only once written, so that no link is made to a partial file;
+        // replacing a blob that could not be linked to)
+        if (blob == null)
+            blobs.putIfAbsent(hash, pngFile);
+        else
+            blobs.replace(hash, blob, pngFile);
+        return false;
+    }
+
+    // links the given file to the given blob, returning false on failure
+    private static boolean link(File pngFile, File blob) {
+        try {
+            PathUtils.linkAtomically(pngFile, blob);
+            return true;
+        } catch (IOException e) {
+            // at the link limit, no hard links here, or the blob is gone
+            return false;
+        }
+    }
+
+    @Override
+    public boolean delete(int zoom, Coord coord) {
+        // (a blob deleted here is replaced when next it cannot be linked to)
+        File pngFile = pngFile(zoom, coord);
+        try {
+            return Files.deleteIfExists(pngFile.toPath());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to delete tile " + pngFile, e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        // nothing to do; each file is complete once written
+    }
+
+    @Override
+    public int[] read(int zoom, Coord coord) throws IOException {
+        File pngFile = pngFile(zoom, coord);
+        if (!pngFile.isFile())
+            return null;
+        BufferedImage bi = ImageIO.read(pngFile);
+        return bi == null ? null : TileCache.pixelsOf(bi);
+    }
+
+    @Override
+    public boolean exists(int zoom, Coord coord) {
+        return pngFile(zoom, coord).exists();
+    }
+
+    @Override
+    public MortonSet tiles(int zoom) {
+        return AbsQuadTile.scanTiles(new File(tilesDir, ZOOM_PREFIX + zoom));
+    }
+
+    private File pngFile(int zoom, Coord coord) {
+        return new File(tilesDir, AbsQuadTile.tilePath(zoom, coord));
+    }
+}
@@ -20,11 +20,18 @@ class FourQTile extends AbsQuadTile {
         image = TileUtils.generateImage(tl, tr, bl, br);
     }
 
-    private String makeTag(QuadTile tl, QuadTile tr, QuadTile bl, QuadTile br) {
+    // as above, but from the tiles' pixel data
+    FourQTile(int a, int b, int[] tl, int[] tr, int[] bl, int[] br) {
+        coord = new Coord(a / 2, b / 2);
+        tag = makeTag(tl, tr, bl, br);
+        image = TileUtils.generateImage(tl, tr, bl, br);
+    }
+
+    private String makeTag(Object tl, Object tr, Object bl, Object br) {
         return "[" + tileTag(tl) + tileTag(tr) + tileTag(bl) + tileTag(br) + "]";
     }
 
-    private String tileTag(QuadTile qt) {
+    private String tileTag(Object qt) {
         return qt == null ? "." : "#";
     }
 
@@ -3,28 +3,29 @@
  */
 package com.meowster.mcquad;
 
-import java.io.File;
-
 /**
- * Quad tile implementation that sources its data from a .png file.
+ * Quad tile implementation that sources its data from a previously
+ * written tile.
  */
 class FromDiskQTile extends AbsQuadTile {
 
     /**
-     * Instantiates a quad tile from a .png file.
+     * Instantiates a quad tile from the given tile source.
      *
-     * @param tile the tile location on disk
+     * @param coord  the tile coordinates
+     * @param source the tile source
+     * @param zoom   the zoom level of the tile
      */
-    FromDiskQTile(Coord coord, File tile) {
+    FromDiskQTile(Coord coord, TileSource source, int zoom) {
         this.coord = coord;
-        this.onDisk = tile;
+        setSource(source, zoom);
     }
 
     @Override
     public String toString() {
         return "FromDiskQTile{" +
                 "coord=" + coord +
-                "file=" + onDisk +
+                "source=" + source +
                 "}";
     }
 }
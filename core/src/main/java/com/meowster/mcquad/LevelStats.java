@@ -7,7 +7,8 @@ package com.meowster.mcquad;
 import com.meowster.util.Tracker;
 
 /**
- * Encapsulates statistics about a level build.
+ * Encapsulates statistics about a level build. Statistics may be updated
+ * concurrently from multiple render threads.
  *
  * @author Simon Hunt
  */
@@ -15,6 +16,7 @@ class LevelStats {
     private int zoom;
     private final Tracker tracker = new Tracker();
     private int blanks;
+    private int duplicates;
 
     /**
      * Sets the zoom level these stats are associated with.
@@ -30,11 +32,11 @@ class LevelStats {
      *
      * @return the report line
      */
-    private String reportLine() {
+    private synchronized String reportLine() {
         return "Zoom Level " + zoom + ": #tiles = " + tracker.count() +
 //                ", duration = " + tracker.duration() +
 //                ", throughput = " + tracker.perSecond() +
-                ", (blanks=" + blanks + ")";
+                ", (blanks=" + blanks + ", duplicates=" + duplicates + ")";
     }
 
     @Override
@@ -45,14 +47,14 @@ class LevelStats {
     /**
      * Starts measuring throughput of tile generation.
      */
-    void startTracker() {
+    synchronized void startTracker() {
         tracker.start();
     }
 
     /**
      * Stops measuring tile generation throughput.
      */
-    void stopTracker() {
+    synchronized void stopTracker() {
         tracker.stop();
     }
 
@@ -61,14 +63,31 @@ class LevelStats {
      *
      * @param tile the quad tile
      */
-    void addStats(QuadTile tile) {
+    synchronized void addStats(QuadTile tile) {
         tracker.inc();
     }
 
     /**
      * Increments the blank count.
      */
-    void incBlanks() {
+    synchronized void incBlanks() {
         blanks++;
     }
+
+    /**
+     * Increments the count of tiles stored as duplicates; that is, sharing
+     * the image of an identical tile, rather than being written.
+     */
+    synchronized void incDuplicates() {
+        duplicates++;
+    }
+
+    /**
+     * Returns the count of tiles stored as duplicates.
+     *
+     * @return the duplicate count
+     */
+    synchronized int duplicates() {
+        return duplicates;
+    }
 }
@@ -4,6 +4,7 @@
 
 package com.meowster.mcquad;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -83,16 +84,43 @@ public class McQuad {
         printOut(quad);
         print(EOL);
 //        printOut(quad.schematic());
-        boolean flushAll = meta.updateQuadShift(quad.calibration());
+        Coord oldShift = meta.quadShift();
+        int oldBaseZoom = meta.baseZoom();
+        boolean shifted =
+                meta.updateQuadShift(quad.calibration(), quad.baseZoom());
         meta.persist();
         printOut(meta);
 
-        // Compute those regions that are stale, then...
-        Set<Coord> stale = flushAll ? null : quad.adjust(meta.stale());
+        // Compute those regions that are stale (all of them, if there is
+        // no previous calibration), then...
+        Set<Coord> stale = shifted && oldShift == null
+                ? null : quad.adjust(meta.stale());
+
+        // ...into a new generation of the tiles directory, if so configured...
+        TileGenerations generations = cfg.tileGenerations()
+                ? new TileGenerations(outputUtils.tilesLink()) : null;
+        File tilesDir = generations == null ? outputUtils.tilesDir()
+                : generations.stage(stale != null);
 
         // ...render those tiles that need rendering...
         TileRenderer tr =
-                new TileRenderer(quad, outputUtils.tilesDir()).render(stale);
+                new TileRenderer(quad, tilesDir)
+                        .renderThreads(cfg.renderThreads())
+                        .renderStages(cfg.renderStages())
+                        .fastSurface(cfg.fastSurface())
+                        .rasterCache(outputUtils.rasterDir())
+                        .tileIndex(outputUtils.tileIndexDir())
+                        .tileHashes(outputUtils.tileHashDir())
+                        .tileCache(cfg.tileCacheMb())
+                        .pngEncoding(cfg.pngLevel(), cfg.pngAdaptiveFilter(),
+                                cfg.pngPalette())
+                        .fusedPyramid(cfg.fusedPyramid())
+                        .calibrationShift(shifted ? oldShift : null,
+                                oldBaseZoom)
+                        .generations(generations)
+                        .tileArchive(cfg.tileArchive())
+                        .tileDedup(cfg.tileDedup())
+                        .render(stale);
         printOut("\nTOTAL Tiles Rendered: {}", tr.totalTilesRendered());
 
         // Create today's heatmaps
@@ -1,10 +1,12 @@
 package com.meowster.mcquad;
 
 import com.meowster.rec.TextFile;
+import com.meowster.util.PngEncoder;
 
 import java.io.File;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -16,18 +18,96 @@ class McQuadConfig {
     private static final String CONFIG_FILE = "mcquad-config.txt";
     private static final String HEADER = "# McQuad Config : %s";
     private static final String FMT_BOUNDS = "RegionBounds: %d %d";
+    private static final String FMT_THREADS = "RenderThreads: %d";
+    private static final String FMT_FAST_SURFACE = "FastSurface: %b";
+    private static final String FMT_TILE_CACHE = "TileCacheMB: %d";
+    private static final String FMT_FUSED_PYRAMID = "FusedPyramid: %b";
+    private static final String FMT_PNG_LEVEL = "PngLevel: %d";
+    private static final String FMT_PNG_FILTER = "PngAdaptiveFilter: %b";
+    private static final String FMT_PNG_PALETTE = "PngPalette: %s";
+    private static final String FMT_PIPELINE = "RenderPipeline: %s";
+    private static final String PIPELINE_OFF = "off";
+    private static final String FMT_GENERATIONS = "TileGenerations: %b";
+    private static final String FMT_TILE_FORMAT = "TileFormat: %s";
+    private static final String FORMAT_PNG = "png";
+    private static final String FORMAT_ARCHIVE = "archive";
+    private static final String FMT_DEDUP = "TileDedup: %b";
 
     private static final int REGION_MIN = -32;
     private static final int REGION_MAX = 31;
 
+    // zero denotes "one per available processor"
+    private static final int AUTO_THREADS = 0;
+
+    private static final int DEFAULT_TILE_CACHE_MB = 128;
+
     private final TextFile tf;
 
     // ignore any region file outside these bounds.
     private int regionMin = REGION_MIN;
     private int regionMax = REGION_MAX;
 
+    // number of worker threads used to render the base level regions
+    private int renderThreads = AUTO_THREADS;
+
+    // whether to seed the surface scan from the chunks' height maps
+    private boolean fastSurface = false;
+
+    // memory budget (in megabytes) for caching tiles between zoom levels
+    private int tileCacheMb = DEFAULT_TILE_CACHE_MB;
+
+    // whether to build all zoomed-out levels in the base level pass
+    private boolean fusedPyramid = false;
+
+    // deflate level for the tile PNG files
+    private int pngLevel = PngEncoder.DEFAULT_LEVEL;
+
+    // whether to filter the rows of the tile PNG files adaptively
+    private boolean pngAdaptiveFilter = false;
+
+    // when to write tile PNG files with a colour palette
+    private PngEncoder.Palette pngPalette = PngEncoder.Palette.EXACT;
+
+    // thread counts and queue capacity of the staged render pipeline
+    // (null to render each region as a whole)
+    private RenderStages renderStages = null;
+
+    // whether to render into a new generation of the tiles directory,
+    // published (atomically) once complete
+    private boolean tileGenerations = false;
+
+    // whether to write the tiles into archive files, rather than one
+    // PNG file per tile
+    private boolean tileArchive = false;
+
+    // whether identical tiles share a single stored image
+    private boolean tileDedup = false;
+
     private static final Pattern P_REGION_BOUNDS =
             Pattern.compile("^RegionBounds:\\s(-?\\d+)\\s(-?\\d+)");
+    private static final Pattern P_RENDER_THREADS =
+            Pattern.compile("^RenderThreads:\\s(\\d+)");
+    private static final Pattern P_FAST_SURFACE =
+            Pattern.compile("^FastSurface:\\s(true|false)");
+    private static final Pattern P_TILE_CACHE =
+            Pattern.compile("^TileCacheMB:\\s(\\d+)");
+    private static final Pattern P_FUSED_PYRAMID =
+            Pattern.compile("^FusedPyramid:\\s(true|false)");
+    private static final Pattern P_PNG_LEVEL =
+            Pattern.compile("^PngLevel:\\s(\\d)");
+    private static final Pattern P_PNG_FILTER =
+            Pattern.compile("^PngAdaptiveFilter:\\s(true|false)");
+    private static final Pattern P_PNG_PALETTE =
+            Pattern.compile("^PngPalette:\\s(none|exact|quantized)");
+    private static final Pattern P_PIPELINE =
+            Pattern.compile("^RenderPipeline:\\s(?:off|(\\d+)\\s(\\d+)\\s" +
+                    "(\\d+)\\s(\\d+)\\s(\\d+))");
+    private static final Pattern P_GENERATIONS =
+            Pattern.compile("^TileGenerations:\\s(true|false)");
+    private static final Pattern P_TILE_FORMAT =
+            Pattern.compile("^TileFormat:\\s(png|archive)");
+    private static final Pattern P_DEDUP =
+            Pattern.compile("^TileDedup:\\s(true|false)");
 
     private McQuadConfig(File file) {
         tf = new TextFile(file);
@@ -43,6 +123,17 @@ class McQuadConfig {
         tf.clear()
                 .add(header())
                 .add(hardRegionBounds())
+                .add(renderThreadCount())
+                .add(fastSurfaceMode())
+                .add(tileCacheSize())
+                .add(fusedPyramidMode())
+                .add(pngDeflateLevel())
+                .add(pngFilterMode())
+                .add(pngPaletteMode())
+                .add(renderPipeline())
+                .add(tileGenerationsMode())
+                .add(tileFormat())
+                .add(tileDedupMode())
                 .write();
     }
 
@@ -50,6 +141,54 @@ class McQuadConfig {
         return String.format(FMT_BOUNDS, REGION_MIN, REGION_MAX);
     }
 
+    private String renderThreadCount() {
+        return String.format(FMT_THREADS, AUTO_THREADS);
+    }
+
+    private String fastSurfaceMode() {
+        return String.format(FMT_FAST_SURFACE, false);
+    }
+
+    private String tileCacheSize() {
+        return String.format(FMT_TILE_CACHE, DEFAULT_TILE_CACHE_MB);
+    }
+
+    private String fusedPyramidMode() {
+        return String.format(FMT_FUSED_PYRAMID, false);
+    }
+
+    private String pngDeflateLevel() {
+        return String.format(FMT_PNG_LEVEL, PngEncoder.DEFAULT_LEVEL);
+    }
+
+    private String pngFilterMode() {
+        return String.format(FMT_PNG_FILTER, false);
+    }
+
+    private String pngPaletteMode() {
+        return String.format(FMT_PNG_PALETTE, lower(PngEncoder.Palette.EXACT));
+    }
+
+    private String renderPipeline() {
+        return String.format(FMT_PIPELINE, PIPELINE_OFF);
+    }
+
+    private String tileGenerationsMode() {
+        return String.format(FMT_GENERATIONS, false);
+    }
+
+    private String tileFormat() {
+        return String.format(FMT_TILE_FORMAT, FORMAT_PNG);
+    }
+
+    private String tileDedupMode() {
+        return String.format(FMT_DEDUP, false);
+    }
+
+    private static String lower(Enum<?> e) {
+        return e.name().toLowerCase(Locale.ENGLISH);
+    }
+
     private String header() {
         return String.format(HEADER, new Date());
     }
@@ -66,13 +205,93 @@ class McQuadConfig {
         if (m.matches()) {
             regionMin = Integer.valueOf(m.group(1));
             regionMax = Integer.valueOf(m.group(2));
+            return;
+        }
+
+        m = P_RENDER_THREADS.matcher(line);
+        if (m.matches()) {
+            renderThreads = Integer.valueOf(m.group(1));
+            return;
+        }
+
+        m = P_FAST_SURFACE.matcher(line);
+        if (m.matches()) {
+            fastSurface = Boolean.valueOf(m.group(1));
+            return;
+        }
+
+        m = P_TILE_CACHE.matcher(line);
+        if (m.matches()) {
+            tileCacheMb = Integer.valueOf(m.group(1));
+            return;
+        }
+
+        m = P_FUSED_PYRAMID.matcher(line);
+        if (m.matches()) {
+            fusedPyramid = Boolean.valueOf(m.group(1));
+            return;
+        }
+
+        m = P_PNG_LEVEL.matcher(line);
+        if (m.matches()) {
+            pngLevel = Integer.valueOf(m.group(1));
+            return;
+        }
+
+        m = P_PNG_FILTER.matcher(line);
+        if (m.matches()) {
+            pngAdaptiveFilter = Boolean.valueOf(m.group(1));
+            return;
+        }
+
+        m = P_PNG_PALETTE.matcher(line);
+        if (m.matches()) {
+            pngPalette = PngEncoder.Palette.valueOf(
+                    m.group(1).toUpperCase(Locale.ENGLISH));
+            return;
+        }
+
+        m = P_PIPELINE.matcher(line);
+        if (m.matches()) {
+            renderStages = m.group(1) == null ? null : new RenderStages(
+                    Integer.valueOf(m.group(1)), Integer.valueOf(m.group(2)),
+                    Integer.valueOf(m.group(3)), Integer.valueOf(m.group(4)),
+                    Integer.valueOf(m.group(5)));
+            return;
+        }
+
+        m = P_GENERATIONS.matcher(line);
+        if (m.matches()) {
+            tileGenerations = Boolean.valueOf(m.group(1));
+            return;
+        }
+
+        m = P_TILE_FORMAT.matcher(line);
+        if (m.matches()) {
+            tileArchive = FORMAT_ARCHIVE.equals(m.group(1));
+            return;
+        }
+
+        m = P_DEDUP.matcher(line);
+        if (m.matches()) {
+            tileDedup = Boolean.valueOf(m.group(1));
         }
     }
 
     @Override
     public String toString() {
-        return String.format("McQuadConfig{ RegionBounds: %d %d }",
-                regionMin, regionMax);
+        return String.format("McQuadConfig{ RegionBounds: %d %d, " +
+                        "RenderThreads: %d, FastSurface: %b, " +
+                        "TileCacheMB: %d, FusedPyramid: %b, PngLevel: %d, " +
+                        "PngAdaptiveFilter: %b, PngPalette: %s, " +
+                        "RenderPipeline: %s, TileGenerations: %b, " +
+                        "TileFormat: %s, TileDedup: %b }",
+                regionMin, regionMax, renderThreads(), fastSurface,
+                tileCacheMb, fusedPyramid, pngLevel, pngAdaptiveFilter,
+                lower(pngPalette),
+                renderStages == null ? PIPELINE_OFF : renderStages,
+                tileGenerations, tileArchive ? FORMAT_ARCHIVE : FORMAT_PNG,
+                tileDedup);
     }
 
     static McQuadConfig load(File metaDir) {
@@ -87,4 +306,137 @@ class McQuadConfig {
     int[] regionBounds() {
         return new int[]{ regionMin, regionMax};
     }
+
+    /**
+     * Returns the number of worker threads to use when rendering regions.
+     * A configured value of 0 (the default) yields the number of
+     * processors available to the JVM.
+     *
+     * @return the number of render threads
+     */
+    int renderThreads() {
+        return renderThreads == AUTO_THREADS
+                ? Runtime.getRuntime().availableProcessors() : renderThreads;
+    }
+
+    /**
+     * Returns true if regions should be rendered in "fast surface" mode;
+     * that is, using each chunk's stored height map to seed the surface
+     * scan, and only unpacking those chunk sections that the scan needs.
+     * Note that in this mode, unmapped blocks in sections that are never
+     * unpacked are not reported as defaulted.
+     *
+     * @return true if fast surface mode is enabled
+     */
+    boolean fastSurface() {
+        return fastSurface;
+    }
+
+    /**
+     * Returns the memory budget, in megabytes, for holding rendered tiles
+     * in memory so that the next zoom level out need not reload them from
+     * disk. A value of 0 disables the cache.
+     *
+     * @return the tile cache size in megabytes
+     */
+    int tileCacheMb() {
+        return tileCacheMb;
+    }
+
+    /**
+     * Returns true if all the zoomed-out levels should be built in the
+     * same pass as the base levels, as each base tile is produced, rather
+     * than one level at a time, reloading each level's tiles.
+     *
+     * @return true if fused pyramid mode is enabled
+     */
+    boolean fusedPyramid() {
+        return fusedPyramid;
+    }
+
+    /**
+     * Returns the deflate level used when writing the tile PNG files;
+     * from 0 (fastest) to 9 (smallest).
+     *
+     * @return the PNG deflate level
+     */
+    int pngLevel() {
+        return pngLevel;
+    }
+
+    /**
+     * Returns true if the rows of the tile PNG files should be filtered
+     * adaptively. This is off by default, since map tiles generally
+     * compress better without row filters.
+     *
+     * @return true if adaptive filtering is enabled
+     */
+    boolean pngAdaptiveFilter() {
+        return pngAdaptiveFilter;
+    }
+
+    /**
+     * Returns when the tile PNG files should be written with a colour
+     * palette; "exact" (the default) for tiles with no more than 256
+     * colours, "quantized" to also reduce other tiles to 256 colours
+     * (which is lossy), or "none".
+     *
+     * @return the PNG palette mode
+     */
+    PngEncoder.Palette pngPalette() {
+        return pngPalette;
+    }
+
+    /**
+     * Returns the configuration of the staged render pipeline, in which
+     * reading, decoding, tile derivation and writing each have their own
+     * worker threads, with bounded queues between them; or null (the
+     * default, "off") if each region is rendered as a whole by one of the
+     * render threads. The configured values are the numbers of read,
+     * decode, derive and write threads, and the queue capacity.
+     *
+     * @return the render pipeline configuration, or null
+     */
+    RenderStages renderStages() {
+        return renderStages;
+    }
+
+    /**
+     * Returns true if the tiles should be rendered into a new generation
+     * of the tiles directory, rather than in place; the new generation is
+     * published, by atomically switching the "tiles" symbolic link to it,
+     * only once the render is complete. The web map thus never serves
+     * missing or partially written tiles. Unchanged tiles are carried over
+     * from the previous generation as hard links, rather than copied.
+     *
+     * @return true if tile generations are enabled
+     * @see TileGenerations
+     */
+    boolean tileGenerations() {
+        return tileGenerations;
+    }
+
+    /**
+     * Returns true if the tiles should be written into a small number of
+     * large archive files ("archive"), rather than one PNG file per tile
+     * ("png", the default). Note that archived tiles must be served
+     * through the {@link TileArchive} lookup API, rather than as files.
+     *
+     * @return true if the tiles are to be archived
+     */
+    boolean tileArchive() {
+        return tileArchive;
+    }
+
+    /**
+     * Returns true if tiles with identical images (as found in oceans,
+     * the void, or flat worlds) should share a single stored image, rather
+     * than each being encoded and written; as hard links to the one file,
+     * or shared offsets within an archive pack.
+     *
+     * @return true if tile deduplication is enabled
+     */
+    boolean tileDedup() {
+        return tileDedup;
+    }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+/**
+ * Morton (Z-order) codes for quad tile coordinates. The bits of the x and z
+ * coordinates are interleaved (x in the even bits, z in the odd bits), so
+ * that sorting by code visits the four quadrants of any tile in the order
+ * top-left, top-right, bottom-left, bottom-right, recursively; that is, the
+ * tiles that merge into each tile of the next zoom level out are always
+ * contiguous.
+ * <p>
+ * Coordinates must be non-negative.
+ *
+ * @author Simon Hunt
+ */
+final class Morton {
+
+    // no instantiation
+    private Morton() {
+    }
+
+    /**
+     * Returns the Morton code for the given coordinates.
+     *
+     * @param x the x-coord (non-negative)
+     * @param z the z-coord (non-negative)
+     * @return the Morton code
+     */
+    static long encode(int x, int z) {
+        return spread(x) | (spread(z) << 1);
+    }
+
+    /**
+     * Returns the Morton code for the given coordinates.
+     *
+     * @param c the coordinates
+     * @return the Morton code
+     */
+    static long encode(Coord c) {
+        return encode(c.x(), c.z());
+    }
+
+    /**
+     * Returns the x-coord encoded in the given Morton code.
+     *
+     * @param code the Morton code
+     * @return the x-coord
+     */
+    static int x(long code) {
+        return compact(code);
+    }
+
+    /**
+     * Returns the z-coord encoded in the given Morton code.
+     *
+     * @param code the Morton code
+     * @return the z-coord
+     */
+    static int z(long code) {
+        return compact(code >>> 1);
+    }
+
+    /**
+     * Returns the coordinates encoded in the given Morton code.
+     *
+     * @param code the Morton code
+     * @return the coordinates
+     */
+    static Coord decode(long code) {
+        return new Coord(x(code), z(code));
+    }
+
+    // spreads the low 32 bits of v into the even bits of a long
+    private static long spread(int v) {
+        long x = v & 0xffffffffL;
+        x = (x | (x << 16)) & 0x0000ffff0000ffffL;
+        x = (x | (x << 8)) & 0x00ff00ff00ff00ffL;
+        x = (x | (x << 4)) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    // gathers the even bits of the given long into an int
+    private static int compact(long code) {
+        long x = code & 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0f0f0f0f0f0f0f0fL;
+        x = (x | (x >>> 4)) & 0x00ff00ff00ff00ffL;
+        x = (x | (x >>> 8)) & 0x0000ffff0000ffffL;
+        x = (x | (x >>> 16)) & 0x00000000ffffffffL;
+        return (int) x;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static com.meowster.util.StringUtils.printErr;
+
+/**
+ * A set of tile coordinates, held as a sorted array of {@link Morton}
+ * codes. This serves as a compact, sparse index of the populated tiles
+ * of a quad level, which can be iterated in Morton order.
+ * <p>
+ * Codes may be added concurrently from multiple render threads; the array
+ * is sorted (and de-duplicated) lazily, when next queried.
+ *
+ * @author Simon Hunt
+ */
+class MortonSet {
+    private static final int MAGIC = 0x4d514d53;  // "MQMS"
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private long[] codes = new long[INITIAL_CAPACITY];
+    private int size;
+    private boolean normalized = true;
+
+    @Override
+    public synchronized String toString() {
+        normalize();
+        return "MortonSet{size=" + size + "}";
+    }
+
+    /**
+     * Adds the given Morton code to the set.
+     *
+     * @param code the code to add
+     */
+    synchronized void add(long code) {
+        if (size == codes.length)
+            codes = Arrays.copyOf(codes, size * 2);
+        if (size > 0 && code <= codes[size - 1])
+            normalized = false;
+        codes[size++] = code;
+    }
+
+    /**
+     * Adds the given tile coordinates to the set.
+     *
+     * @param c the coordinates to add
+     */
+    void add(Coord c) {
+        add(Morton.encode(c));
+    }
+
+    /**
+     * Adds all the codes in the given set to this set.
+     *
+     * @param other the other set
+     */
+    void addAll(MortonSet other) {
+        for (long code : other.toArray())
+            add(code);
+    }
+
+    /**
+     * Removes the given Morton code from the set.
+     *
+     * @param code the code to remove
+     * @return true if it was present
+     */
+    synchronized boolean remove(long code) {
+        normalize();
+        int i = Arrays.binarySearch(codes, 0, size, code);
+        if (i < 0)
+            return false;
+        System.arraycopy(codes, i + 1, codes, i, --size - i);
+        return true;
+    }
+
+    /**
+     * Removes the given tile coordinates from the set.
+     *
+     * @param c the coordinates to remove
+     * @return true if they were present
+     */
+    boolean remove(Coord c) {
+        return remove(Morton.encode(c));
+    }
+
+    /**
+     * Returns true if the set contains the given code.
+     *
+     * @param code the code
+     * @return true if present
+     */
+    synchronized boolean contains(long code) {
+        normalize();
+        return Arrays.binarySearch(codes, 0, size, code) >= 0;
+    }
+
+    /**
+     * Returns true if the set contains the given tile coordinates.
+     *
+     * @param x the x-coord
+     * @param z the z-coord
+     * @return true if present
+     */
+    boolean contains(int x, int z) {
+        return contains(Morton.encode(x, z));
+    }
+
+    /**
+     * Returns the number of codes in the set.
+     *
+     * @return the set size
+     */
+    synchronized int size() {
+        normalize();
+        return size;
+    }
+
+    /**
+     * Returns the codes in the set, in ascending (Morton) order.
+     *
+     * @return the codes
+     */
+    synchronized long[] toArray() {
+        normalize();
+        return Arrays.copyOf(codes, size);
+    }
+
+    /**
+     * Returns the set of parent tiles (one zoom level out) of the tiles
+     * in this set.
+     *
+     * @return the parent tiles
+     */
+    MortonSet parents() {
+        MortonSet result = new MortonSet();
+        long last = -1;
+        // (shifting preserves the order, so the result remains sorted)
+        for (long code : toArray()) {
+            long parent = code >>> 2;
+            if (parent != last)
+                result.add(parent);
+            last = parent;
+        }
+        return result;
+    }
+
+    // sorts and removes duplicates
+    private void normalize() {
+        if (normalized)
+            return;
+        Arrays.sort(codes, 0, size);
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (n == 0 || codes[i] != codes[n - 1])
+                codes[n++] = codes[i];
+        }
+        size = n;
+        normalized = true;
+    }
+
+    /**
+     * Saves the set to the given file. Failure to do so is reported, and
+     * the file removed, so that the index will be rebuilt next time.
+     *
+     * @param file the file to write
+     */
+    void save(File file) {
+        long[] all = toArray();
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_SIZE))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(all.length);
+            for (long code : all)
+                dos.writeLong(code);
+        } catch (IOException e) {
+            printErr("Failed to write index {}: {}", file, e);
+            if (!file.delete())
+                file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Loads a set from the given file, returning null if the file does not
+     * exist or is not a valid index file.
+     *
+     * @param file the file to read
+     * @return the loaded set, or null
+     */
+    static MortonSet load(File file) {
+        if (!file.isFile())
+            return null;
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION)
+                return null;
+            int n = dis.readInt();
+            if (n < 0 || (long) n * 8 > file.length())
+                return null;
+            MortonSet set = new MortonSet();
+            set.codes = new long[Math.max(n, INITIAL_CAPACITY)];
+            for (int i = 0; i < n; i++)
+                set.add(dis.readLong());
+            return set;
+
+        } catch (IOException e) {
+            printErr("Failed to read index {}: {}", file, e);
+            return null;
+        }
+    }
+}
@@ -25,6 +25,18 @@ class NbtUtils {
     static final String BLOCKS = "Blocks";
     static final String DATA = "Data";
     static final String ADD = "Add";
+    static final String HEIGHTMAP = "HeightMap";
+
+    private static final String SLASH = "/";
+
+    // tag paths, for use with the SelectiveNbtReader
+    static final String LEVEL_BIOMES = LEVEL + SLASH + BIOMES;
+    static final String LEVEL_HEIGHTMAP = LEVEL + SLASH + HEIGHTMAP;
+    static final String LEVEL_SECTIONS = LEVEL + SLASH + SECTIONS;
+    static final String SECTION_Y = LEVEL_SECTIONS + SLASH + Y;
+    static final String SECTION_BLOCKS = LEVEL_SECTIONS + SLASH + BLOCKS;
+    static final String SECTION_DATA = LEVEL_SECTIONS + SLASH + DATA;
+    static final String SECTION_ADD = LEVEL_SECTIONS + SLASH + ADD;
 
     /**
      * Returns true if a sub tag with the given key exists on the specified
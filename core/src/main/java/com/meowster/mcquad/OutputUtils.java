@@ -30,6 +30,18 @@ class OutputUtils {
                             |
                             +-- meta/
                             |   +-- region-cache.txt
+                            |   +-- raster/
+                            |   |   +-- r.0.0.raster
+                            |   |   +-- r.0.1.raster
+                            |   |   :
+                            |   +-- tile-index/
+                            |   |   +-- z1.idx
+                            |   |   +-- z2.idx
+                            |   |   :
+                            |   +-- tile-hash/
+                            |   |   +-- z1.hash
+                            |   |   +-- z2.hash
+                            |   |   :
                             |   :
                             |
                             +-- tiles/
@@ -53,6 +65,9 @@ class OutputUtils {
 
     private static final String AUX = "aux";
     private static final String META = "meta";
+    private static final String RASTER = "raster";
+    private static final String TILE_INDEX = "tile-index";
+    private static final String TILE_HASH = "tile-hash";
     private static final String TILES = "tiles";
 
     private final File outputDir;
@@ -93,6 +108,42 @@ class OutputUtils {
         return ensureDirectory(META);
     }
 
+    /**
+     * Returns a reference to the region raster cache directory (under the
+     * meta directory).
+     *
+     * @return raster cache directory
+     */
+    File rasterDir() {
+        File dir = new File(metaDir(), RASTER);
+        PathUtils.createIfNeedBe(dir);
+        return dir;
+    }
+
+    /**
+     * Returns a reference to the tile index directory (under the meta
+     * directory).
+     *
+     * @return tile index directory
+     */
+    File tileIndexDir() {
+        File dir = new File(metaDir(), TILE_INDEX);
+        PathUtils.createIfNeedBe(dir);
+        return dir;
+    }
+
+    /**
+     * Returns a reference to the tile content hash directory (under the
+     * meta directory).
+     *
+     * @return tile hash directory
+     */
+    File tileHashDir() {
+        File dir = new File(metaDir(), TILE_HASH);
+        PathUtils.createIfNeedBe(dir);
+        return dir;
+    }
+
     /**
      * Returns a reference to the tiles directory.
      *
@@ -102,6 +153,17 @@ class OutputUtils {
         return ensureDirectory(TILES);
     }
 
+    /**
+     * Returns a reference to the tiles directory, without creating it;
+     * when rendering tile generations, this is a symbolic link to the
+     * current generation.
+     *
+     * @return tiles directory link
+     */
+    File tilesLink() {
+        return new File(outputDir, TILES);
+    }
+
     private File ensureDirectory(String dirName) {
         File dir = new File(outputDir, dirName);
         PathUtils.createIfNeedBe(dir);
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+/**
+ * Operations on raw pixel rasters: arrays of colors encoded in int values
+ * as {@code 0xAARRGGBB}, row by row. A (sub-)raster is described by the
+ * offset of its first pixel and the scan length of the array holding it.
+ * <p>
+ * These work on whole rows at a time, without going through the image
+ * color model, so that tiles may be scaled at (close to) memory speed.
+ * <p>
+ * The per-pixel color arithmetic used by the inner loops of the rendering
+ * pipeline (averaging, shading and overlaying) is also provided here, in
+ * "packed" form: rather than unpacking a color into its four components,
+ * the components are processed in parallel, two at a time, in the 16-bit
+ * lanes of an int. The results are identical to those of the equivalent
+ * {@link Argb} operations, which may be used instead by setting the
+ * system property {@value #SCALAR_PROPERTY} to true.
+ *
+ * @author Simon Hunt
+ */
+final class Pixels {
+    private static final DirectColorModel ARGB =
+            (DirectColorModel) ColorModel.getRGBdefault();
+    private static final int[] MASKS = ARGB.getMasks();
+
+    /**
+     * System property which, if set to true, selects the scalar
+     * implementations of the color operations.
+     */
+    static final String SCALAR_PROPERTY = "mcquad.scalarPixels";
+
+    // (a constant, so the JIT compiler eliminates the unused branches)
+    private static final boolean PACKED = !Boolean.getBoolean(SCALAR_PROPERTY);
+
+    private static final int FF = 0xff;
+    private static final int MAX_BYTE = 255;
+
+    private static final int LANES = 0x00ff00ff;
+    private static final int LANE_ONES = 0x00010001;
+    private static final int LANE_CARRY = 0x01000100;
+    private static final int LOW_6_BITS = 0x3f3f3f3f;
+    private static final int LOW_2_BITS = 0x03030303;
+
+    // no instantiation
+    private Pixels() {
+    }
+
+    /**
+     * Returns an image of type {@link BufferedImage#TYPE_INT_ARGB} backed
+     * by the given pixels; no copy is made, so changes to the pixels are
+     * visible in the image.
+     *
+     * @param pixels the pixels
+     * @param width  the image width
+     * @param height the image height
+     * @return an image backed by the pixels
+     */
+    static BufferedImage image(int[] pixels, int width, int height) {
+        DataBufferInt buffer = new DataBufferInt(pixels, width * height);
+        WritableRaster raster = Raster.createPackedRaster(buffer, width,
+                height, width, MASKS, new Point());
+        return new BufferedImage(ARGB, raster, false, null);
+    }
+
+    /**
+     * Returns true if every pixel of the given raster is zero (fully
+     * transparent).
+     *
+     * @param src    the source pixels
+     * @param off    offset of the first pixel
+     * @param scan   scan length of the source array
+     * @param width  raster width
+     * @param height raster height
+     * @return true if the raster is blank
+     */
+    static boolean isBlank(int[] src, int off, int scan, int width, int height) {
+        for (int z = 0; z < height; z++, off += scan) {
+            int aggr = 0;
+            for (int x = off, end = off + width; x < end; x++)
+                aggr |= src[x];
+            if (aggr != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a copy of the given raster, as a tightly packed array.
+     *
+     * @param src    the source pixels
+     * @param off    offset of the first pixel
+     * @param scan   scan length of the source array
+     * @param width  raster width
+     * @param height raster height
+     * @return the copied pixels
+     */
+    static int[] copy(int[] src, int off, int scan, int width, int height) {
+        int[] dst = new int[width * height];
+        for (int z = 0; z < height; z++, off += scan)
+            System.arraycopy(src, off, dst, z * width, width);
+        return dst;
+    }
+
+    /**
+     * Scales up the given raster by an integer factor (typically 2 or 4)
+     * using nearest-neighbour sampling, writing the result to a tightly
+     * packed destination of {@code width * factor} pixels per row. Each
+     * source row is expanded once, then copied for the remaining
+     * destination rows.
+     *
+     * @param src    the source pixels
+     * @param off    offset of the first pixel
+     * @param scan   scan length of the source array
+     * @param width  source raster width
+     * @param height source raster height
+     * @param factor the scale factor
+     * @param dst    the destination pixels
+     */
+    static void upscale(int[] src, int off, int scan, int width, int height,
+                        int factor, int[] dst) {
+        int dstWidth = width * factor;
+        int row = 0;
+        for (int z = 0; z < height; z++, off += scan) {
+            int d = row;
+            for (int x = off, end = off + width; x < end; x++) {
+                int color = src[x];
+                for (int k = 0; k < factor; k++)
+                    dst[d++] = color;
+            }
+            for (int k = 1; k < factor; k++)
+                System.arraycopy(dst, row, dst, row + k * dstWidth, dstWidth);
+            row += factor * dstWidth;
+        }
+    }
+
+    /**
+     * Scales down the given tightly packed raster by a factor of two,
+     * replacing each 2x2 block of pixels with their average, as computed
+     * by {@link Argb#average(int...)}. The result is written to the given
+     * (sub-)raster of the destination.
+     *
+     * @param src    the source pixels
+     * @param width  source raster width (even)
+     * @param height source raster height (even)
+     * @param dst    the destination pixels
+     * @param off    offset of the first destination pixel
+     * @param scan   scan length of the destination array
+     */
+    static void downscale(int[] src, int width, int height,
+                          int[] dst, int off, int scan) {
+        for (int z = 0; z < height; z += 2, off += scan) {
+            int top = z * width;
+            int bottom = top + width;
+            for (int x = 0, d = off; x < width; x += 2, d++)
+                dst[d] = average(src[top + x], src[top + x + 1],
+                        src[bottom + x], src[bottom + x + 1]);
+        }
+    }
+
+    /**
+     * Returns the average of the given four colors, per component, with
+     * the result truncated; equivalent to
+     * {@link Argb#average(int...) Argb.average(a, b, c, d)}.
+     *
+     * @param a first color
+     * @param b second color
+     * @param c third color
+     * @param d fourth color
+     * @return the average color
+     */
+    static int average(int a, int b, int c, int d) {
+        if (!PACKED)
+            return Argb.average(a, b, c, d);
+
+        // the sum of the quarters of the top six bits of each byte, plus
+        // the quarter of the sum of the bottom two bits; neither sum can
+        // carry from one byte into the next
+        int high = (a >>> 2 & LOW_6_BITS) + (b >>> 2 & LOW_6_BITS) +
+                (c >>> 2 & LOW_6_BITS) + (d >>> 2 & LOW_6_BITS);
+        int low = (a & LOW_2_BITS) + (b & LOW_2_BITS) +
+                (c & LOW_2_BITS) + (d & LOW_2_BITS);
+        return high + (low >>> 2 & LOW_2_BITS);
+    }
+
+    /**
+     * Returns the color resulting from shading the given color by the
+     * specified amount; equivalent to {@link Argb#shade(int, int)}.
+     *
+     * @param argb   the color
+     * @param amount amount of shading
+     * @return the resulting shaded color
+     */
+    static int shade(int argb, int amount) {
+        if (!PACKED)
+            return Argb.shade(argb, amount);
+
+        // red and blue in one pair of lanes; alpha and green in the other
+        int rb = argb & LANES;
+        int ag = argb >>> 8 & LANES;
+        if (amount >= 0) {
+            int k = amount > MAX_BYTE ? MAX_BYTE : amount;
+            rb = saturate(rb + k * LANE_ONES);
+            ag = saturate(ag + k);
+        } else {
+            // bias each lane by 256, so that an underflow clears bit 8
+            int k = amount < -MAX_BYTE ? MAX_BYTE : -amount;
+            rb = underflow(rb + (0x100 - k) * LANE_ONES);
+            ag = underflow(ag + LANE_ONES * 0x100 - k);
+        }
+        return ag << 8 | rb;
+    }
+
+    // clamps each lane to 255, where bit 8 flags an overflow
+    private static int saturate(int lanes) {
+        int overflow = (lanes & LANE_CARRY) >>> 8;
+        return (lanes | overflow * FF) & LANES;
+    }
+
+    // clamps each lane to 0, where a clear bit 8 flags an underflow
+    private static int underflow(int lanes) {
+        int ok = (lanes & LANE_CARRY) >>> 8;
+        return lanes & ok * FF;
+    }
+
+    /**
+     * Returns the color resulting from overlaying the given base color with
+     * the specified overlay color; equivalent to
+     * {@link Argb#overlay(int, int)}.
+     *
+     * @param base    the base color
+     * @param overlay the overlay color
+     * @return the resulting combined color
+     */
+    static int overlay(int base, int overlay) {
+        if (!PACKED)
+            return Argb.overlay(base, overlay);
+
+        int opacity = overlay >>> 24;
+        int transparency = FF - opacity;
+        // each lane sums to at most 255 * 255, so cannot carry
+        int rb = (overlay & LANES) * opacity + (base & LANES) * transparency;
+        int ag = (overlay >>> 8 & FF) * opacity +
+                (base >>> 8 & LANES) * transparency;
+        return (div255(ag) + (opacity << 16)) << 8 | div255(rb);
+    }
+
+    // divides each lane (of at most 255 * 255) by 255, truncating
+    private static int div255(int lanes) {
+        return (lanes + LANE_ONES + (lanes >>> 8 & LANES)) >>> 8 & LANES;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.util.PathUtils;
+
+import java.io.File;
+import java.util.List;
+
+import static com.meowster.util.StringUtils.EOL;
+import static com.meowster.util.StringUtils.printOut;
+
+/**
+ * Builds all the zoomed-out levels above the base level in a single pass,
+ * as the base tiles are produced.
+ * <p>
+ * Base tiles must be {@link #add added} in Morton (Z-order) order of their
+ * coordinates (see {@link Morton}). At each zoom level the reducer holds a
+ * single partially assembled tile; when a tile arrives whose parent differs
+ * from the one being assembled, that parent is known to be complete, so it
+ * is generated, written to disk, and itself added to the level above.
+ * Thus each zoomed-out tile is emitted as soon as its four children are
+ * done, nothing is reloaded from disk, and memory use depends only on the
+ * number of zoom levels, not on the size of the world.
+ * <p>
+ * When rendering incrementally, children that were not regenerated this
+ * time are loaded from the tiles on disk, as per
+ * {@link ZoomQuadLevelBuilder}; the levels' occupancy indexes tell us which
+ * tiles are there. A zoomed-out tile none of whose children changed (see
+ * {@link TileWriter}) is not regenerated at all; one all of whose children
+ * are now blank is deleted.
+ * <p>
+ * Note that the reducer is not thread-safe; tiles should be added from a
+ * single thread.
+ *
+ * @author Simon Hunt
+ */
+class PyramidReducer {
+
+    // the tile renderer zooms out no further than this
+    private static final int TOP_ZOOM = 1;
+
+    private final File tilesDir;
+    private final boolean incremental;
+    private final int baseZoom;
+
+    // indexed by zoom level (TOP_ZOOM .. baseZoom - 1)
+    private final QdLvl[] levels;
+    private final Partial[] partials;
+
+    // tiles present from previous runs, indexed by zoom level (TOP_ZOOM ..
+    // baseZoom); only used when rendering incrementally
+    private final MortonSet[] onDisk;
+
+    private TileWriter tileWriter;
+    private long tilesGenerated;
+
+    /**
+     * Constructs a pyramid reducer for the levels above the given base
+     * level.
+     *
+     * @param tilesDir    the top level tiles output directory
+     * @param base        the base level
+     * @param incremental true if only some of the base tiles will be added
+     */
+    PyramidReducer(File tilesDir, QuadLevel base, boolean incremental) {
+        this.tilesDir = tilesDir;
+        this.incremental = incremental;
+        tileWriter = new TileWriter(tilesDir);
+        baseZoom = base.zoom();
+        levels = new QdLvl[baseZoom];
+        partials = new Partial[baseZoom];
+        onDisk = new MortonSet[baseZoom + 1];
+
+        QuadLevel source = base;
+        for (int zoom = baseZoom - 1; zoom >= TOP_ZOOM; zoom--) {
+            levels[zoom] = ZoomQuadLevelBuilder.zoomedOutLevel(tilesDir, source);
+            partials[zoom] = new Partial();
+            source = levels[zoom];
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PyramidReducer{baseZoom=" + baseZoom +
+                ", incremental=" + incremental +
+                ", #tiles=" + tilesGenerated + "}";
+    }
+
+    /**
+     * Sets the writer used to write the tile images to disk.
+     *
+     * @param tileWriter the tile writer
+     * @return self, for chaining
+     */
+    PyramidReducer tileWriter(TileWriter tileWriter) {
+        this.tileWriter = tileWriter;
+        return this;
+    }
+
+    /**
+     * Creates the output directories for the zoomed-out levels.
+     */
+    void createDirectories() {
+        for (int zoom = baseZoom - 1; zoom >= TOP_ZOOM; zoom--)
+            PathUtils.createIfNeedBe(tilesDir, levels[zoom].name());
+    }
+
+    /**
+     * Seeds the occupancy indexes of the zoomed-out levels with the tiles
+     * generated on previous runs, and notes the tiles already present on
+     * disk at each level (including the base level), so that missing
+     * children can be loaded without probing the file system.
+     *
+     * @param builder    the builder providing the persisted indexes
+     * @param baseOnDisk base level tiles present from previous runs
+     */
+    void seedOccupancy(QuadLevelBuilder builder, MortonSet baseOnDisk) {
+        onDisk[baseZoom] = baseOnDisk;
+        for (int zoom = baseZoom - 1; zoom >= TOP_ZOOM; zoom--)
+            onDisk[zoom] = builder.seedOccupancy(levels[zoom]);
+    }
+
+    /**
+     * Persists the occupancy indexes of the zoomed-out levels.
+     *
+     * @param builder the builder owning the index directory
+     */
+    void saveOccupancy(QuadLevelBuilder builder) {
+        for (int zoom = baseZoom - 1; zoom >= TOP_ZOOM; zoom--)
+            builder.saveOccupancy(levels[zoom]);
+    }
+
+    /**
+     * Starts the throughput trackers for the zoomed-out levels.
+     */
+    void start() {
+        for (int zoom = baseZoom - 1; zoom >= TOP_ZOOM; zoom--)
+            levels[zoom].startTracker();
+    }
+
+    /**
+     * Adds a completed tile at the given zoom level; the base level, or
+     * (internally) one of the zoomed-out levels.
+     *
+     * @param zoom   the zoom level of the tile
+     * @param coord  the tile coordinates
+     * @param pixels the tile pixel data, or null if the tile (previously
+     *               on disk) is now blank
+     */
+    void add(int zoom, Coord coord, int[] pixels) {
+        add(zoom, coord, pixels, true);
+    }
+
+    // adds a tile; changed is false if the tile was found to be identical
+    // to the one already on disk
+    private void add(int zoom, Coord coord, int[] pixels, boolean changed) {
+        int pz = zoom - 1;
+        if (pz < TOP_ZOOM)
+            return;
+
+        Partial p = partials[pz];
+        Coord parent = coord.div2();
+        if (p.coord != null && !p.coord.equals(parent))
+            flush(pz);
+        if (p.coord == null)
+            p.coord = parent;
+        int i = quadrant(coord);
+        p.children[i] = pixels;
+        p.added |= 1 << i;
+        p.changed |= changed;
+    }
+
+    /**
+     * Emits the remaining partially assembled tiles, from the base level
+     * upwards, and stops the throughput trackers.
+     *
+     * @return the total number of zoomed-out tiles generated
+     */
+    long finish() {
+        for (int zoom = baseZoom - 1; zoom >= TOP_ZOOM; zoom--) {
+            flush(zoom);
+            levels[zoom].stopTracker();
+        }
+
+        printOut(String.format(EOL + "Reduced zoom levels %d to %d:",
+                baseZoom - 1, TOP_ZOOM));
+        for (int zoom = baseZoom - 1; zoom >= TOP_ZOOM; zoom--)
+            printOut(levels[zoom].getStats().toString());
+        return tilesGenerated;
+    }
+
+    /**
+     * Appends the zoomed-out level stats to the given list, from the
+     * deepest zoom upwards.
+     *
+     * @param stats the list to which stats should be added
+     */
+    void saveStats(List<LevelStats> stats) {
+        for (int zoom = baseZoom - 1; zoom >= TOP_ZOOM; zoom--)
+            stats.add(levels[zoom].getStats());
+    }
+
+    /**
+     * Returns the top (most zoomed-out) level built.
+     *
+     * @return the top level
+     */
+    QuadLevel topLevel() {
+        return levels[TOP_ZOOM];
+    }
+
+    // index of the given tile within its parent: [0,0]=0 [1,0]=1 [0,1]=2..
+    private static int quadrant(Coord c) {
+        return (c.z() & 1) << 1 | (c.x() & 1);
+    }
+
+    // generates the tile being assembled at the given zoom level
+    private void flush(int zoom) {
+        Partial p = partials[zoom];
+        if (p.coord == null)
+            return;
+
+        if (incremental && !p.changed) {
+            // none of the children changed, so neither has this tile
+            p.clear();
+            return;
+        }
+
+        if (incremental && onDisk[zoom + 1] != null)
+            loadMissingChildren(zoom + 1, p);
+
+        int[][] ch = p.children;
+        QdLvl q = levels[zoom];
+        if (ch[0] == null && ch[1] == null && ch[2] == null && ch[3] == null) {
+            // the children are all blank now, and so is this tile
+            Coord coord = p.coord;
+            q.addTile(null);
+            tileWriter.delete(q, coord);
+            p.clear();
+            add(zoom, coord, null, true);
+            return;
+        }
+
+        QuadTile tile = new FourQTile(p.coord.x() * 2, p.coord.z() * 2,
+                ch[0], ch[1], ch[2], ch[3]);
+        q.addTile(tile);
+        boolean written = tileWriter.write(tile, q);
+        if (written)
+            tilesGenerated++;
+
+        int[] pixels = TileCache.pixelsOf(tile.image());
+        tile.releaseResources();
+        Coord coord = p.coord;
+        p.clear();
+        add(zoom, coord, pixels, written);
+    }
+
+    private void loadMissingChildren(int childZoom, Partial p) {
+        for (int i = 0; i < p.children.length; i++) {
+            // (a child added as blank has been deleted from disk)
+            if ((p.added & 1 << i) != 0)
+                continue;
+            Coord c = new Coord(p.coord.x() * 2 + (i & 1),
+                    p.coord.z() * 2 + (i >> 1));
+            if (onDisk[childZoom].contains(c.x(), c.z())) {
+                p.children[i] = CompositeTile.loadPixels(
+                        tileWriter.fromDisk(childZoom, c));
+            }
+        }
+    }
+
+    // a tile being assembled from its four children
+    private static final class Partial {
+        private Coord coord;
+        private final int[][] children = new int[4][];
+        // the children added so far, as a bitmask indexed by quadrant
+        private int added;
+        private boolean changed;
+
+        private void clear() {
+            coord = null;
+            added = 0;
+            changed = false;
+            for (int i = 0; i < children.length; i++)
+                children[i] = null;
+        }
+    }
+}
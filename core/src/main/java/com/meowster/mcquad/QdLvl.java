@@ -7,16 +7,18 @@ package com.meowster.mcquad;
 import java.io.File;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * A concrete implementation of {@link QuadLevel}.
+ * A concrete implementation of {@link QuadLevel}. Tiles may be added
+ * concurrently from multiple render threads.
  *
  * @author Simon Hunt
  */
 class QdLvl implements QuadLevel {
-    private final Map<Coord, QuadTile> tileMap = new HashMap<>();
+    private final Map<Coord, QuadTile> tileMap = new ConcurrentHashMap<>();
+    private final MortonSet occupancy = new MortonSet();
     private int zoom;
     private int dim;
     private int blocksPerTileSide;
@@ -28,6 +30,7 @@ class QdLvl implements QuadLevel {
     void addTile(QuadTile tile) {
         if (tile != null) {
             tileMap.put(tile.coord(), tile);
+            occupancy.add(tile.coord());
             stats.addStats(tile);
         } else {
             stats.incBlanks();
@@ -62,6 +65,11 @@ class QdLvl implements QuadLevel {
         return tileMap.get(new Coord(a, b));
     }
 
+    @Override
+    public MortonSet occupancy() {
+        return occupancy;
+    }
+
     @Override
     public String schematic() {
         StringBuilder sb = new StringBuilder();
@@ -56,6 +56,15 @@ interface QuadLevel {
      */
     QuadTile at(int a, int b);
 
+    /**
+     * Returns the sparse index of the populated tiles of this level. This
+     * includes the tiles added to this level, and may also include tiles
+     * generated on a previous run (when rendering incrementally).
+     *
+     * @return the occupancy index
+     */
+    MortonSet occupancy();
+
     /**
      * Produces a schematic showing the quad tiling, indicating which
      * tiles have data defined.
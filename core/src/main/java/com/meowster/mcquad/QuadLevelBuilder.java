@@ -4,13 +4,13 @@
 
 package com.meowster.mcquad;
 
-import com.meowster.util.ImageUtils;
-import com.meowster.util.PathUtils;
 
 import java.io.File;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.meowster.util.StringUtils.EOL;
 import static com.meowster.util.StringUtils.print;
@@ -27,6 +27,7 @@ abstract class QuadLevelBuilder {
     private static final String MARK = ".";
     private static final String MAJOR_MARK = "#" + EOL;
     private static final String MINOR_MARK = "o";
+    private static final String INDEX_SUFFIX = ".idx";
 
     static final int BLOCKS_PER_BASE_TILE = 256;
     static final Coord ORIGIN = new Coord(0, 0);
@@ -35,6 +36,15 @@ abstract class QuadLevelBuilder {
 
     Set<Coord> toProcess;
 
+    TileCache tileCache;
+
+    File tileIndexDir;
+
+    TileWriter tileWriter;
+
+    // tiles (re)generated, but found to be unchanged since last written
+    final Set<Coord> unchanged = ConcurrentHashMap.newKeySet();
+
     /**
      * Constructs the builder.
      *
@@ -42,6 +52,45 @@ abstract class QuadLevelBuilder {
      */
     QuadLevelBuilder(File tilesDir) {
         this.tilesDir = tilesDir;
+        tileWriter = new TileWriter(tilesDir);
+    }
+
+    /**
+     * Sets the cache in which written tiles are held for the builder of
+     * the next zoom level out, and from which tiles of the previous zoom
+     * level in are taken. If null (the default), tiles are always
+     * reloaded from disk.
+     *
+     * @param tileCache the tile cache
+     * @return self, for chaining
+     */
+    QuadLevelBuilder tileCache(TileCache tileCache) {
+        this.tileCache = tileCache;
+        return this;
+    }
+
+    /**
+     * Sets the writer used to write the tile images to disk.
+     *
+     * @param tileWriter the tile writer
+     * @return self, for chaining
+     */
+    QuadLevelBuilder tileWriter(TileWriter tileWriter) {
+        this.tileWriter = tileWriter;
+        return this;
+    }
+
+    /**
+     * Sets the directory in which the occupancy index of each level built
+     * is persisted, for use when next rendering incrementally. If null
+     * (the default), the index is rebuilt each time from the tiles on disk.
+     *
+     * @param tileIndexDir the tile index directory
+     * @return self, for chaining
+     */
+    QuadLevelBuilder tileIndex(File tileIndexDir) {
+        this.tileIndexDir = tileIndexDir;
+        return this;
     }
 
     /**
@@ -86,22 +135,98 @@ abstract class QuadLevelBuilder {
 
 
     /**
-     * Writes the image files to disk.
+     * Writes the image files to disk. Tiles whose content is unchanged
+     * since they were last written are not rewritten; they are released,
+     * removed from the given list, and noted as {@link #unchanged}.
      *
      * @param tiles the tiles to write to disk
+     * @param level the level to which the tiles belong
      */
-    void writeTiles(List<QuadTile> tiles, File odir) {
-        for (QuadTile tile : tiles) {
-            File xDir = new File(odir, tile.xDirName());
-            PathUtils.createIfNeedBe(xDir);
+    void writeTiles(List<QuadTile> tiles, QuadLevel level) {
+        dropUnchangedTiles(tiles, level);
+        storeTiles(tiles, level);
+    }
 
-            File pngFile = new File(xDir, tile.zPngName());
-            // remember where we stored the image on disk (for reloading)..
-            tile.setLocationOnDisk(pngFile);
-            ImageUtils.writeImageToDisk(tile.image(), pngFile);
+    /**
+     * Releases, and removes from the given list, the tiles whose content
+     * is unchanged since they were last written, noting them as
+     * {@link #unchanged}. The remaining tiles must then be
+     * {@link #storeTiles stored}.
+     *
+     * @param tiles the tiles
+     * @param level the level to which the tiles belong
+     * @see TileWriter#changed(QuadTile, QuadLevel)
+     */
+    void dropUnchangedTiles(List<QuadTile> tiles, QuadLevel level) {
+        Iterator<QuadTile> it = tiles.iterator();
+        while (it.hasNext()) {
+            QuadTile tile = it.next();
+            if (!tileWriter.changed(tile, level)) {
+                unchanged.add(tile.coord());
+                tile.releaseResources();
+                it.remove();
+            }
         }
     }
 
+    /**
+     * Writes the image files of the given tiles to disk.
+     *
+     * @param tiles the tiles to write to disk
+     * @param level the level to which the tiles belong
+     */
+    void storeTiles(List<QuadTile> tiles, QuadLevel level) {
+        for (QuadTile tile : tiles)
+            tileWriter.store(tile, level);
+    }
+
+    /**
+     * Puts the pixel data of the given tiles in the tile cache (if there
+     * is one), ready for building the next zoom level out.
+     *
+     * @param tiles the tiles to cache
+     * @param zoom  the zoom level of the tiles
+     */
+    void cacheTiles(List<QuadTile> tiles, int zoom) {
+        if (tileCache == null)
+            return;
+        for (QuadTile tile : tiles) {
+            tileCache.put(zoom, tile.coord(), TileCache.pixelsOf(tile.image()));
+        }
+    }
+
+    /**
+     * Seeds the occupancy index of the given level with the tiles generated
+     * on previous runs; from the persisted index if there is one, otherwise
+     * by scanning the level's output directory.
+     *
+     * @param level the level to seed
+     * @return the tiles present (on disk) from previous runs
+     */
+    MortonSet seedOccupancy(QuadLevel level) {
+        MortonSet previous = tileIndexDir == null ? null
+                : MortonSet.load(indexFile(level));
+        if (previous == null)
+            previous = tileWriter.scanTiles(level);
+        level.occupancy().addAll(previous);
+        return previous;
+    }
+
+    /**
+     * Persists the occupancy index of the given level (if there is an
+     * index directory).
+     *
+     * @param level the level whose index is to be saved
+     */
+    void saveOccupancy(QuadLevel level) {
+        if (tileIndexDir != null)
+            level.occupancy().save(indexFile(level));
+    }
+
+    private File indexFile(QuadLevel level) {
+        return new File(tileIndexDir, level.name() + INDEX_SUFFIX);
+    }
+
     void releaseTiles(List<QuadTile> tiles) {
         for (QuadTile tile : tiles) {
             tile.releaseResources();
@@ -109,13 +234,15 @@ abstract class QuadLevelBuilder {
         tiles.clear();
     }
 
-    void printMark(int i) {
+    synchronized void printMark(int i) {
         print((i % MAJOR_TICK == 0) ? MAJOR_MARK :
                 (i % MINOR_TICK == 0) ? MINOR_MARK : MARK);
     }
 
     /**
-     * Returns the set of stale coordinates for one level zoomed out.
+     * Returns the set of stale coordinates for one level zoomed out; that
+     * is, the parents of the tiles processed, other than those found to be
+     * unchanged.
      *
      * @return stale coordinates one level up
      */
@@ -125,7 +252,8 @@ abstract class QuadLevelBuilder {
         }
         Set<Coord> result = new HashSet<>();
         for (Coord c : toProcess) {
-            result.add(c.div2());
+            if (!unchanged.contains(c))
+                result.add(c.div2());
         }
         return result;
     }
@@ -15,8 +15,119 @@ class QuadLevelBuilderFactory {
 
     private final File tileDir;
 
+    private int renderThreads = 1;
+    private RenderStages renderStages;
+    private boolean fastSurface;
+    private File rasterCache;
+    private TileCache tileCache;
+    private boolean fusedPyramid;
+    private File tileIndex;
+    private TileWriter tileWriter;
+
     QuadLevelBuilderFactory(File tilesDir) {
         this.tileDir = tilesDir;
+        tileWriter = new TileWriter(tilesDir);
+    }
+
+    /**
+     * Sets the number of worker threads that base level builders should
+     * use to render regions.
+     *
+     * @param renderThreads number of render threads
+     * @return self, for chaining
+     */
+    QuadLevelBuilderFactory renderThreads(int renderThreads) {
+        this.renderThreads = renderThreads;
+        return this;
+    }
+
+    /**
+     * Sets the configuration of the staged pipeline that base level
+     * builders should use to render regions. If null (the default), each
+     * region is rendered as a whole.
+     *
+     * @param renderStages the render pipeline configuration
+     * @return self, for chaining
+     */
+    QuadLevelBuilderFactory renderStages(RenderStages renderStages) {
+        this.renderStages = renderStages;
+        return this;
+    }
+
+    /**
+     * Sets whether base level builders should render regions in
+     * "fast surface" mode.
+     *
+     * @param fastSurface true to use fast surface mode
+     * @return self, for chaining
+     */
+    QuadLevelBuilderFactory fastSurface(boolean fastSurface) {
+        this.fastSurface = fastSurface;
+        return this;
+    }
+
+    /**
+     * Sets the directory in which base level builders should cache the
+     * computed region rasters, so that only changed chunks need to be
+     * decoded next time. If null (the default), no rasters are cached.
+     *
+     * @param rasterCache the raster cache directory
+     * @return self, for chaining
+     */
+    QuadLevelBuilderFactory rasterCache(File rasterCache) {
+        this.rasterCache = rasterCache;
+        return this;
+    }
+
+    /**
+     * Sets the cache through which builders pass tiles from one zoom
+     * level to the next. If null (the default), tiles are reloaded
+     * from disk.
+     *
+     * @param tileCache the tile cache
+     * @return self, for chaining
+     */
+    QuadLevelBuilderFactory tileCache(TileCache tileCache) {
+        this.tileCache = tileCache;
+        return this;
+    }
+
+    /**
+     * Sets whether base level builders should also build all the
+     * zoomed-out levels, in the same pass.
+     *
+     * @param fusedPyramid true to use fused pyramid mode
+     * @return self, for chaining
+     * @see PyramidReducer
+     */
+    QuadLevelBuilderFactory fusedPyramid(boolean fusedPyramid) {
+        this.fusedPyramid = fusedPyramid;
+        return this;
+    }
+
+    /**
+     * Sets the directory in which builders persist the occupancy index of
+     * each level, so that incremental renders need not scan the tile
+     * directories. If null (the default), no indexes are kept.
+     *
+     * @param tileIndex the tile index directory
+     * @return self, for chaining
+     */
+    QuadLevelBuilderFactory tileIndex(File tileIndex) {
+        this.tileIndex = tileIndex;
+        return this;
+    }
+
+    /**
+     * Sets the writer that builders should use to write the tile images
+     * to disk.
+     *
+     * @param tileWriter the tile writer
+     * @return self, for chaining
+     */
+    QuadLevelBuilderFactory tileWriter(TileWriter tileWriter) {
+        this.tileWriter = tileWriter;
+        return this;
     }
 
     /**
@@ -27,7 +138,15 @@ class QuadLevelBuilderFactory {
      * @return a quad level builder
      */
     QuadLevelBuilder createBuilder(QuadData quadData) {
-        return new BaseQuadLevelBuilder(tileDir, quadData);
+        return new BaseQuadLevelBuilder(tileDir, quadData)
+                .renderThreads(renderThreads)
+                .renderStages(renderStages)
+                .fastSurface(fastSurface)
+                .rasterCache(rasterCache)
+                .fusedPyramid(fusedPyramid)
+                .tileCache(tileCache)
+                .tileIndex(tileIndex)
+                .tileWriter(tileWriter);
     }
 
     /**
@@ -38,6 +157,9 @@ class QuadLevelBuilderFactory {
      * @return a builder for the level (zoom factor Z-1)
      */
     QuadLevelBuilder createBuilder(QuadLevel level) {
-        return new ZoomQuadLevelBuilder(tileDir, level);
+        return new ZoomQuadLevelBuilder(tileDir, level)
+                .tileCache(tileCache)
+                .tileIndex(tileIndex)
+                .tileWriter(tileWriter);
     }
 }
@@ -5,7 +5,6 @@
 package com.meowster.mcquad;
 
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 
 /**
@@ -54,17 +53,37 @@ interface QuadTile {
     String zPngName();
 
     /**
-     * Sets the image file location.
+     * Returns the content hash of the tile image, as recorded by
+     * {@link #setContentHash}; null if none has been recorded.
      *
-     * @param pngFile the image file
+     * @return the content hash, or null
      */
-    void setLocationOnDisk(File pngFile);
+    Long contentHash();
 
     /**
-     * Reloads the tile image from disk.
+     * Records the content hash of the tile image, so that it need only be
+     * computed once.
      *
-     * @return the tile image
+     * @param hash the content hash
+     */
+    void setContentHash(long hash);
+
+    /**
+     * Sets the source from which the tile image may be reloaded, as
+     * stored at the given zoom level.
+     *
+     * @param source the tile source
+     * @param zoom   the zoom level
+     */
+    void setSource(TileSource source, int zoom);
+
+    /**
+     * Reloads the tile image pixels from its source; returns null if it
+     * has no source, or if the source holds no image for the tile.
+     *
+     * @return the tile pixels (ARGB, row by row)
+     * @throws IOException if an error occurred
      */
-    BufferedImage loadImageFromDisk() throws IOException;
+    int[] loadPixelsFromDisk() throws IOException;
 
 }
@@ -157,6 +157,17 @@ class Region {
         return rf == null ? null : rf.getChunkTimestamps();
     }
 
+    /**
+     * Returns true if there is data for the chunk at the given offsets.
+     *
+     * @param cx chunk x offset (0..31)
+     * @param cz chunk z offset (0..31)
+     * @return true if the chunk is present
+     */
+    boolean hasChunk(int cx, int cz) {
+        return rf != null && rf.chunkAvailableAt(cx, cz);
+    }
+
     /**
      * Returns the number of chunks contained in this region.
      *
@@ -166,6 +177,15 @@ class Region {
         return rf == null ? 0 : rf.chunkCount();
     }
 
+    /**
+     * Reads the region file into memory, ahead of its chunks being
+     * decoded.
+     */
+    void preload() {
+        if (rf != null)
+            rf.preload();
+    }
+
     /**
      * Instructs the region to release any resources used to hold region data,
      * since we have generated the image and the data is no longer required.
@@ -27,11 +27,13 @@ class RegionCachedMetaData {
     private static final String REGION_CACHE = "region-cache.txt";
     private static final String HEADER = "# Region Cache : %s";
     private static final int MAX_TTL = 15;
+    private static final int UNKNOWN_ZOOM = -1;
 
     private final TextFile tf;
     private final Map<Coord, MetaRegion> metaMap = new TreeMap<>();
     private Set<MetaRegion> toProcess;
     private Coord quadShift = null;
+    private int baseZoom = UNKNOWN_ZOOM;
 
     private RegionCachedMetaData(File cacheFile) {
         tf = new TextFile(cacheFile);
@@ -50,7 +52,7 @@ class RegionCachedMetaData {
         for (String s : lines) {
             MetaRegion mr = MetaRegion.metaRegion(s);
             if (mr == null) {
-                if (!matchQuadShift(s)) {
+                if (!matchQuadShift(s) && !matchBaseZoom(s)) {
                     StringUtils.printErr("Failed to parse meta region [{}]", s);
                 }
             } else {
@@ -71,6 +73,18 @@ class RegionCachedMetaData {
         return false;
     }
 
+    private static final Pattern P_BASE_ZOOM =
+            Pattern.compile("^base-zoom:\\s(\\d+)");
+
+    private boolean matchBaseZoom(String s) {
+        Matcher m = P_BASE_ZOOM.matcher(s);
+        if (m.matches()) {
+            baseZoom = Integer.valueOf(m.group(1));
+            return true;
+        }
+        return false;
+    }
+
     private String header() {
         return String.format(HEADER, new Date());
     }
@@ -108,6 +122,7 @@ class RegionCachedMetaData {
         }
         tf.add("# === end of region data === <" + metaMap.size() + " regions>")
                 .add("quad-shift: " + quadShift)
+                .add("base-zoom: " + baseZoom)
                 .add("# === end of file ===")
                 .write();
     }
@@ -160,14 +175,40 @@ class RegionCachedMetaData {
     }
 
     /**
-     * Returns true if the calibration has changed since last time.
+     * Returns the calibration recorded last time (or, once updated, the
+     * current calibration); null if none has been recorded.
+     *
+     * @return the calibration
+     */
+    Coord quadShift() {
+        return quadShift;
+    }
+
+    /**
+     * Returns the base zoom level recorded last time (or, once updated,
+     * the current base zoom level); -1 if none has been recorded.
+     *
+     * @return the base zoom level
+     */
+    int baseZoom() {
+        return baseZoom;
+    }
+
+    /**
+     * Records the current calibration and base zoom level, returning true
+     * if either has changed since last time. (A base zoom level is not
+     * recorded by older versions; if there is none, only the calibration
+     * is compared.)
      *
      * @param calibration current calibration
+     * @param zoom        current base zoom level
      * @return true if change in calibration occurred
      */
-    boolean updateQuadShift(Coord calibration) {
-        boolean changed = !calibration.equals(quadShift);
+    boolean updateQuadShift(Coord calibration, int zoom) {
+        boolean changed = !calibration.equals(quadShift) ||
+                (baseZoom != UNKNOWN_ZOOM && baseZoom != zoom);
         quadShift = calibration;
+        baseZoom = zoom;
         return changed;
     }
 
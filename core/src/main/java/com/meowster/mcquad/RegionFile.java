@@ -4,20 +4,30 @@
 
 package com.meowster.mcquad;
 
+import com.meowster.util.ByteBufferInputStream;
 import com.meowster.util.StringUtils;
 
-import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.InflaterInputStream;
 
 /**
  * Encapsulates a Minecraft (.mca) Region File. Based on Togo's implementation,
  * although this implementation presents a read-only view of the data and does
  * not alter the region file in any way.
+ * <p>
+ * The file is memory-mapped in its entirety when the instance is created,
+ * (the channel is closed straight away; the mapping remains valid). Header
+ * entries are read directly from the mapping, and chunk data is handed out
+ * as read-only slices of it, so nothing is copied until decompression.
  *
  * @author Simon Hunt
  */
@@ -59,8 +69,6 @@ class RegionFile {
     private static final String E_NO_SUCH_FILE = "No such region file: ";
     private static final String E_MALFORMED_REGION_FILE = "Malformed region file: ";
 
-    private static final String R = "r";
-
     private static final long MASK_4K = 0xfff;
     private static final int NCHUNKS = 32;
 
@@ -70,13 +78,16 @@ class RegionFile {
     private static final int SECTOR_BYTES = 4096;
     private static final int SECTOR_INTS = SECTOR_BYTES / 4;
 
+    // chunk data header: 4-byte length followed by 1-byte version
+    private static final int LENGTH_BYTES = 4;
+
 
     private final File fileName;
     private final int nSectors;
-    private final int offsets[] = new int[SECTOR_INTS];
-    private final int chunkTimestamps[] = new int[SECTOR_INTS];
+    private final MappedByteBuffer mapping;
+    private final ByteBuffer mapped;
+    private final IntBuffer header;
 
-    private RandomAccessFile file;
     private long lastModified = 0;
 
     /**
@@ -92,29 +103,30 @@ class RegionFile {
         lastModified = path.lastModified();
         fileName = path;
 
-        try {
-            long fileLen;
-            if (!mock) {
-                file = new RandomAccessFile(path, R);
-                fileLen = file.length();
-
-                if (fileLen < SECTOR_BYTES)
-                    malformed("length < 4KB");
-                if ((fileLen & MASK_4K) != 0)
-                    malformed("length not a multiple of 4KB");
-            } else {
-                fileLen = 0;
-            }
+        if (mock) {
+            nSectors = 0;
+            mapping = null;
+            mapped = null;
+            // no offsets and no timestamps (all zero)
+            header = IntBuffer.allocate(SECTOR_INTS * 2);
+            return;
+        }
 
-            nSectors = (int) fileLen / SECTOR_BYTES;
+        try (FileChannel channel =
+                     FileChannel.open(path.toPath(), StandardOpenOption.READ)) {
+            long fileLen = channel.size();
 
-            if (!mock) {
-                // read first two sectors for chunk offsets and timestamps
-                for (int i = 0; i < SECTOR_INTS; i++)
-                    offsets[i] = file.readInt();
-                for (int i = 0; i < SECTOR_INTS; i++)
-                    chunkTimestamps[i] = file.readInt();
-            }
+            if (fileLen < SECTOR_BYTES)
+                malformed("length < 4KB");
+            if ((fileLen & MASK_4K) != 0)
+                malformed("length not a multiple of 4KB");
+
+            nSectors = (int) (fileLen / SECTOR_BYTES);
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLen);
+            mapped = mapping.asReadOnlyBuffer();
+
+            // first two sectors are the chunk offsets and timestamps
+            header = mapped.asIntBuffer();
 
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -146,44 +158,93 @@ class RegionFile {
     /**
      * Returns an (uncompressed) stream of chunk data. If the chunk does not
      * exist (or if there is an error), null is returned.
+     * <p>
+     * The data is decompressed into the calling thread's
+     * {@link ChunkInflater} buffer, so the returned stream is only valid
+     * until the next chunk is requested on the same thread.
      *
      * @param x chunk x-coord
      * @param z chunk z-coord
      * @return the chunk data stream
      */
     DataInputStream getChunkDataStream(int x, int z) {
+        ByteBuffer chunk = getChunkBuffer(x, z);
+        if (chunk == null)
+            return null;
+
+        ChunkInflater inflater = ChunkInflater.forThread();
+        byte version = chunk.get();
+        try {
+            if (version == VERSION_GZIP) {
+                inflater.readFully(
+                        new GZIPInputStream(new ByteBufferInputStream(chunk)));
+                return inflater.stream();
+            } else if (version == VERSION_DEFLATE) {
+                inflater.inflate(chunk);
+                return inflater.stream();
+            }
+
+            return noStream(x, z, "Unknown compression version: " + version);
+
+        } catch (IOException e) {
+            return noStream(x, z, "IOException: " + e.getMessage());
+        } catch (DataFormatException e) {
+            return noStream(x, z, "Bad compressed data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a read-only view of the (still compressed) data for the
+     * specified chunk, without copying it out of the mapped region file.
+     * The first byte of the returned buffer is the compression version;
+     * the remaining bytes are the compressed payload. If the chunk does not
+     * exist (or if there is an error), null is returned.
+     * <p>
+     * Each invocation returns an independent buffer, so concurrent readers
+     * of the same region file do not interfere with each other.
+     *
+     * @param x chunk x-coord
+     * @param z chunk z-coord
+     * @return the compressed chunk data, or null
+     */
+    ByteBuffer getChunkBuffer(int x, int z) {
         if (outOfBounds(x, z))
-            return noStream(x, z, "Coordinates Out-of-Bounds!");
+            return noBuffer(x, z, "Coordinates Out-of-Bounds!");
 
         int offset = getOffset(x, z);
         if (offset == 0)
-            return null;    // no stream, but not an error condition either
+            return null;    // no data, but not an error condition either
 
         final int sectorNumber = offset >> 8;
         final int numSectors = offset & 0xff;
 
         if (sectorNumber + numSectors > nSectors)
-            return noStream(x, z, "invalid sector");
-
-        try {
-            file.seek(sectorNumber * SECTOR_BYTES);
-            final int length = file.readInt();
-
-            if (length > SECTOR_BYTES * numSectors)
-                return noStream(x, z,
-                        "invalid length " + length + " > 4k * " + numSectors);
-
-            byte version = file.readByte();
-            if (version == VERSION_GZIP)
-                return unzippedData(getDataStream(length));
-            else if (version == VERSION_DEFLATE)
-                return inflatedData(getDataStream(length));
-
-            return noStream(x, z, "Unknown compression version: " + version);
+            return noBuffer(x, z, "invalid sector");
+
+        final int start = sectorNumber * SECTOR_BYTES;
+        final int length = mapped.getInt(start);
+
+        if (length > SECTOR_BYTES * numSectors)
+            return noBuffer(x, z,
+                    "invalid length " + length + " > 4k * " + numSectors);
+        if (length < 1 || start + LENGTH_BYTES + length > mapped.capacity())
+            return noBuffer(x, z, "invalid length " + length);
+
+        // NOTE: position/limit are invoked via Buffer so that the byte code
+        //       remains compatible with the Java 8 runtime
+        ByteBuffer chunk = mapped.duplicate();
+        ((Buffer) chunk).position(start + LENGTH_BYTES);
+        ((Buffer) chunk).limit(start + LENGTH_BYTES + length);
+        return chunk.slice();
+    }
 
-        } catch (IOException e) {
-            return noStream(x, z, "IOException: " + e.getMessage());
-        }
+    /**
+     * Loads the content of the (mapped) file into physical memory, so that
+     * the chunk data can subsequently be read without waiting on the disk.
+     */
+    void preload() {
+        if (mapping != null)
+            mapping.load();
     }
 
     /**
@@ -203,7 +264,15 @@ class RegionFile {
         return nChunks;
     }
 
-    private boolean chunkAvailableAt(int x, int z) {
+    /**
+     * Returns true if there is chunk data for the chunk at the given
+     * offsets in this region.
+     *
+     * @param x chunk x offset (0..31)
+     * @param z chunk z offset (0..31)
+     * @return true if the chunk is present
+     */
+    boolean chunkAvailableAt(int x, int z) {
         if (outOfBounds(x, z))
             return false;
 
@@ -224,7 +293,10 @@ class RegionFile {
      * @return copy of chunk timestamp array
      */
     int[] getChunkTimestamps() {
-        return chunkTimestamps.clone();
+        int[] stamps = new int[SECTOR_INTS];
+        for (int i = 0; i < SECTOR_INTS; i++)
+            stamps[i] = header.get(SECTOR_INTS + i);
+        return stamps;
     }
 
     private boolean outOfBounds(int x, int z) {
@@ -232,28 +304,22 @@ class RegionFile {
     }
 
     private int getOffset(int x, int z) {
-        return offsets[x + z * NCHUNKS];
-    }
-
-    private ByteArrayInputStream getDataStream(int length) throws IOException {
-        byte[] data = new byte[length - 1];
-        file.read(data);
-        return new ByteArrayInputStream(data);
+        return header.get(x + z * NCHUNKS);
     }
 
-    private DataInputStream inflatedData(ByteArrayInputStream data) {
-        return new DataInputStream(new InflaterInputStream(data));
+    private DataInputStream noStream(int x, int z, String msg) {
+        reportError(x, z, msg);
+        return null;
     }
 
-    private DataInputStream unzippedData(ByteArrayInputStream data)
-            throws IOException {
-        return new DataInputStream(new GZIPInputStream(data));
+    private ByteBuffer noBuffer(int x, int z, String msg) {
+        reportError(x, z, msg);
+        return null;
     }
 
-    private DataInputStream noStream(int x, int z, String msg) {
+    private void reportError(int x, int z, String msg) {
         String s = StringUtils.format("Chunk [{},{}] : {}", x, z, msg);
         System.err.println("Region: " + fileName.getName() + ": " + s);
-        return null;
     }
 
 }
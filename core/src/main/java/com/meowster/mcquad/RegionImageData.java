@@ -4,8 +4,6 @@
 
 package com.meowster.mcquad;
 
-import java.awt.image.BufferedImage;
-
 /**
  * A data structure encapsulating a region such that 4 image tiles may be
  * produced from it.
@@ -14,23 +12,43 @@ import java.awt.image.BufferedImage;
  */
 class RegionImageData {
     private static final int NPIXELS = 256;
+    private static final int SCAN = NPIXELS * 2;
 
     private final Region region;
     private final Coord coord;
-    private BufferedImage image;
+    private RegionStructure structure;
+    private int[] pixels;
 
     /**
      * Construct region image data from the given region.
      *
      * @param region            the source region
      * @param regionToQuadDelta offset from region coords to quad coords
+     * @param fastSurface       true to use fast surface mode
+     */
+    RegionImageData(Region region, Coord regionToQuadDelta,
+                    boolean fastSurface) {
+        this(region, regionToQuadDelta, fastSurface, null);
+    }
+
+    /**
+     * Construct region image data from the given region, reusing the
+     * surface data for unchanged chunks from the given previous raster.
+     *
+     * @param region            the source region
+     * @param regionToQuadDelta offset from region coords to quad coords
+     * @param fastSurface       true to use fast surface mode
+     * @param previous          the previous raster for the region
+     *                          (may be null)
      */
-    RegionImageData(Region region, Coord regionToQuadDelta) {
+    RegionImageData(Region region, Coord regionToQuadDelta,
+                    boolean fastSurface, RegionRaster previous) {
         this.region = region;
         int x = region.coord().x() * 2 + regionToQuadDelta.x();
         int z = region.coord().z() * 2 + regionToQuadDelta.z();
         coord = new Coord(x, z);
-        image = TileUtils.generateImage(region);
+        structure = new RegionStructure(region, fastSurface, previous);
+        pixels = structure.pixels();
     }
 
     public Coord coord() {
@@ -42,16 +60,43 @@ class RegionImageData {
     }
 
     /**
-     * Returns a quadrant of the region image, given parameters dx and dz:
+     * Returns the pixels of a quadrant of the region image, given
+     * parameters dx and dz:
      * [0,0] upper left; [1,0] upper right;
      * [0,1] lower left; [1,1] lower right.
+     * Returns null if the quadrant is completely transparent.
+     *
+     * @param dx left or right quadrant {0|1}
+     * @param dz upper or lower quadrant {0|1}
+     * @return the pixels for the tile, or null if blank
+     */
+    int[] quadrant(int dx, int dz) {
+        int off = dz * NPIXELS * SCAN + dx * NPIXELS;
+        if (Pixels.isBlank(pixels, off, SCAN, NPIXELS, NPIXELS))
+            return null;
+        return Pixels.copy(pixels, off, SCAN, NPIXELS, NPIXELS);
+    }
+
+    /**
+     * Returns true if the given quadrant of the region image may differ
+     * from the one generated from the previous raster.
      *
      * @param dx left or right quadrant {0|1}
      * @param dz upper or lower quadrant {0|1}
-     * @return the buffered image for the tile
+     * @return true if the quadrant changed
+     * @see RegionStructure#quadrantChanged(int, int)
+     */
+    boolean quadrantChanged(int dx, int dz) {
+        return structure.quadrantChanged(dx, dz);
+    }
+
+    /**
+     * Returns the raster computed for the region, suitable for caching.
+     *
+     * @return the region raster
      */
-    BufferedImage getImage(int dx, int dz) {
-        return image.getSubimage(dx * NPIXELS, dz * NPIXELS, NPIXELS, NPIXELS);
+    RegionRaster raster() {
+        return structure.raster();
     }
 
     /**
@@ -59,7 +104,8 @@ class RegionImageData {
      */
     void releaseResources() {
         region.releaseResources();
-        image = null;
+        structure = null;
+        pixels = null;
     }
 
     @Override
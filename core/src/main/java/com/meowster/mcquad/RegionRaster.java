@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import static com.meowster.util.StringUtils.printErr;
+
+/**
+ * The (unshaded) surface colors and heights computed for a region, along
+ * with the timestamps of the chunks they were computed from. A raster is
+ * cached on disk for each region, so that the next time the region is
+ * rendered only those chunks that have changed since need to be decoded.
+ * <p>
+ * The raster file is a small header (magic number, format version, and
+ * the fingerprint of the block color table from which the colors were
+ * computed) followed by the deflated chunk timestamps, colors and heights.
+ * Since the colors are stored unshaded, changes to shading (or to the
+ * region-to-quad calibration) can be rendered from the raster alone.
+ *
+ * @author Simon Hunt
+ */
+class RegionRaster {
+
+    static final int NPIXELS = 512; // pixel dimension of region
+    static final int TOTAL_PIXELS = NPIXELS * NPIXELS;
+    static final int NCHUNKS = 32;  // chunk dimension of region
+    static final int TOTAL_CHUNKS = NCHUNKS * NCHUNKS;
+
+    /**
+     * Chunk timestamp denoting that there is no chunk.
+     */
+    static final int NO_CHUNK = 0;
+
+    /**
+     * Chunk timestamp denoting that the chunk is present, but its
+     * timestamp is unknown (so it must always be decoded).
+     */
+    static final int UNKNOWN = -1;
+
+    private static final int MAGIC = 0x4d515252;  // "MQRR"
+    private static final int VERSION = 2;
+    private static final String RASTER_FILE = "r.%d.%d.raster";
+
+    private static final int HEADER_BYTES = 2 * 4 + 8;
+    private static final int RAW_BYTES =
+            TOTAL_CHUNKS * 4 + TOTAL_PIXELS * 4 + TOTAL_PIXELS * 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Surface colors (0xAARRGGBB), indexed by [z,x].
+     */
+    final int[] colors = new int[TOTAL_PIXELS];
+
+    /**
+     * Surface heights, indexed by [z,x].
+     */
+    final short[] heights = new short[TOTAL_PIXELS];
+
+    /**
+     * Chunk timestamps, indexed by [cz,cx]; see {@link #NO_CHUNK} and
+     * {@link #UNKNOWN}.
+     */
+    final int[] timestamps = new int[TOTAL_CHUNKS];
+
+    @Override
+    public String toString() {
+        int n = 0;
+        for (int ts : timestamps)
+            if (ts != NO_CHUNK)
+                n++;
+        return "RegionRaster{#chunks=" + n + "}";
+    }
+
+    /**
+     * Returns the file in the given cache directory, in which the raster
+     * for the region with the given coordinates is stored.
+     *
+     * @param cacheDir the raster cache directory
+     * @param coord    the region coordinates
+     * @return the raster file
+     */
+    static File file(File cacheDir, Coord coord) {
+        return new File(cacheDir,
+                String.format(RASTER_FILE, coord.x(), coord.z()));
+    }
+
+    /**
+     * Loads a raster from the given file. If the file does not exist, is
+     * not a valid raster file, or was computed from different block colors
+     * than those currently in effect, null is returned.
+     *
+     * @param file the file to load
+     * @return the loaded raster, or null
+     */
+    static RegionRaster load(File file) {
+        return load(file, BlockColorTable.COLOR_TABLE.fingerprint());
+    }
+
+    /**
+     * Loads a raster from the given file, provided that it was computed
+     * from block colors with the given fingerprint. If the file does not
+     * exist, is not a valid raster file, or the fingerprint does not
+     * match, null is returned.
+     *
+     * @param file        the file to load
+     * @param fingerprint the expected color table fingerprint
+     * @return the loaded raster, or null
+     * @see BlockColorTable#fingerprint()
+     */
+    static RegionRaster load(File file, long fingerprint) {
+        if (!file.isFile() || file.length() <= HEADER_BYTES)
+            return null;
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            printErr("Failed to read raster {}: {}", file, e);
+            return null;
+        }
+
+        ByteBuffer header = ByteBuffer.wrap(bytes, 0, HEADER_BYTES);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION ||
+                header.getLong() != fingerprint)
+            return null;
+
+        byte[] raw = new byte[RAW_BYTES];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, HEADER_BYTES, bytes.length - HEADER_BYTES);
+            int n = 0;
+            while (n < RAW_BYTES && !inflater.finished()) {
+                int count = inflater.inflate(raw, n, RAW_BYTES - n);
+                if (count == 0 && inflater.needsInput())
+                    break;
+                n += count;
+            }
+            if (n != RAW_BYTES)
+                return null;
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+
+        RegionRaster r = new RegionRaster();
+        ByteBuffer buf = ByteBuffer.wrap(raw);
+        buf.asIntBuffer().get(r.timestamps);
+        ((Buffer) buf).position(TOTAL_CHUNKS * 4);
+        buf.asIntBuffer().get(r.colors);
+        ((Buffer) buf).position(TOTAL_CHUNKS * 4 + TOTAL_PIXELS * 4);
+        buf.asShortBuffer().get(r.heights);
+        return r;
+    }
+
+    /**
+     * Saves this raster to the given file, noting that it was computed
+     * from the block colors currently in effect.
+     *
+     * @param file the file to write
+     * @see #save(File, long)
+     */
+    void save(File file) {
+        save(file, BlockColorTable.COLOR_TABLE.fingerprint());
+    }
+
+    /**
+     * Saves this raster (compressed) to the given file, along with the
+     * given color table fingerprint. Failure to do so is reported, but is
+     * otherwise harmless; the region will simply be decoded in full
+     * next time.
+     *
+     * @param file        the file to write
+     * @param fingerprint the color table fingerprint
+     */
+    void save(File file, long fingerprint) {
+        ByteBuffer buf = ByteBuffer.allocate(RAW_BYTES);
+        buf.asIntBuffer().put(timestamps);
+        ((Buffer) buf).position(TOTAL_CHUNKS * 4);
+        buf.asIntBuffer().put(colors);
+        ((Buffer) buf).position(TOTAL_CHUNKS * 4 + TOTAL_PIXELS * 4);
+        buf.asShortBuffer().put(heights);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (FileOutputStream fos = new FileOutputStream(file);
+             DataOutputStream dos = new DataOutputStream(
+                     new BufferedOutputStream(fos, BUFFER_SIZE))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeLong(fingerprint);
+            try (DeflaterOutputStream out =
+                         new DeflaterOutputStream(dos, deflater, BUFFER_SIZE)) {
+                out.write(buf.array());
+            }
+        } catch (IOException e) {
+            printErr("Failed to write raster {}: {}", file, e);
+            if (!file.delete())
+                file.deleteOnExit();
+        } finally {
+            deflater.end();
+        }
+    }
+}
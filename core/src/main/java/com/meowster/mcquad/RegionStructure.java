@@ -7,8 +7,6 @@ package com.meowster.mcquad;
 import java.awt.image.BufferedImage;
 import java.io.DataInputStream;
 
-import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
-
 /**
  * Takes a Region and creates a data structure from which a tile
  * image may be generated.
@@ -17,10 +15,11 @@ import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
  */
 class RegionStructure {
 
-    private static final int NPIXELS = 512; // pixel dimension of region
-    private static final int TOTAL_PIXELS = NPIXELS * NPIXELS;
+    private static final int NPIXELS = RegionRaster.NPIXELS;
+    private static final int TOTAL_PIXELS = RegionRaster.TOTAL_PIXELS;
+    private static final int QUADRANT = NPIXELS / 2;
 
-    private static final int NCHUNKS = 32;  // chunk dimension of region
+    private static final int NCHUNKS = RegionRaster.NCHUNKS;
     private static final int NBLOCKS = 16;  // block dimension of chunk
 
     private static final float SHADE_CLIP_MAX = 10.0f;
@@ -31,10 +30,14 @@ class RegionStructure {
 
 
     private final Region region;
+    private final boolean fastSurface;
 
-    private final Color[] surfaceColor = new Color[TOTAL_PIXELS];
-    private final int[] colorAsInts = new int[TOTAL_PIXELS];
-    private final short[] surfaceHeight = new short[TOTAL_PIXELS];
+    private final RegionRaster raster = new RegionRaster();
+    // Note, 0 (default int value) corresponds to transparent .. handy!
+    private final int[] shadedColor = new int[TOTAL_PIXELS];
+    // which of the four 256x256 quadrants changed, indexed by [dz,dx]
+    private final boolean[] changed = new boolean[4];
+    private int chunksDecoded;
 
     /**
      * Creates a region structure from the given region.
@@ -42,63 +45,122 @@ class RegionStructure {
      * @param region the region for which a structure is to be created
      */
     RegionStructure(Region region) {
+        this(region, false, null);
+    }
+
+    /**
+     * Creates a region structure from the given region, optionally using
+     * each chunk's stored height map to speed up the surface scan.
+     *
+     * @param region      the region for which a structure is to be created
+     * @param fastSurface true to use fast surface mode
+     * @see Chunk#Chunk(DataInputStream, boolean)
+     */
+    RegionStructure(Region region, boolean fastSurface) {
+        this(region, fastSurface, null);
+    }
+
+    /**
+     * Creates a region structure from the given region, reusing the
+     * surface data from the given previously computed raster for those
+     * chunks whose timestamps have not changed. If the previous raster is
+     * null, every chunk is decoded.
+     *
+     * @param region      the region for which a structure is to be created
+     * @param fastSurface true to use fast surface mode
+     * @param previous    the previously computed raster (may be null)
+     */
+    RegionStructure(Region region, boolean fastSurface,
+                    RegionRaster previous) {
         this.region = region;
-        prerender();
+        this.fastSurface = fastSurface;
+        prerender(previous);
         shade();
-        covertColorsToInts();
     }
 
-    private void covertColorsToInts() {
-        // Note, 0 (default int value) corresponds to transparent .. handy!
-        for (int i = 0; i < TOTAL_PIXELS; i++) {
-            Color c = surfaceColor[i];
-            if (c != null)
-                colorAsInts[i] = c.toInt();
-        }
+    @Override
+    public String toString() {
+        return "RegionStructure{" + region.coord() +
+                ", decoded=" + chunksDecoded + "}";
+    }
+
+    /**
+     * Returns the computed (unshaded) raster for the region, suitable for
+     * caching and handing back next time.
+     *
+     * @return the region raster
+     */
+    RegionRaster raster() {
+        return raster;
+    }
+
+    /**
+     * Returns the number of chunks that had to be decoded.
+     *
+     * @return number of decoded chunks
+     */
+    int chunksDecoded() {
+        return chunksDecoded;
+    }
+
+    /**
+     * Returns true if the given quadrant of the region image may differ
+     * from that computed from the previous raster; this is the case if any
+     * chunk in (or bordering, since shading looks at neighboring blocks)
+     * the quadrant has changed. The quadrants are:
+     * [0,0] upper left; [1,0] upper right;
+     * [0,1] lower left; [1,1] lower right.
+     *
+     * @param dx left or right quadrant {0|1}
+     * @param dz upper or lower quadrant {0|1}
+     * @return true if the quadrant changed
+     */
+    boolean quadrantChanged(int dx, int dz) {
+        return changed[dz * 2 + dx];
     }
 
     private void shade() {
-        int idx = -1;
+        final int[] surfaceColor = raster.colors;
+        final int[] amounts = new int[NPIXELS];
         for (int z = 0; z < NPIXELS; z++) {
+            int row = z * NPIXELS;
+            computeShadeAmounts(row, z, amounts);
             for (int x = 0; x < NPIXELS; x++) {
-                idx++;
-                if (transparent(surfaceColor[idx]))
-                    continue;
-
-                float dyx = computeDyx(idx, x);
-                float dyz = computeDyz(idx, z);
-                int shadeAmount = computeShadeAmount(idx, dyx, dyz);
-                surfaceColor[idx] = surfaceColor[idx].shade(shadeAmount);
+                int c = surfaceColor[row + x];
+                if (!transparent(c))
+                    shadedColor[row + x] = Pixels.shade(c, amounts[x]);
             }
         }
     }
 
-    private boolean transparent(Color color) {
-        return color == null || color.alpha() == 0;
+    private boolean transparent(int argb) {
+        return Argb.alpha(argb) == 0;
     }
 
-    private float computeDyx(int idx, int x) {
-        if (x == 0)
-            return heightDiff(idx + 1, idx);
-        else if (x == NPIXELS - 1)
-            return heightDiff(idx, idx - 1);
-        return heightDiff(idx + 1, idx - 1) * 2;
-    }
+    // computes the shade amounts for a whole row; the edge pixels are
+    // special-cased, so that the loop over the others is branch free
+    private void computeShadeAmounts(int row, int z, int[] amounts) {
+        final short[] h = raster.heights;
+        int above = z == 0 ? row : row - NPIXELS;
+        int below = z == NPIXELS - 1 ? row : row + NPIXELS;
+        float zScale = below - above == NPIXELS ? 1.0f : 2.0f;
+        int last = NPIXELS - 1;
 
-    private float computeDyz(int idx, int z) {
-        if (z == 0)
-            return heightDiff(idx + NPIXELS, idx);
-        else if (z == NPIXELS - 1)
-            return heightDiff(idx, idx - NPIXELS);
-        return heightDiff(idx + NPIXELS, idx - NPIXELS) * 2;
-    }
-
-    private float heightDiff(int a, int b) {
-        return surfaceHeight[a] - surfaceHeight[b];
+        amounts[0] = computeShadeAmount(h[row],
+                h[row + 1] - h[row],
+                (h[below] - h[above]) * zScale);
+        for (int x = 1; x < last; x++) {
+            amounts[x] = computeShadeAmount(h[row + x],
+                    (h[row + x + 1] - h[row + x - 1]) * 2.0f,
+                    (h[below + x] - h[above + x]) * zScale);
+        }
+        amounts[last] = computeShadeAmount(h[row + last],
+                h[row + last] - h[row + last - 1],
+                (h[below + last] - h[above + last]) * zScale);
     }
 
-    private int computeShadeAmount(int idx, float dyx, float dyz) {
-        float shade = shadeClip(dyx + dyz) + wrtSeaLevel(idx);
+    private int computeShadeAmount(short height, float dyx, float dyz) {
+        float shade = shadeClip(dyx + dyz) + wrtSeaLevel(height);
         return (int) (shade * SHADE_FACTOR);
     }
 
@@ -107,34 +169,75 @@ class RegionStructure {
                 (v < SHADE_CLIP_MIN ? SHADE_CLIP_MIN : v);
     }
 
-    private float wrtSeaLevel(int idx) {
-        return (surfaceHeight[idx] - SEA_LEVEL) / SEA_FACTOR;
+    private float wrtSeaLevel(short height) {
+        return (height - SEA_LEVEL) / SEA_FACTOR;
     }
 
 
-    private void prerender() {
+    private void prerender(RegionRaster previous) {
+        int[] timestamps = region.extractChunkTimestamps();
+
         // iterate over the chunks in the region...
         for (int cz = 0; cz < NCHUNKS; cz++) {
             for (int cx = 0; cx < NCHUNKS; cx++) {
+                int i = cz * NCHUNKS + cx;
+                int stamp = chunkStamp(timestamps, cx, cz);
+                raster.timestamps[i] = stamp;
+
+                if (previous != null && stamp != RegionRaster.UNKNOWN &&
+                        previous.timestamps[i] == stamp) {
+                    copyData(cx, cz, previous);
+                    continue;
+                }
+
+                markChanged(cx, cz);
                 DataInputStream dis = region.getChunkDataStream(cx, cz);
                 if (dis == null)
                     continue;
 
-                Chunk chunk = new Chunk(dis);
+                Chunk chunk = new Chunk(dis, fastSurface);
                 chunk.computeColorsAndHeights();
-                Color[][] chunkSurface = chunk.getSurfaceColors();
+                int[][] chunkSurface = chunk.getSurfaceColors();
                 short[][] chunkHeight = chunk.getSurfaceHeights();
                 storeData(cx, cz, chunkSurface, chunkHeight);
+                chunksDecoded++;
             }
         }
     }
 
-    private void storeData(int cx, int cz, Color[][] chunkSurface,
+    private int chunkStamp(int[] timestamps, int cx, int cz) {
+        if (!region.hasChunk(cx, cz))
+            return RegionRaster.NO_CHUNK;
+        int stamp = timestamps == null ? 0 : timestamps[cz * NCHUNKS + cx];
+        return stamp == RegionRaster.NO_CHUNK ? RegionRaster.UNKNOWN : stamp;
+    }
+
+    // marks the quadrant(s) affected by a change to the given chunk; note
+    // that shading of the pixels bordering the chunk may be affected too
+    private void markChanged(int cx, int cz) {
+        int x0 = Math.max(cx * NBLOCKS - 1, 0) / QUADRANT;
+        int x1 = Math.min(cx * NBLOCKS + NBLOCKS, NPIXELS - 1) / QUADRANT;
+        int z0 = Math.max(cz * NBLOCKS - 1, 0) / QUADRANT;
+        int z1 = Math.min(cz * NBLOCKS + NBLOCKS, NPIXELS - 1) / QUADRANT;
+        for (int dz = z0; dz <= z1; dz++)
+            for (int dx = x0; dx <= x1; dx++)
+                changed[dz * 2 + dx] = true;
+    }
+
+    private void storeData(int cx, int cz, int[][] chunkSurface,
                            short[][] chunkHeight) {
         for (int z = 0; z < NBLOCKS; z++) {
             int offset = NPIXELS * (NBLOCKS * cz + z) + NBLOCKS * cx;
-            System.arraycopy(chunkSurface[z], 0, surfaceColor, offset, NBLOCKS);
-            System.arraycopy(chunkHeight[z], 0, surfaceHeight, offset, NBLOCKS);
+            System.arraycopy(chunkSurface[z], 0, raster.colors, offset, NBLOCKS);
+            System.arraycopy(chunkHeight[z], 0, raster.heights, offset, NBLOCKS);
+        }
+    }
+
+    private void copyData(int cx, int cz, RegionRaster previous) {
+        for (int z = 0; z < NBLOCKS; z++) {
+            int offset = NPIXELS * (NBLOCKS * cz + z) + NBLOCKS * cx;
+            System.arraycopy(previous.colors, offset, raster.colors, offset, NBLOCKS);
+            System.arraycopy(previous.heights, offset, raster.heights, offset, NBLOCKS);
         }
     }
 
@@ -144,11 +247,16 @@ class RegionStructure {
      * @return an image of the region
      */
     public BufferedImage getImage() {
-        // render the buffered image from the computed surface color data
-        BufferedImage bi =
-                new BufferedImage(NPIXELS, NPIXELS, TYPE_INT_ARGB);
-        for (int z = 0; z < NPIXELS; z++)
-            bi.setRGB(0, z, NPIXELS, 1, colorAsInts, NPIXELS * z, NPIXELS);
-        return bi;
+        // the image is backed directly by the computed surface color data
+        return Pixels.image(shadedColor, NPIXELS, NPIXELS);
+    }
+
+    /**
+     * Returns the (shaded) pixels of the region image, row by row.
+     *
+     * @return the region image pixels
+     */
+    int[] pixels() {
+        return shadedColor;
     }
 }
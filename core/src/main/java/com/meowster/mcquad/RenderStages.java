@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+/**
+ * The configuration of the staged region rendering pipeline: the number of
+ * worker threads for each stage, and the capacity of the queues between
+ * them. The stages are:
+ * <ol>
+ *     <li>read: reading the region file (and cached raster) from disk</li>
+ *     <li>decode: decoding the chunks and computing the shaded surface</li>
+ *     <li>derive: deriving the tiles of the three base zoom levels</li>
+ *     <li>write: encoding the tiles, and writing them to disk</li>
+ * </ol>
+ * Note that the memory used is roughly proportional to the queue capacity
+ * (and the number of threads), since each region in flight holds its
+ * raster or its tiles.
+ *
+ * @author Simon Hunt
+ * @see com.meowster.util.StagedPipeline
+ */
+final class RenderStages {
+    final int read;
+    final int decode;
+    final int derive;
+    final int write;
+    final int capacity;
+
+    /**
+     * Creates a render pipeline configuration. Values of less than 1 are
+     * taken as 1.
+     *
+     * @param read     number of read threads
+     * @param decode   number of decode threads
+     * @param derive   number of derive threads
+     * @param write    number of write threads
+     * @param capacity the capacity (in regions) of each queue
+     */
+    RenderStages(int read, int decode, int derive, int write, int capacity) {
+        this.read = atLeastOne(read);
+        this.decode = atLeastOne(decode);
+        this.derive = atLeastOne(derive);
+        this.write = atLeastOne(write);
+        this.capacity = atLeastOne(capacity);
+    }
+
+    private static int atLeastOne(int n) {
+        return n < 1 ? 1 : n;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d %d %d %d %d",
+                read, decode, derive, write, capacity);
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import org.jnbt.NBTConstants;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A streaming, path-filtered NBT reader. Rather than materializing the
+ * whole tag tree (as {@link org.jnbt.NBTInputStream} does), this reader
+ * walks the stream and reports only the tags whose paths were requested,
+ * to a {@link Handler}. The payloads of all other tags are skipped over,
+ * using the length prefixes of arrays and strings where possible, so no
+ * objects are allocated for them.
+ * <p>
+ * Paths are the tag names from the root compound downward, separated by
+ * slashes; for example {@code "Level/Sections/Blocks"}. The root compound
+ * itself has the empty path. Elements of a list share the path of the list.
+ * <p>
+ * Instances hold no per-read state, so a single reader may be shared
+ * between threads.
+ *
+ * @author Simon Hunt
+ */
+class SelectiveNbtReader {
+
+    private static final String SLASH = "/";
+    private static final String ROOT = "";
+
+    // not defined by the bundled JNBT library (added in Minecraft 1.13)
+    private static final int TYPE_LONG_ARRAY = 12;
+
+    private static final String E_BAD_TYPE = "Invalid tag type: ";
+    private static final String E_BAD_ROOT = "Root tag is not a compound";
+    private static final String E_NEGATIVE = "Negative length: ";
+
+    /**
+     * Receives the tags selected by the reader. Default implementations
+     * do nothing, so handlers need only override the events they care about.
+     */
+    interface Handler {
+        /**
+         * Invoked when a selected compound tag (or compound list element)
+         * is entered.
+         *
+         * @param path the compound's path
+         */
+        default void startCompound(String path) {
+        }
+
+        /**
+         * Invoked when a selected compound tag (or compound list element)
+         * is exited.
+         *
+         * @param path the compound's path
+         */
+        default void endCompound(String path) {
+        }
+
+        /**
+         * Invoked for a selected byte tag.
+         *
+         * @param path  the tag path
+         * @param value the tag value
+         */
+        default void byteValue(String path, byte value) {
+        }
+
+        /**
+         * Invoked for a selected int tag.
+         *
+         * @param path  the tag path
+         * @param value the tag value
+         */
+        default void intValue(String path, int value) {
+        }
+
+        /**
+         * Invoked for a selected byte array tag.
+         *
+         * @param path  the tag path
+         * @param value the tag value
+         */
+        default void byteArray(String path, byte[] value) {
+        }
+
+        /**
+         * Invoked for a selected int array tag.
+         *
+         * @param path  the tag path
+         * @param value the tag value
+         */
+        default void intArray(String path, int[] value) {
+        }
+    }
+
+    private final Set<String> leaves;
+    private final Set<String> containers = new HashSet<>();
+
+    /**
+     * Creates a reader that selects the tags at the given paths. Any
+     * compound or list tags on the way to those paths are descended into.
+     *
+     * @param paths the paths of the tags to select
+     */
+    SelectiveNbtReader(String... paths) {
+        Set<String> p = new HashSet<>();
+        Collections.addAll(p, paths);
+        leaves = Collections.unmodifiableSet(p);
+
+        containers.add(ROOT);
+        for (String path : paths) {
+            int i = path.indexOf(SLASH);
+            while (i > 0) {
+                containers.add(path.substring(0, i));
+                i = path.indexOf(SLASH, i + 1);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SelectiveNbtReader{" + leaves + "}";
+    }
+
+    /**
+     * Reads a complete NBT structure (a named root compound) from the given
+     * input, reporting selected tags to the specified handler.
+     *
+     * @param in      the source of NBT data
+     * @param handler the handler to report to
+     * @throws IOException if there is an error reading the data
+     */
+    void read(DataInput in, Handler handler) throws IOException {
+        int type = in.readUnsignedByte();
+        if (type != NBTConstants.TYPE_COMPOUND)
+            throw new IOException(E_BAD_ROOT);
+        skipFully(in, in.readUnsignedShort());  // root name
+        readPayload(in, type, ROOT, handler);
+    }
+
+    private String childPath(String parent, String name) {
+        return parent.isEmpty() ? name : parent + SLASH + name;
+    }
+
+    private boolean selected(String path) {
+        return leaves.contains(path) || containers.contains(path);
+    }
+
+    private void readPayload(DataInput in, int type, String path,
+                             Handler handler) throws IOException {
+        switch (type) {
+            case NBTConstants.TYPE_BYTE:
+                handler.byteValue(path, in.readByte());
+                break;
+
+            case NBTConstants.TYPE_INT:
+                handler.intValue(path, in.readInt());
+                break;
+
+            case NBTConstants.TYPE_BYTE_ARRAY:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                handler.byteArray(path, bytes);
+                break;
+
+            case NBTConstants.TYPE_INT_ARRAY:
+                int[] ints = new int[in.readInt()];
+                for (int i = 0; i < ints.length; i++)
+                    ints[i] = in.readInt();
+                handler.intArray(path, ints);
+                break;
+
+            case NBTConstants.TYPE_LIST:
+                int childType = in.readUnsignedByte();
+                int length = in.readInt();
+                for (int i = 0; i < length; i++)
+                    readPayload(in, childType, path, handler);
+                break;
+
+            case NBTConstants.TYPE_COMPOUND:
+                handler.startCompound(path);
+                readCompound(in, path, handler);
+                handler.endCompound(path);
+                break;
+
+            default:
+                // a type we don't report on; just step over it
+                skipPayload(in, type);
+                break;
+        }
+    }
+
+    private void readCompound(DataInput in, String path, Handler handler)
+            throws IOException {
+        int type;
+        while ((type = in.readUnsignedByte()) != NBTConstants.TYPE_END) {
+            String child = childPath(path, in.readUTF());
+            if (selected(child))
+                readPayload(in, type, child, handler);
+            else
+                skipPayload(in, type);
+        }
+    }
+
+    private void skipPayload(DataInput in, int type) throws IOException {
+        switch (type) {
+            case NBTConstants.TYPE_END:
+                break;
+            case NBTConstants.TYPE_BYTE:
+                skipFully(in, 1);
+                break;
+            case NBTConstants.TYPE_SHORT:
+                skipFully(in, 2);
+                break;
+            case NBTConstants.TYPE_INT:
+            case NBTConstants.TYPE_FLOAT:
+                skipFully(in, 4);
+                break;
+            case NBTConstants.TYPE_LONG:
+            case NBTConstants.TYPE_DOUBLE:
+                skipFully(in, 8);
+                break;
+            case NBTConstants.TYPE_BYTE_ARRAY:
+                skipFully(in, in.readInt());
+                break;
+            case NBTConstants.TYPE_INT_ARRAY:
+                skipFully(in, in.readInt() * 4L);
+                break;
+            case TYPE_LONG_ARRAY:
+                skipFully(in, in.readInt() * 8L);
+                break;
+            case NBTConstants.TYPE_STRING:
+                skipFully(in, in.readUnsignedShort());
+                break;
+            case NBTConstants.TYPE_LIST:
+                skipList(in);
+                break;
+            case NBTConstants.TYPE_COMPOUND:
+                int t;
+                while ((t = in.readUnsignedByte()) != NBTConstants.TYPE_END) {
+                    skipFully(in, in.readUnsignedShort());  // name
+                    skipPayload(in, t);
+                }
+                break;
+            default:
+                throw new IOException(E_BAD_TYPE + type);
+        }
+    }
+
+    private void skipList(DataInput in) throws IOException {
+        int childType = in.readUnsignedByte();
+        int length = in.readInt();
+        int size = fixedSize(childType);
+        if (size > 0) {
+            skipFully(in, (long) length * size);
+        } else {
+            for (int i = 0; i < length; i++)
+                skipPayload(in, childType);
+        }
+    }
+
+    // returns the payload size of fixed-size types, or 0 otherwise
+    private int fixedSize(int type) {
+        switch (type) {
+            case NBTConstants.TYPE_BYTE:
+                return 1;
+            case NBTConstants.TYPE_SHORT:
+                return 2;
+            case NBTConstants.TYPE_INT:
+            case NBTConstants.TYPE_FLOAT:
+                return 4;
+            case NBTConstants.TYPE_LONG:
+            case NBTConstants.TYPE_DOUBLE:
+                return 8;
+            default:
+                return 0;
+        }
+    }
+
+    private void skipFully(DataInput in, long n) throws IOException {
+        if (n < 0)
+            throw new IOException(E_NEGATIVE + n);
+
+        long remaining = n;
+        while (remaining > 0) {
+            int chunk = (int) Math.min(remaining, Integer.MAX_VALUE);
+            int skipped = in.skipBytes(chunk);
+            if (skipped <= 0) {
+                // skipBytes may legitimately skip nothing; probe for EOF
+                in.readByte();
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+}
@@ -0,0 +1,606 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.util.PathUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.meowster.util.StringUtils.printErr;
+
+/**
+ * A store of tile images (encoded PNG files) held in a small number of
+ * large archive files, rather than one file per tile. The tiles of each
+ * zoom level are grouped into blocks of 64x64 tiles, each block being
+ * held in a pack file, with an offset index alongside:
+ * <pre>
+ *     tiles/z7/b.0.1.pack      (tiles [0..63] x [64..127] of zoom 7)
+ *     tiles/z7/b.0.1.pidx
+ * </pre>
+ * Writing a tile appends it to its pack file; a tile written again is
+ * appended anew, and the index updated to point to its latest copy.
+ * The indexes are written back when the archive is {@link #close()
+ * closed}, at which time any pack that is mostly stale copies is
+ * compacted. Since each record in a pack file carries its coordinates
+ * and length, a missing or out-of-date index (as left by an interrupted
+ * render) is rebuilt by scanning the pack.
+ * <p>
+ * A tile whose image is identical to one already written to the same
+ * pack (by content hash, see {@link #link}) shares that copy; recorded
+ * in the pack as a short alias record. Likewise, a tile that is
+ * {@link #delete deleted} is recorded as a header-only record.
+ * <p>
+ * An archive opened for reading only (see {@link #open(File)}) provides
+ * the lookup API for serving the tiles; it should be reopened after each
+ * render. A pack file shared (hard linked) with another tiles directory,
+ * see {@link TileGenerations}, is copied before it is first modified,
+ * leaving the other directory untouched.
+ *
+ * @author Simon Hunt
+ */
+public final class TileArchive {
+
+    private static final int BLOCK_SHIFT = 6;   // 64x64 tiles per block
+    private static final String ZOOM_PREFIX = "z";
+    private static final String PACK_PREFIX = "b.";
+    private static final String PACK_SUFFIX = ".pack";
+    private static final String INDEX_SUFFIX = ".pidx";
+    private static final String DOT = ".";
+
+    private static final int PACK_MAGIC = 0x4d515450;   // "MQTP"
+    private static final int INDEX_MAGIC = 0x4d515449;  // "MQTI"
+    private static final int VERSION = 1;
+    private static final int PACK_HEADER = 8;
+    private static final int RECORD_HEADER = 12;
+    // an alias record: the header, with this in place of the length,
+    // followed by the offset and length of the shared image data
+    private static final int ALIAS = -1;
+    private static final int ALIAS_RECORD = RECORD_HEADER + 12;
+    // a deletion record: just the header, with this in place of the length
+    private static final int DELETED = -2;
+    private static final int INDEX_ENTRY = 20;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // compact a pack once stale copies are the majority of at least this
+    private static final long COMPACT_MIN_STALE = 1024 * 1024;
+
+    private final File dir;
+    private final boolean writable;
+    private final Map<Long, Pack> packs = new ConcurrentHashMap<>();
+
+    private TileArchive(File dir, boolean writable) {
+        this.dir = dir;
+        this.writable = writable;
+    }
+
+    /**
+     * Opens the tile archive in the given tiles directory, for reading.
+     *
+     * @param dir the tiles directory
+     * @return the tile archive
+     */
+    public static TileArchive open(File dir) {
+        return new TileArchive(dir, false);
+    }
+
+    /**
+     * Opens the tile archive in the given tiles directory, for writing.
+     *
+     * @param dir the tiles directory
+     * @return the tile archive
+     */
+    static TileArchive openForWriting(File dir) {
+        return new TileArchive(dir, true);
+    }
+
+    @Override
+    public String toString() {
+        return "TileArchive{" + dir + ", #packs=" + packs.size() + "}";
+    }
+
+    /**
+     * Returns the encoded image of the given tile, or null if there is
+     * no such tile.
+     *
+     * @param zoom the zoom level
+     * @param x    the tile x coordinate
+     * @param z    the tile z coordinate
+     * @return the tile's PNG file content, or null
+     * @throws IOException if an error occurred reading the archive
+     */
+    public byte[] read(int zoom, int x, int z) throws IOException {
+        Pack pack = pack(zoom, x, z, false);
+        return pack == null ? null : pack.read(x, z);
+    }
+
+    /**
+     * Returns true if the archive holds the given tile.
+     *
+     * @param zoom the zoom level
+     * @param x    the tile x coordinate
+     * @param z    the tile z coordinate
+     * @return true if the tile is present
+     */
+    public boolean contains(int zoom, int x, int z) {
+        Pack pack = pack(zoom, x, z, false);
+        return pack != null && pack.contains(x, z);
+    }
+
+    /**
+     * Writes (appends) the encoded image of the given tile.
+     *
+     * @param zoom  the zoom level
+     * @param coord the tile coordinates
+     * @param png   the tile's PNG file content
+     */
+    void write(int zoom, Coord coord, byte[] png) {
+        if (!writable)
+            throw new IllegalStateException("Archive is read-only: " + dir);
+        pack(zoom, coord.x(), coord.z(), true).append(coord, png, null);
+    }
+
+    /**
+     * Writes (appends) the encoded image of the given tile, noting its
+     * content hash, so that identical tiles may then be
+     * {@link #link linked} to it.
+     *
+     * @param zoom  the zoom level
+     * @param coord the tile coordinates
+     * @param png   the tile's PNG file content
+     * @param hash  the content hash of the tile's image
+     */
+    void write(int zoom, Coord coord, byte[] png, long hash) {
+        if (!writable)
+            throw new IllegalStateException("Archive is read-only: " + dir);
+        pack(zoom, coord.x(), coord.z(), true).append(coord, png, hash);
+    }
+
+    /**
+     * Points the given tile at an identical image, as identified by its
+     * content hash, written to the same pack (since the archive was
+     * opened); returning false if there is none, in which case the tile
+     * must be {@link #write(int, Coord, byte[], long) written}.
+     *
+     * @param zoom  the zoom level
+     * @param coord the tile coordinates
+     * @param hash  the content hash of the tile's image
+     * @return true if the tile now shares an identical image
+     */
+    boolean link(int zoom, Coord coord, long hash) {
+        if (!writable)
+            throw new IllegalStateException("Archive is read-only: " + dir);
+        return pack(zoom, coord.x(), coord.z(), true).link(coord, hash);
+    }
+
+    /**
+     * Removes the given tile from the archive, if present.
+     *
+     * @param zoom  the zoom level
+     * @param coord the tile coordinates
+     * @return true if the tile was removed
+     */
+    boolean delete(int zoom, Coord coord) {
+        if (!writable)
+            throw new IllegalStateException("Archive is read-only: " + dir);
+        Pack pack = pack(zoom, coord.x(), coord.z(), false);
+        return pack != null && pack.delete(coord);
+    }
+
+    /**
+     * Returns the index of the tiles present at the given zoom level.
+     *
+     * @param zoom the zoom level
+     * @return the tiles found
+     */
+    MortonSet tiles(int zoom) {
+        MortonSet found = new MortonSet();
+        String[] names = new File(dir, ZOOM_PREFIX + zoom).list();
+        if (names == null)
+            return found;
+        for (String name : names) {
+            if (!name.startsWith(PACK_PREFIX) || !name.endsWith(PACK_SUFFIX))
+                continue;
+            String[] bxz = name.substring(PACK_PREFIX.length(),
+                    name.length() - PACK_SUFFIX.length()).split("\\.");
+            try {
+                int bx = Integer.parseInt(bxz[0]);
+                int bz = Integer.parseInt(bxz[1]);
+                Pack pack = pack(zoom, bx << BLOCK_SHIFT, bz << BLOCK_SHIFT,
+                        false);
+                if (pack != null)
+                    pack.addTo(found);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // not a pack file
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Writes back the indexes of the packs written to (compacting them
+     * first, if need be), and closes all the pack files.
+     */
+    public void close() {
+        for (Pack pack : packs.values())
+            pack.close();
+        packs.clear();
+    }
+
+    // the pack holding the given tile; null if there is none, and we are
+    // not to create it
+    private Pack pack(int zoom, int x, int z, boolean create) {
+        int bx = x >> BLOCK_SHIFT;
+        int bz = z >> BLOCK_SHIFT;
+        long key = ((long) zoom << 56) ^ Morton.encode(bx, bz);
+        Pack pack = packs.get(key);
+        if (pack != null || (!create && !packFile(zoom, bx, bz).isFile()))
+            return pack;
+        return packs.computeIfAbsent(key, k -> new Pack(zoom, bx, bz));
+    }
+
+    private File packFile(int zoom, int bx, int bz) {
+        return new File(dir, ZOOM_PREFIX + zoom + File.separator +
+                PACK_PREFIX + bx + DOT + bz + PACK_SUFFIX);
+    }
+
+    // the number of links to the given file; 1 if we cannot tell
+    private static int linkCount(Path path) {
+        try {
+            return (Integer) Files.getAttribute(path, "unix:nlink");
+        } catch (IOException | UnsupportedOperationException |
+                IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    /*
+     * A pack file, holding the tiles of one block, with its index of the
+     * offset (of the image data) and length of each tile.
+     */
+    private final class Pack {
+        private final File file;
+        private final File indexFile;
+        private final Map<Long, long[]> index = new HashMap<>();
+        // the images written this session, by content hash
+        private final Map<Long, long[]> blobs = new HashMap<>();
+        private FileChannel channel;
+        // the channel to the shared pack file, if it has been copied
+        private FileChannel sharedChannel;
+        private boolean unshared;
+        private long end;
+        private boolean dirty;
+
+        private Pack(int zoom, int bx, int bz) {
+            file = packFile(zoom, bx, bz);
+            indexFile = new File(file.getParentFile(), PACK_PREFIX + bx +
+                    DOT + bz + INDEX_SUFFIX);
+            try {
+                if (writable) {
+                    PathUtils.createIfNeedBe(file.getParentFile());
+                    channel = FileChannel.open(file.toPath(),
+                            StandardOpenOption.CREATE, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+                } else {
+                    channel = FileChannel.open(file.toPath(),
+                            StandardOpenOption.READ);
+                }
+                if (channel.size() > 0)
+                    checkHeader();
+                else if (writable)
+                    writeHeader();
+                // (an empty pack opened for reading simply has no tiles)
+                if (!loadIndex()) {
+                    scan();
+                    dirty = writable;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to open " + file, e);
+            }
+        }
+
+        // copies the pack file, if it is shared with another directory;
+        // called before the pack is first modified, so that a pack which
+        // is only read stays shared
+        private void unshare() throws IOException {
+            if (unshared)
+                return;
+            unshared = true;
+            Path path = file.toPath();
+            if (linkCount(path) > 1) {
+                PathUtils.writeAtomically(file, out -> Files.copy(path, out));
+                // (reads already under way continue on the old file)
+                sharedChannel = channel;
+                channel = FileChannel.open(path, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+        }
+
+        private void writeHeader() throws IOException {
+            unshare();
+            ByteBuffer b = ByteBuffer.allocate(PACK_HEADER);
+            b.putInt(PACK_MAGIC).putInt(VERSION).flip();
+            channel.write(b, 0);
+            end = PACK_HEADER;
+        }
+
+        private void checkHeader() throws IOException {
+            ByteBuffer b = ByteBuffer.allocate(PACK_HEADER);
+            channel.read(b, 0);
+            b.flip();
+            if (b.remaining() < PACK_HEADER || b.getInt() != PACK_MAGIC ||
+                    b.getInt() != VERSION)
+                throw new IOException("Not a tile pack file: " + file);
+        }
+
+        // loads the index; returning false if it is missing, or does not
+        // match the pack file (as after an interrupted render)
+        private boolean loadIndex() throws IOException {
+            if (!indexFile.isFile())
+                return false;
+            try (DataInputStream dis = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(indexFile),
+                            BUFFER_SIZE))) {
+                if (dis.readInt() != INDEX_MAGIC || dis.readInt() != VERSION)
+                    return false;
+                long length = dis.readLong();
+                int n = dis.readInt();
+                if (length != channel.size() ||
+                        (long) n * INDEX_ENTRY > indexFile.length())
+                    return false;
+                for (int i = 0; i < n; i++) {
+                    long code = Morton.encode(dis.readInt(), dis.readInt());
+                    long offset = dis.readLong();
+                    int len = dis.readInt();
+                    index.put(code, new long[]{offset, len});
+                }
+                end = length;
+                return true;
+
+            } catch (EOFException e) {
+                index.clear();
+                return false;
+            }
+        }
+
+        // rebuilds the index from the records in the pack file; a partial
+        // record at the end (from an interrupted write) is dropped
+        private void scan() throws IOException {
+            index.clear();
+            long size = channel.size();
+            long pos = PACK_HEADER;
+            ByteBuffer b = ByteBuffer.allocate(ALIAS_RECORD);
+            while (pos + RECORD_HEADER <= size) {
+                b.clear().limit(RECORD_HEADER);
+                channel.read(b, pos);
+                b.flip();
+                long code = Morton.encode(b.getInt(), b.getInt());
+                int len = b.getInt();
+                if (len == ALIAS) {
+                    if (pos + ALIAS_RECORD > size)
+                        break;
+                    b.clear().limit(ALIAS_RECORD - RECORD_HEADER);
+                    channel.read(b, pos + RECORD_HEADER);
+                    b.flip();
+                    index.put(code, new long[]{b.getLong(), b.getInt()});
+                    pos += ALIAS_RECORD;
+                    continue;
+                }
+                if (len == DELETED) {
+                    index.remove(code);
+                    pos += RECORD_HEADER;
+                    continue;
+                }
+                if (len < 0 || pos + RECORD_HEADER + len > size)
+                    break;
+                index.put(code, new long[]{pos + RECORD_HEADER, len});
+                pos += RECORD_HEADER + len;
+            }
+            end = pos;
+            if (writable && end < size) {
+                unshare();
+                channel.truncate(end);
+            }
+        }
+
+        synchronized boolean contains(int x, int z) {
+            return index.containsKey(Morton.encode(x, z));
+        }
+
+        synchronized void addTo(MortonSet set) {
+            for (long code : index.keySet())
+                set.add(code);
+        }
+
+        byte[] read(int x, int z) throws IOException {
+            long[] entry;
+            FileChannel ch;
+            synchronized (this) {
+                entry = index.get(Morton.encode(x, z));
+                ch = channel;
+            }
+            if (entry == null)
+                return null;
+            ByteBuffer b = ByteBuffer.allocate((int) entry[1]);
+            long pos = entry[0];
+            while (b.hasRemaining()) {
+                int n = ch.read(b, pos);
+                if (n < 0)
+                    throw new EOFException("Truncated tile pack: " + file);
+                pos += n;
+            }
+            return b.array();
+        }
+
+        synchronized void append(Coord coord, byte[] png, Long hash) {
+            ByteBuffer b = ByteBuffer.allocate(RECORD_HEADER + png.length);
+            b.putInt(coord.x()).putInt(coord.z()).putInt(png.length)
+                    .put(png).flip();
+            long[] entry = new long[]{end + RECORD_HEADER, png.length};
+            appendRecord(coord, b);
+            index.put(Morton.encode(coord), entry);
+            if (hash != null)
+                blobs.put(hash, entry);
+        }
+
+        synchronized boolean link(Coord coord, long hash) {
+            long[] entry = blobs.get(hash);
+            if (entry == null)
+                return false;
+            ByteBuffer b = ByteBuffer.allocate(ALIAS_RECORD);
+            b.putInt(coord.x()).putInt(coord.z()).putInt(ALIAS)
+                    .putLong(entry[0]).putInt((int) entry[1]).flip();
+            appendRecord(coord, b);
+            index.put(Morton.encode(coord), entry);
+            return true;
+        }
+
+        synchronized boolean delete(Coord coord) {
+            long code = Morton.encode(coord);
+            if (!index.containsKey(code))
+                return false;
+            ByteBuffer b = ByteBuffer.allocate(RECORD_HEADER);
+            b.putInt(coord.x()).putInt(coord.z()).putInt(DELETED).flip();
+            appendRecord(coord, b);
+            index.remove(code);
+            return true;
+        }
+
+        private void appendRecord(Coord coord, ByteBuffer b) {
+            int n = b.remaining();
+            try {
+                unshare();
+                long pos = end;
+                while (b.hasRemaining())
+                    pos += channel.write(b, pos);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write tile " + coord +
+                        " to " + file, e);
+            }
+            end += n;
+            dirty = true;
+        }
+
+        // the bytes taken by the records the index refers to
+        private long liveBytes() {
+            Map<Long, Boolean> seen = new HashMap<>();
+            long live = 0;
+            for (long[] entry : index.values()) {
+                boolean shared = seen.put(entry[0], Boolean.TRUE) != null;
+                live += shared ? ALIAS_RECORD : RECORD_HEADER + entry[1];
+            }
+            return live;
+        }
+
+        synchronized void close() {
+            try {
+                if (dirty) {
+                    long live = liveBytes();
+                    long stale = end - PACK_HEADER - live;
+                    if (stale > COMPACT_MIN_STALE && stale > live)
+                        compact();
+                    saveIndex();
+                }
+                channel.close();
+                if (sharedChannel != null)
+                    sharedChannel.close();
+            } catch (IOException e) {
+                printErr("Failed to close tile pack {}: {}", file, e);
+                // so that the index will be rebuilt next time
+                if (indexFile.exists() && !indexFile.delete())
+                    indexFile.deleteOnExit();
+            }
+        }
+
+        // rewrites the pack with only the latest copy of each tile's image
+        private void compact() throws IOException {
+            long[] codes = sortedCodes();
+            Map<Long, long[]> compacted = new HashMap<>();
+            PathUtils.writeAtomically(file, out -> {
+                DataOutputStream dos = new DataOutputStream(
+                        new BufferedOutputStream(out, BUFFER_SIZE));
+                dos.writeInt(PACK_MAGIC);
+                dos.writeInt(VERSION);
+                // new entries, by old offset; so shared images stay shared
+                Map<Long, long[]> moved = new HashMap<>();
+                long pos = PACK_HEADER;
+                for (long code : codes) {
+                    Coord c = Morton.decode(code);
+                    long[] entry = moved.get(index.get(code)[0]);
+                    dos.writeInt(c.x());
+                    dos.writeInt(c.z());
+                    if (entry != null) {
+                        dos.writeInt(ALIAS);
+                        dos.writeLong(entry[0]);
+                        dos.writeInt((int) entry[1]);
+                        pos += ALIAS_RECORD;
+                    } else {
+                        byte[] png = read(c.x(), c.z());
+                        dos.writeInt(png.length);
+                        dos.write(png);
+                        entry = new long[]{pos + RECORD_HEADER, png.length};
+                        moved.put(index.get(code)[0], entry);
+                        pos += RECORD_HEADER + png.length;
+                    }
+                    compacted.put(code, entry);
+                }
+                dos.flush();
+            });
+            channel.close();
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            index.clear();
+            index.putAll(compacted);
+            blobs.clear();
+            end = channel.size();
+        }
+
+        private void saveIndex() throws IOException {
+            long[] codes = sortedCodes();
+            PathUtils.writeAtomically(indexFile, out -> {
+                DataOutputStream dos = new DataOutputStream(
+                        new BufferedOutputStream(out, BUFFER_SIZE));
+                dos.writeInt(INDEX_MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeLong(end);
+                dos.writeInt(codes.length);
+                for (long code : codes) {
+                    Coord c = Morton.decode(code);
+                    long[] entry = index.get(code);
+                    dos.writeInt(c.x());
+                    dos.writeInt(c.z());
+                    dos.writeLong(entry[0]);
+                    dos.writeInt((int) entry[1]);
+                }
+                dos.flush();
+            });
+            dirty = false;
+        }
+
+        private long[] sortedCodes() {
+            long[] codes = new long[index.size()];
+            int i = 0;
+            for (long code : index.keySet())
+                codes[i++] = code;
+            Arrays.sort(codes);
+            return codes;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A memory-bounded cache of tile pixel data (ARGB ints), keyed by zoom
+ * level and tile coordinates. Tiles are evicted in least-recently-used
+ * order once the total size of the cached data exceeds the budget.
+ * <p>
+ * Tiles are put in the cache as they are written to disk, so that the
+ * builder for the next zoom level out can take them from memory, rather
+ * than reloading (and decoding) the .png files. Since each tile is merged
+ * into exactly one parent tile, taking a tile removes it from the cache.
+ * <p>
+ * The cache may be accessed concurrently from multiple render threads.
+ *
+ * @author Simon Hunt
+ */
+class TileCache {
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final long maxBytes;
+    private final Map<Key, int[]> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a tile cache with the given memory budget.
+     *
+     * @param maxBytes the maximum number of bytes of pixel data to hold
+     */
+    TileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TileCache{#tiles=" + map.size() +
+                ", bytes=" + bytes +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions + "}";
+    }
+
+    /**
+     * Adds the pixel data for the given tile to the cache, evicting the
+     * least recently used tiles, if necessary, to stay within budget.
+     * Note that the cache holds on to the given array, so it should not
+     * be modified subsequently.
+     *
+     * @param zoom   the zoom level of the tile
+     * @param coord  the tile coordinates
+     * @param pixels the tile pixel data
+     */
+    synchronized void put(int zoom, Coord coord, int[] pixels) {
+        int[] old = map.put(new Key(zoom, coord), pixels);
+        if (old != null)
+            bytes -= sizeOf(old);
+        bytes += sizeOf(pixels);
+
+        Iterator<int[]> it = map.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= sizeOf(it.next());
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes the pixel data for the given tile from the cache and returns
+     * it, or returns null if the tile is not in the cache.
+     *
+     * @param zoom  the zoom level of the tile
+     * @param coord the tile coordinates
+     * @return the tile pixel data, or null
+     */
+    synchronized int[] take(int zoom, Coord coord) {
+        int[] pixels = map.remove(new Key(zoom, coord));
+        if (pixels == null) {
+            misses++;
+        } else {
+            hits++;
+            bytes -= sizeOf(pixels);
+        }
+        return pixels;
+    }
+
+    /**
+     * Returns the number of bytes of pixel data currently held.
+     *
+     * @return the cached byte count
+     */
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of tiles successfully taken from the cache.
+     *
+     * @return the hit count
+     */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of tiles requested but not found in the cache.
+     *
+     * @return the miss count
+     */
+    synchronized long misses() {
+        return misses;
+    }
+
+    private static long sizeOf(int[] pixels) {
+        return (long) pixels.length * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Returns the pixel data (ARGB ints, row by row) of the given image.
+     * If the image is backed by an int array of exactly the right size,
+     * that array is returned, otherwise the pixels are copied.
+     *
+     * @param image the image
+     * @return the image pixel data
+     */
+    static int[] pixelsOf(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        Raster raster = image.getRaster();
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB &&
+                raster.getParent() == null &&
+                raster.getDataBuffer() instanceof DataBufferInt) {
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            if (data.length == w * h)
+                return data;
+        }
+        return image.getRGB(0, 0, w, h, null, 0, w);
+    }
+
+    // cache key: zoom level and tile coordinates
+    private static final class Key {
+        private final int zoom;
+        private final Coord coord;
+
+        private Key(int zoom, Coord coord) {
+            this.zoom = zoom;
+            this.coord = coord;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return zoom == k.zoom && coord.equals(k.coord);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * coord.hashCode() + zoom;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.util.PathUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.meowster.util.StringUtils.printOut;
+
+/**
+ * Manages the generations of the tiles directory, so that tiles may be
+ * rendered while the web map is being served, without the map ever
+ * showing missing or partially written tiles.
+ * <p>
+ * The tiles directory (as seen by the web map) is a symbolic link to the
+ * current generation; e.g. {@code tiles -> tiles.g7}. Each render works
+ * on a new generation ({@code tiles.g8}), staged next to the current one,
+ * into which the tiles of the current generation are first carried over
+ * as hard links; so that unchanged tiles are neither re-rendered nor
+ * copied. (Since tiles are replaced rather than overwritten, see
+ * {@link com.meowster.util.PathUtils#writeAtomically}, writing a tile
+ * leaves the current generation untouched.) Once the render is complete,
+ * the new generation is published by atomically switching the link.
+ * <p>
+ * The previous generation is kept until the next render, for the sake of
+ * any requests still in flight. A generation left behind by an
+ * interrupted render is discarded; in which case nothing is carried over,
+ * since the region metadata (and the calibration) will already have been
+ * updated to what the interrupted render was to publish, and so no longer
+ * describe the current generation: all tiles must be rendered again.
+ * Note that the web server must be configured to follow symbolic links.
+ *
+ * @author Simon Hunt
+ */
+class TileGenerations {
+
+    private static final String GEN_INFIX = ".g";
+    private static final String LINK_SUFFIX = ".link";
+    private static final int FIRST = 0;
+
+    private final File link;
+    private final File parent;
+    private final Pattern genPattern;
+
+    private File current;
+    private File next;
+    private boolean abandoned;
+    private long carried;
+
+    /**
+     * Constructs a tile generations manager for the given tiles directory
+     * link. If there is a (real) directory there, as left by rendering
+     * in place, it is adopted as the first generation.
+     *
+     * @param link the tiles directory link
+     */
+    TileGenerations(File link) {
+        this.link = link.getAbsoluteFile();
+        this.parent = this.link.getParentFile();
+        genPattern = Pattern.compile(Pattern.quote(link.getName() + GEN_INFIX) +
+                "(\\d+)(?:" + Pattern.quote(TileRemapper.STAGING_SUFFIX) + ")?");
+    }
+
+    @Override
+    public String toString() {
+        return "TileGenerations{" + link.getName() + " -> " +
+                name(current) + ", next=" + name(next) +
+                ", carried=" + carried + "}";
+    }
+
+    private static String name(File f) {
+        return f == null ? "none" : f.getName();
+    }
+
+    /**
+     * Stages a new generation of the tiles directory, discarding all
+     * but the current generation. If carry over is requested, the tiles
+     * of the current generation are hard linked into the new generation;
+     * unless an {@link #abandoned() abandoned} generation was discarded.
+     *
+     * @param carryOver true to carry over the current tiles
+     * @return the new generation's directory, into which to render
+     */
+    File stage(boolean carryOver) {
+        adoptDirectory();
+        current = published();
+        int currentGen = current == null ? -1 : generation(current);
+
+        int latest = currentGen;
+        File[] siblings = parent.listFiles();
+        if (siblings != null) {
+            for (File f : siblings) {
+                int g = generation(f);
+                if (g < 0 || f.equals(current))
+                    continue;
+                latest = Math.max(latest, g);
+                if (g > currentGen)
+                    abandoned = true;
+                PathUtils.deleteTree(f);
+            }
+        }
+
+        next = new File(parent, link.getName() + GEN_INFIX + (latest + 1));
+        PathUtils.createIfNeedBe(next);
+        if (carryOver && current != null && !abandoned)
+            linkTree(current, next);
+        printOut("Staged tiles: {}", this);
+        return next;
+    }
+
+    /**
+     * Returns true if a generation left behind by an interrupted render
+     * was discarded when the new generation was staged; in which case the
+     * new generation starts out empty, and all tiles must be rendered
+     * (nor is any index of the tiles written by that render to be
+     * trusted).
+     *
+     * @return true if an unpublished generation was discarded
+     */
+    boolean abandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Returns the number of tiles carried over into the new generation.
+     *
+     * @return the number of tiles carried over
+     */
+    long carried() {
+        return carried;
+    }
+
+    /**
+     * Publishes the staged generation, by atomically switching the tiles
+     * directory link to it.
+     *
+     * @throws RuntimeException if an error occurred
+     */
+    void publish() {
+        if (next == null)
+            throw new IllegalStateException("No generation staged");
+        Path tmp = new File(parent, link.getName() + LINK_SUFFIX).toPath();
+        try {
+            Files.deleteIfExists(tmp);
+            Files.createSymbolicLink(tmp, Paths.get(next.getName()));
+            Files.move(tmp, link.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to publish " + next, e);
+        }
+        printOut("Published tiles: {}", next.getName());
+        current = next;
+        next = null;
+    }
+
+    // turns a tiles directory, rendered in place, into the first generation
+    private void adoptDirectory() {
+        Path path = link.toPath();
+        if (Files.isSymbolicLink(path) || !link.isDirectory())
+            return;
+        File first = new File(parent, link.getName() + GEN_INFIX + FIRST);
+        if (first.exists())
+            PathUtils.deleteTree(first);
+        try {
+            Files.move(path, first.toPath());
+            Files.createSymbolicLink(path, Paths.get(first.getName()));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to adopt " + link, e);
+        }
+    }
+
+    // the generation the link points to, if any
+    private File published() {
+        Path path = link.toPath();
+        if (!Files.isSymbolicLink(path))
+            return null;
+        try {
+            File target = parent.toPath()
+                    .resolve(Files.readSymbolicLink(path)).toFile();
+            return target.isDirectory() ? target : null;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read link " + link, e);
+        }
+    }
+
+    // the generation number of the given file, or -1 if not a generation
+    private int generation(File f) {
+        Matcher m = genPattern.matcher(f.getName());
+        return m.matches() ? Integer.parseInt(m.group(1)) : -1;
+    }
+
+    // recreates the given tree, with hard links to the files
+    private void linkTree(File from, File to) {
+        final Path src = from.toPath();
+        final Path dst = to.toPath();
+        try {
+            Files.walkFileTree(src, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(
+                        Path dir, BasicFileAttributes attrs) throws IOException {
+                    Files.createDirectories(dst.resolve(src.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(
+                        Path file, BasicFileAttributes attrs) throws IOException {
+                    Path target = dst.resolve(src.relativize(file));
+                    try {
+                        Files.createLink(target, file);
+                    } catch (UnsupportedOperationException |
+                            FileSystemException e) {
+                        // no hard links here; fall back to copying
+                        Files.copy(file, target);
+                    }
+                    carried++;
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to carry over " + from, e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static com.meowster.util.StringUtils.printErr;
+
+/**
+ * The content hashes of the tiles of one zoom level, as last written to
+ * disk, keyed by the tiles' {@link Morton} codes. This allows a tile whose
+ * content has not changed to be neither re-encoded nor rewritten.
+ * <p>
+ * The table is an open-addressed hash map of primitive longs, so that even
+ * very large levels take up little memory. It is safe for use by multiple
+ * threads.
+ *
+ * @author Simon Hunt
+ */
+class TileHashes {
+    private static final int MAGIC = 0x4d515448;  // "MQTH"
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // keys are stored as (code + 1), so that zero denotes an empty slot
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] hashes = new long[INITIAL_CAPACITY];
+    private int size;
+
+    @Override
+    public synchronized String toString() {
+        return "TileHashes{size=" + size + "}";
+    }
+
+    /**
+     * Returns the number of tiles in the table.
+     *
+     * @return the number of tiles
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Records the content hash of the given tile, returning true if it
+     * differs from the hash previously recorded (or there was none).
+     *
+     * @param c    the tile coordinates
+     * @param hash the content hash
+     * @return true if the content has changed
+     */
+    synchronized boolean update(Coord c, long hash) {
+        return put(Morton.encode(c) + 1, hash);
+    }
+
+    private boolean put(long key, long hash) {
+        int i = slot(keys, key);
+        if (keys[i] == key) {
+            boolean changed = hashes[i] != hash;
+            hashes[i] = hash;
+            return changed;
+        }
+        keys[i] = key;
+        hashes[i] = hash;
+        if (++size * 2 > keys.length)
+            grow();
+        return true;
+    }
+
+    // index of the slot holding the given key, or of the empty slot where
+    // it would go
+    private static int slot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int i = (int) (key * 0x9e3779b97f4a7c15L >>> 32) & mask;
+        while (keys[i] != 0 && keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldHashes = hashes;
+        keys = new long[oldKeys.length * 2];
+        hashes = new long[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int s = slot(keys, oldKeys[i]);
+                keys[s] = oldKeys[i];
+                hashes[s] = oldHashes[i];
+            }
+        }
+    }
+
+    /**
+     * Saves the table to the given file. Failure to do so is reported, and
+     * the file removed, so that all tiles will be rewritten next time.
+     *
+     * @param file the file to write
+     */
+    synchronized void save(File file) {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_SIZE))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(size);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    dos.writeLong(keys[i] - 1);
+                    dos.writeLong(hashes[i]);
+                }
+            }
+        } catch (IOException e) {
+            printErr("Failed to write tile hashes {}: {}", file, e);
+            if (!file.delete())
+                file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Loads a table from the given file, returning an empty table if the
+     * file does not exist or is not a valid tile hash file.
+     *
+     * @param file the file to read
+     * @return the loaded table
+     */
+    static TileHashes load(File file) {
+        TileHashes th = new TileHashes();
+        if (!file.isFile())
+            return th;
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), BUFFER_SIZE))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION)
+                return th;
+            int n = dis.readInt();
+            if (n < 0 || (long) n * 16 > file.length())
+                return th;
+            for (int i = 0; i < n; i++) {
+                long code = dis.readLong();
+                th.put(code + 1, dis.readLong());
+            }
+            return th;
+
+        } catch (IOException e) {
+            printErr("Failed to read tile hashes {}: {}", file, e);
+            return new TileHashes();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.util.PathUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static com.meowster.util.StringUtils.printOut;
+
+/**
+ * Moves the tiles of the base zoom levels (1x1, 2x2 and 4x4 pixels per
+ * block) to their new locations, following a change in the calibration of
+ * the quad map; as happens when the world grows past the current quad
+ * bounds. Since such a shift is a pure translation of the tile coordinates
+ * (and, possibly, a change of base zoom level), the content of the base
+ * tiles is unaffected, and they need not be rendered again. The zoomed-out
+ * levels, on the other hand, do not survive the shift, and are removed, to
+ * be rebuilt from the base tiles.
+ * <p>
+ * The tiles directory is first renamed to a staging directory, from which
+ * the base tiles are moved into a fresh tiles directory; the staging
+ * directory (with the zoomed-out levels) is then deleted. Should the
+ * process be interrupted, the staging directory remains, which is detected
+ * the next time; see {@link #interrupted(File)}.
+ *
+ * @author Simon Hunt
+ */
+class TileRemapper {
+
+    static final String STAGING_SUFFIX = "-remap";
+    private static final String ZOOM_PREFIX = "z";
+    // number of base zoom levels: +0, +1 and +2
+    private static final int BASE_LEVELS = 3;
+
+    private final File tilesDir;
+    private final Coord oldCalibration;
+    private final int oldBaseZoom;
+    private final Coord newCalibration;
+    private final int newBaseZoom;
+
+    private long moved;
+    private long dropped;
+
+    /**
+     * Constructs a tile remapper, for tiles rendered with the given old
+     * calibration and base zoom, which are to be remapped to the new
+     * calibration and base zoom. The calibrations are the quad coordinates
+     * (at the base zoom level) of the region origin; see
+     * {@link QuadData#calibration()}.
+     *
+     * @param tilesDir       the tiles directory
+     * @param oldCalibration the old calibration
+     * @param oldBaseZoom    the old base zoom level
+     * @param newCalibration the new calibration
+     * @param newBaseZoom    the new base zoom level
+     */
+    TileRemapper(File tilesDir, Coord oldCalibration, int oldBaseZoom,
+                 Coord newCalibration, int newBaseZoom) {
+        this.tilesDir = tilesDir;
+        this.oldCalibration = oldCalibration;
+        this.oldBaseZoom = oldBaseZoom;
+        this.newCalibration = newCalibration;
+        this.newBaseZoom = newBaseZoom;
+    }
+
+    @Override
+    public String toString() {
+        return "TileRemapper{" + oldCalibration + " z" + oldBaseZoom +
+                " -> " + newCalibration + " z" + newBaseZoom +
+                ", moved=" + moved + ", dropped=" + dropped + "}";
+    }
+
+    /**
+     * Returns true if a previous remap of the given tiles directory was
+     * interrupted, in which case the tiles cannot be trusted.
+     *
+     * @param tilesDir the tiles directory
+     * @return true if a remap was interrupted
+     */
+    static boolean interrupted(File tilesDir) {
+        return stagingDir(tilesDir).exists();
+    }
+
+    /**
+     * Removes what remains of an interrupted remap of the given tiles
+     * directory.
+     *
+     * @param tilesDir the tiles directory
+     */
+    static void cleanUp(File tilesDir) {
+        PathUtils.deleteTree(stagingDir(tilesDir));
+    }
+
+    private static File stagingDir(File tilesDir) {
+        return new File(tilesDir.getParentFile(),
+                tilesDir.getName() + STAGING_SUFFIX);
+    }
+
+    /**
+     * Infers the base zoom level of the tiles in the given directory, from
+     * the deepest zoom level present; or returns -1 if there are no tiles.
+     *
+     * @param tilesDir the tiles directory
+     * @return the base zoom level, or -1
+     */
+    static int inferBaseZoom(File tilesDir) {
+        int deepest = -1;
+        String[] names = tilesDir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (!name.startsWith(ZOOM_PREFIX))
+                    continue;
+                try {
+                    deepest = Math.max(deepest,
+                            Integer.parseInt(name.substring(1)));
+                } catch (NumberFormatException e) {
+                    // not a zoom level directory
+                }
+            }
+        }
+        return deepest < 0 ? -1 : deepest - (BASE_LEVELS - 1);
+    }
+
+    /**
+     * Moves the base tiles to their new locations, and removes the
+     * zoomed-out levels. Tiles that would fall outside the new quad map
+     * are dropped.
+     *
+     * @return self, for chaining
+     */
+    TileRemapper remap() {
+        File staging = stagingDir(tilesDir);
+        if (!tilesDir.renameTo(staging))
+            throw new RuntimeException("Failed to rename " + tilesDir +
+                    " to " + staging);
+        PathUtils.createIfNeedBe(tilesDir);
+
+        for (int k = 0; k < BASE_LEVELS; k++)
+            remapLevel(staging, k);
+
+        if (!PathUtils.deleteTree(staging))
+            throw new RuntimeException("Failed to delete " + staging);
+        printOut("Remapped base tiles: {}", this);
+        return this;
+    }
+
+    // moves the tiles of the given base level (+0, +1, +2)
+    private void remapLevel(File staging, int zoomPlus) {
+        int oldZoom = oldBaseZoom + zoomPlus;
+        int newZoom = newBaseZoom + zoomPlus;
+        int scale = 1 << zoomPlus;
+        int dx = (oldCalibration.x() - newCalibration.x()) * scale;
+        int dz = (oldCalibration.z() - newCalibration.z()) * scale;
+        int limit = 1 << newZoom;
+
+        MortonSet tiles = AbsQuadTile.scanTiles(
+                new File(staging, ZOOM_PREFIX + oldZoom));
+        PathUtils.createIfNeedBe(tilesDir, ZOOM_PREFIX + newZoom);
+
+        for (long code : tiles.toArray()) {
+            Coord c = Morton.decode(code);
+            Coord n = new Coord(c.x() + dx, c.z() + dz);
+            if (n.x() < 0 || n.z() < 0 || n.x() >= limit || n.z() >= limit) {
+                dropped++;
+                continue;
+            }
+            File from = new File(staging, AbsQuadTile.tilePath(oldZoom, c));
+            File to = new File(tilesDir, AbsQuadTile.tilePath(newZoom, n));
+            PathUtils.createIfNeedBe(to.getParentFile());
+            try {
+                Files.move(from.toPath(), to.toPath());
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to move " + from, e);
+            }
+            moved++;
+        }
+    }
+
+    /**
+     * Returns the number of tiles moved.
+     *
+     * @return number of tiles moved
+     */
+    long moved() {
+        return moved;
+    }
+
+    /**
+     * Returns the number of tiles dropped, since they fell outside the new
+     * quad map.
+     *
+     * @return number of tiles dropped
+     */
+    long dropped() {
+        return dropped;
+    }
+}
@@ -5,9 +5,11 @@
 package com.meowster.mcquad;
 
 import com.meowster.util.PathUtils;
+import com.meowster.util.PngEncoder;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -23,6 +25,7 @@ import static com.meowster.util.StringUtils.printOut;
 class TileRenderer {
     private static final String HEADER = "Tile Generation Report";
     private static final String HEADER_LINE = "----------------------";
+    private static final long MEGABYTE = 1024L * 1024L;
 
     private final QuadData quadData;
     private final File tilesDir;
@@ -32,6 +35,16 @@ class TileRenderer {
     private final List<LevelStats> stats = new ArrayList<>();
 
     private long totalTilesRendered = 0L;
+    private TileCache tileCache;
+    private TileWriter tileWriter;
+    private File tileHashDir;
+    private File tileIndexDir;
+    private boolean fusedPyramid;
+    private Coord oldCalibration;
+    private int oldBaseZoom;
+    private TileGenerations generations;
+    private boolean tileArchive;
+    private boolean tileDedup;
 
 
     /**
@@ -45,6 +58,187 @@ class TileRenderer {
         this.quadData = quadData;
         this.tilesDir = tilesDir;
         factory = new QuadLevelBuilderFactory(tilesDir);
+        tileWriter = new TileWriter(tilesDir);
+    }
+
+    /**
+     * Sets the number of worker threads used to render the regions
+     * for the base zoom levels.
+     *
+     * @param renderThreads number of render threads
+     * @return self, for chaining
+     */
+    TileRenderer renderThreads(int renderThreads) {
+        factory.renderThreads(renderThreads);
+        return this;
+    }
+
+    /**
+     * Sets the configuration of the staged pipeline used to render the
+     * regions for the base zoom levels. If null (the default), each region
+     * is rendered as a whole by one of the render threads.
+     *
+     * @param renderStages the render pipeline configuration
+     * @return self, for chaining
+     */
+    TileRenderer renderStages(RenderStages renderStages) {
+        factory.renderStages(renderStages);
+        return this;
+    }
+
+    /**
+     * Sets whether the regions for the base zoom levels are rendered in
+     * "fast surface" mode; that is, using each chunk's stored height map
+     * to speed up the surface scan.
+     *
+     * @param fastSurface true to use fast surface mode
+     * @return self, for chaining
+     */
+    TileRenderer fastSurface(boolean fastSurface) {
+        factory.fastSurface(fastSurface);
+        return this;
+    }
+
+    /**
+     * Sets the directory in which the surface rasters computed for each
+     * region are cached, so that only the chunks that have changed need
+     * to be decoded the next time the region is rendered.
+     *
+     * @param rasterCache the raster cache directory
+     * @return self, for chaining
+     */
+    TileRenderer rasterCache(File rasterCache) {
+        factory.rasterCache(rasterCache);
+        return this;
+    }
+
+    /**
+     * Sets the directory in which the index of populated tiles for each
+     * zoom level is kept, so that incremental renders visit only the
+     * tiles that exist, without scanning the tile directories.
+     *
+     * @param tileIndex the tile index directory
+     * @return self, for chaining
+     */
+    TileRenderer tileIndex(File tileIndex) {
+        this.tileIndexDir = tileIndex;
+        factory.tileIndex(tileIndex);
+        return this;
+    }
+
+    /**
+     * Sets the options used when encoding the tile PNG files: the deflate
+     * level, from 0 (no compression, fastest) to 9 (smallest files,
+     * slowest), and whether the rows of each image should be filtered
+     * adaptively, and when to write tiles with a colour palette.
+     *
+     * @param level    the deflate level
+     * @param adaptive true to filter adaptively
+     * @param palette  the palette mode
+     * @return self, for chaining
+     */
+    TileRenderer pngEncoding(int level, boolean adaptive,
+                             PngEncoder.Palette palette) {
+        tileWriter = new TileWriter(tilesDir, level, adaptive, palette);
+        return this;
+    }
+
+    /**
+     * Sets the directory in which the content hash of each tile written
+     * is kept, so that tiles whose content has not changed are not
+     * rewritten, nor are their parent tiles regenerated.
+     *
+     * @param tileHashDir the tile hash directory
+     * @return self, for chaining
+     */
+    TileRenderer tileHashes(File tileHashDir) {
+        this.tileHashDir = tileHashDir;
+        return this;
+    }
+
+    /**
+     * Sets the memory budget for the cache through which rendered tiles
+     * are passed from one zoom level to the next, saving them from being
+     * reloaded from disk. A value of 0 disables the cache.
+     *
+     * @param megabytes the tile cache size, in megabytes
+     * @return self, for chaining
+     */
+    TileRenderer tileCache(int megabytes) {
+        tileCache = megabytes > 0 ? new TileCache(megabytes * MEGABYTE) : null;
+        factory.tileCache(tileCache);
+        return this;
+    }
+
+    /**
+     * Sets whether the zoomed-out levels are built in the same pass as
+     * the base levels, as each base tile is produced, rather than one
+     * level at a time.
+     *
+     * @param fusedPyramid true to use fused pyramid mode
+     * @return self, for chaining
+     * @see PyramidReducer
+     */
+    TileRenderer fusedPyramid(boolean fusedPyramid) {
+        this.fusedPyramid = fusedPyramid;
+        return this;
+    }
+
+    /**
+     * Notes that the calibration of the quad map has changed since the
+     * tiles were last rendered, from the given calibration and base zoom
+     * level. If so (calibration not null), the existing base tiles are
+     * moved to their new locations, rather than rendered again, and the
+     * zoomed-out levels are rebuilt from them; see {@link TileRemapper}.
+     * If the old base zoom level is unknown (-1), it is inferred from the
+     * tiles on disk.
+     *
+     * @param calibration the old calibration (may be null)
+     * @param baseZoom    the old base zoom level
+     * @return self, for chaining
+     */
+    TileRenderer calibrationShift(Coord calibration, int baseZoom) {
+        this.oldCalibration = calibration;
+        this.oldBaseZoom = baseZoom;
+        return this;
+    }
+
+    /**
+     * Sets whether the tiles are written into archive files, rather than
+     * one PNG file per tile.
+     *
+     * @param tileArchive true to archive the tiles
+     * @return self, for chaining
+     * @see TileArchive
+     */
+    TileRenderer tileArchive(boolean tileArchive) {
+        this.tileArchive = tileArchive;
+        return this;
+    }
+
+    /**
+     * Sets whether tiles with identical images share a single stored
+     * image, rather than each being encoded and written.
+     *
+     * @param tileDedup true to deduplicate tiles
+     * @return self, for chaining
+     */
+    TileRenderer tileDedup(boolean tileDedup) {
+        this.tileDedup = tileDedup;
+        return this;
+    }
+
+    /**
+     * Sets the tile generations manager, whose staged generation is the
+     * directory being rendered into; it is published once the render is
+     * complete. If null (the default), tiles are rendered in place.
+     *
+     * @param generations the tile generations manager
+     * @return self, for chaining
+     */
+    TileRenderer generations(TileGenerations generations) {
+        this.generations = generations;
+        return this;
     }
 
     /**
@@ -54,24 +248,47 @@ class TileRenderer {
      * @param stale coordinates of stale regions
      */
     TileRenderer render(Set<Coord> stale) {
+        boolean remapped = false;
+        if (generations != null && generations.abandoned()) {
+            // the region metadata already describes the abandoned render,
+            // so we cannot tell what is stale; and the index may name tiles
+            // that were never published
+            printOut("Abandoned tile generation detected!");
+            clearDirectory(tileIndexDir);
+            stale = null;
+        } else if (TileRemapper.interrupted(tilesDir)) {
+            printOut("Interrupted tile remap detected!");
+            TileRemapper.cleanUp(tilesDir);
+            stale = null;
+        } else if (stale != null && oldCalibration != null) {
+            remapped = remapTiles();
+            if (!remapped)
+                stale = null;
+        }
+
         if (stale == null) {
             printOut("Calibration change detected -- regenerating all tiles!");
             PathUtils.deleteTree(tilesDir);
         }
         PathUtils.createIfNeedBe(tilesDir);
 
-        if (stale != null && stale.isEmpty()) {
+        if (stale != null && stale.isEmpty() && !remapped) {
             printOut("No stale regions -- nothing to do!!");
+            publish();
             return this;
         }
 
+        // (after a remap, all of the zoomed-out tiles are rebuilt)
+        factory.fusedPyramid(fusedPyramid && !remapped);
+        factory.tileWriter(storage(tileWriter.hashIndex(tileHashDir)));
         QuadLevelBuilder builder = factory.createBuilder(quadData);
         builder.prepare(stale);
         builder.createDirectory();
         totalTilesRendered += builder.generateTiles();
         builder.saveStats(stats);
         QuadLevel level = builder.getLevel();
-        Set<Coord> zoomedOutStale = builder.zoomedOutStale();
+        Set<Coord> zoomedOutStale = remapped ? parentsOf(level)
+                : builder.zoomedOutStale();
 
         // now progressively zoom out...
         while (level.zoom() > 1) {
@@ -83,9 +300,77 @@ class TileRenderer {
             level = builder.getLevel();
             zoomedOutStale = builder.zoomedOutStale();
         }
+
+        tileWriter.flush();
+        // (publish before saving the hashes, which describe the new tiles)
+        publish();
+        tileWriter.saveHashes();
+
+        if (tileCache != null) {
+            printOut(EOL + tileCache);
+        }
         return this;
     }
 
+    // sets the tile store to which the given writer writes
+    private TileWriter storage(TileWriter writer) {
+        if (tileArchive) {
+            ArchiveTileStore store = new ArchiveTileStore(
+                    TileArchive.openForWriting(tilesDir), writer.encoder())
+                    .dedup(tileDedup);
+            return writer.storage(store, store);
+        }
+        FileTileStore store = new FileTileStore(tilesDir, writer.encoder())
+                .dedup(tileDedup);
+        return writer.storage(store, store);
+    }
+
+    private void publish() {
+        if (generations != null)
+            generations.publish();
+    }
+
+    // moves the base tiles following a calibration shift, returning false
+    // if that is not possible, and all tiles must be regenerated instead
+    private boolean remapTiles() {
+        // (archived tiles are not remapped, but rendered again)
+        if (tileArchive)
+            return false;
+
+        int baseZoom = oldBaseZoom >= 0 ? oldBaseZoom
+                : TileRemapper.inferBaseZoom(tilesDir);
+        if (baseZoom < 0)
+            return false;
+
+        printOut("Calibration change detected -- remapping base tiles...");
+        new TileRemapper(tilesDir, oldCalibration, baseZoom,
+                quadData.calibration(), quadData.baseZoom()).remap();
+
+        // the indexes are keyed by tile coordinates, so no longer apply
+        clearDirectory(tileIndexDir);
+        clearDirectory(tileHashDir);
+        return true;
+    }
+
+    // the coordinates of the zoomed-out tiles covering the given level's
+    // tiles; all of which are stale, after a remap
+    private static Set<Coord> parentsOf(QuadLevel level) {
+        Set<Coord> parents = new HashSet<>();
+        for (long code : level.occupancy().parents().toArray())
+            parents.add(Morton.decode(code));
+        return parents;
+    }
+
+    private static void clearDirectory(File dir) {
+        File[] files = dir == null ? null : dir.listFiles();
+        if (files == null)
+            return;
+        for (File f : files) {
+            if (!f.delete())
+                throw new RuntimeException("Failed to delete " + f);
+        }
+    }
+
     /**
      * Returns a string detailing information about the rendering process.
      *
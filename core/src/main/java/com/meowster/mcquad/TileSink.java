@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+/**
+ * A destination for rendered tiles; the back end to which a
+ * {@link TileWriter} hands the image of each tile it writes. Tiles are
+ * addressed by zoom level and tile coordinates; how (and in what form)
+ * they are stored is up to the implementation. A tile sink may be shared
+ * by all the threads rendering tiles.
+ *
+ * @author Simon Hunt
+ * @see TileSource
+ */
+interface TileSink {
+
+    /**
+     * Stores the image of the given tile, replacing any image previously
+     * stored for it. The content hash identifies identical images, for
+     * sinks that store them only once.
+     *
+     * @param zoom   the zoom level
+     * @param coord  the tile coordinates
+     * @param argb   the image pixels (ARGB, row by row)
+     * @param width  the image width
+     * @param height the image height
+     * @param hash   the content hash of the image
+     * @return true if the image was stored as a duplicate of another
+     * @throws RuntimeException if an error occurred
+     */
+    boolean write(int zoom, Coord coord, int[] argb, int width, int height,
+                  long hash);
+
+    /**
+     * Removes the image of the given tile, if there is one.
+     *
+     * @param zoom  the zoom level
+     * @param coord the tile coordinates
+     * @return true if an image was removed
+     * @throws RuntimeException if an error occurred
+     */
+    boolean delete(int zoom, Coord coord);
+
+    /**
+     * Ensures that all the tiles written are durably stored; to be called
+     * once the render is complete, before the tiles are published.
+     *
+     * @throws RuntimeException if an error occurred
+     */
+    void flush();
+}
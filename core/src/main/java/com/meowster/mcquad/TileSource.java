@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import java.io.IOException;
+
+/**
+ * A source of previously rendered tiles; from which tiles that are not
+ * (re)generated during a render are reloaded, when building the zoomed
+ * out levels. Tiles are addressed by zoom level and tile coordinates.
+ *
+ * @author Simon Hunt
+ * @see TileSink
+ */
+interface TileSource {
+
+    /**
+     * Returns the image pixels (ARGB, row by row) of the given tile, or
+     * null if there is none.
+     *
+     * @param zoom  the zoom level
+     * @param coord the tile coordinates
+     * @return the tile pixels
+     * @throws IOException if an error occurred
+     */
+    int[] read(int zoom, Coord coord) throws IOException;
+
+    /**
+     * Returns true if there is an image for the given tile.
+     *
+     * @param zoom  the zoom level
+     * @param coord the tile coordinates
+     * @return true if the tile exists
+     */
+    boolean exists(int zoom, Coord coord);
+
+    /**
+     * Returns the index of the tiles present at the given zoom level.
+     *
+     * @param zoom the zoom level
+     * @return the tiles found
+     */
+    MortonSet tiles(int zoom);
+}
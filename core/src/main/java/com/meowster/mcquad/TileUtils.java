@@ -22,7 +22,19 @@ class TileUtils {
      * @return an image of the region
      */
     static BufferedImage generateImage(Region region) {
-        return new RegionStructure(region).getImage();
+        return generateImage(region, false);
+    }
+
+    /**
+     * Creates an image of the specified region, optionally using fast
+     * surface mode.
+     *
+     * @param region      the region
+     * @param fastSurface true to use fast surface mode
+     * @return an image of the region
+     */
+    static BufferedImage generateImage(Region region, boolean fastSurface) {
+        return new RegionStructure(region, fastSurface).getImage();
     }
 
     /**
@@ -38,4 +50,18 @@ class TileUtils {
                                        QuadTile bl, QuadTile br) {
         return new CompositeTile(tl, tr, bl, br).getImage();
     }
+
+    /**
+     * Creates a composite image from the specified quad tile pixel data.
+     *
+     * @param tl top-left tile pixels (may be null)
+     * @param tr top-right tile pixels (may be null)
+     * @param bl bottom-left tile pixels (may be null)
+     * @param br bottom-right tile pixels (may be null)
+     * @return the composite image
+     */
+    static BufferedImage generateImage(int[] tl, int[] tr,
+                                       int[] bl, int[] br) {
+        return new CompositeTile(tl, tr, bl, br).getImage();
+    }
 }
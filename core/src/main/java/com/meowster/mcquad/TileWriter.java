@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.util.PngEncoder;
+import com.meowster.util.XxHash64;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes tile images, encoded as PNG files using a {@link PngEncoder}
+ * rather than {@code ImageIO}, to a {@link TileSink}; from which (as a
+ * {@link TileSource}) previously written tiles may be reloaded. By
+ * default, tiles are written as individual files in the tiles directory
+ * (see {@link FileTileStore}); another back end may be set with
+ * {@link #storage}. A tile writer may be shared by all the threads
+ * rendering tiles.
+ * <p>
+ * If a {@link #hashIndex hash index} directory is set, the content hash
+ * of each tile written is recorded (per zoom level, see
+ * {@link TileHashes}); a tile whose content is the same as when it was
+ * last written is skipped. The index of each level is removed from disk
+ * as it is loaded, and only written back by {@link #saveHashes()} once
+ * the render is complete, so that an interrupted render cannot leave
+ * behind an index that disagrees with the tiles on disk.
+ * <p>
+ * Tiles that the sink stores as duplicates of others are counted in the
+ * level's {@link LevelStats}.
+ *
+ * @author Simon Hunt
+ */
+class TileWriter {
+
+    private static final String HASH_SUFFIX = ".hash";
+
+    private final PngEncoder encoder;
+    // (the seed captures the encoding options)
+    private final long hashSeed;
+    private final Map<Integer, TileHashes> hashes = new ConcurrentHashMap<>();
+    private File hashDir;
+    private TileSink sink;
+    private TileSource source;
+
+    /**
+     * Constructs a tile writer for the given tiles directory, using the
+     * default PNG encoding options.
+     *
+     * @param tilesDir the tiles directory
+     */
+    TileWriter(File tilesDir) {
+        this(tilesDir, new PngEncoder());
+    }
+
+    /**
+     * Constructs a tile writer for the given tiles directory, using the
+     * given PNG encoding options.
+     *
+     * @param tilesDir the tiles directory
+     * @param level    the deflate level (0 - 9)
+     * @param adaptive true to filter the image rows adaptively
+     * @param palette  when to write tiles with a colour palette
+     */
+    TileWriter(File tilesDir, int level, boolean adaptive,
+               PngEncoder.Palette palette) {
+        this(tilesDir, new PngEncoder(level, adaptive, palette));
+    }
+
+    private TileWriter(File tilesDir, PngEncoder encoder) {
+        this.encoder = encoder;
+        hashSeed = encoder.toString().hashCode();
+        FileTileStore store = new FileTileStore(tilesDir, encoder);
+        sink = store;
+        source = store;
+    }
+
+    @Override
+    public String toString() {
+        return "TileWriter{" + encoder + ", " + sink + "}";
+    }
+
+    /**
+     * Returns the PNG encoder used by this tile writer; for tile sinks
+     * to encode the tiles with.
+     *
+     * @return the PNG encoder
+     */
+    PngEncoder encoder() {
+        return encoder;
+    }
+
+    /**
+     * Sets the directory in which the tile content hashes are kept. If
+     * null (the default), every tile is written.
+     *
+     * @param hashDir the hash index directory
+     * @return self, for chaining
+     */
+    TileWriter hashIndex(File hashDir) {
+        this.hashDir = hashDir;
+        return this;
+    }
+
+    /**
+     * Sets the back end to which tiles are written, and from which they
+     * are reloaded; typically the same object.
+     *
+     * @param sink   the tile sink
+     * @param source the tile source
+     * @return self, for chaining
+     */
+    TileWriter storage(TileSink sink, TileSource source) {
+        this.sink = sink;
+        this.source = source;
+        return this;
+    }
+
+    /**
+     * Returns a handle on the given tile, as previously written.
+     *
+     * @param zoom  the zoom level
+     * @param coord the tile coordinates
+     * @return the tile, to be loaded from the tile source
+     */
+    QuadTile fromDisk(int zoom, Coord coord) {
+        return new FromDiskQTile(coord, source, zoom);
+    }
+
+    /**
+     * Returns the index of the tiles of the given level previously
+     * written.
+     *
+     * @param level the level
+     * @return the tiles found
+     */
+    MortonSet scanTiles(QuadLevel level) {
+        return source.tiles(level.zoom());
+    }
+
+    /**
+     * Writes the image of a single tile, unless its content is unchanged
+     * since it was last written.
+     *
+     * @param tile  the tile to write
+     * @param level the level to which the tile belongs
+     * @return true if the tile was written; false if it was unchanged
+     */
+    boolean write(QuadTile tile, QuadLevel level) {
+        if (!changed(tile, level))
+            return false;
+        store(tile, level);
+        return true;
+    }
+
+    /**
+     * Assigns the given tile its source (for reloading), and returns true
+     * if it needs to be written; that is, unless its content is unchanged
+     * since it was last written. Note that the tile's new content hash is
+     * recorded, so a tile for which this returns true must then be
+     * {@link #store(QuadTile, QuadLevel) stored}.
+     *
+     * @param tile  the tile
+     * @param level the level to which the tile belongs
+     * @return true if the tile needs to be written
+     */
+    boolean changed(QuadTile tile, QuadLevel level) {
+        tile.setSource(source, level.zoom());
+
+        if (hashDir != null) {
+            boolean changed = hashes(level.zoom())
+                    .update(tile.coord(), hash(tile));
+            return changed || !source.exists(level.zoom(), tile.coord());
+        }
+        return true;
+    }
+
+    // the content hash of the tile image; computed once per tile
+    private long hash(QuadTile tile) {
+        Long hash = tile.contentHash();
+        if (hash == null) {
+            BufferedImage bi = tile.image();
+            hash = XxHash64.hash(TileCache.pixelsOf(bi), 0,
+                    bi.getWidth() * bi.getHeight(), hashSeed);
+            tile.setContentHash(hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Hands the image of the given tile to the tile sink.
+     *
+     * @param tile  the tile to write
+     * @param level the level to which the tile belongs
+     */
+    void store(QuadTile tile, QuadLevel level) {
+        BufferedImage bi = tile.image();
+        int[] pixels = TileCache.pixelsOf(bi);
+        if (sink.write(level.zoom(), tile.coord(), pixels,
+                bi.getWidth(), bi.getHeight(), hash(tile)))
+            level.getStats().incDuplicates();
+    }
+
+    /**
+     * Removes the given tile, now blank, from the tile sink and from the
+     * level's occupancy index.
+     *
+     * @param level the level to which the tile belonged
+     * @param coord the tile coordinates
+     */
+    void delete(QuadLevel level, Coord coord) {
+        sink.delete(level.zoom(), coord);
+        level.occupancy().remove(coord);
+    }
+
+    /**
+     * Flushes the tile sink; to be called once all tiles are written.
+     */
+    void flush() {
+        sink.flush();
+    }
+
+    /**
+     * Writes the tile content hashes back to disk, for all the levels to
+     * which tiles have been written.
+     */
+    void saveHashes() {
+        if (hashDir == null)
+            return;
+        for (Map.Entry<Integer, TileHashes> e : hashes.entrySet())
+            e.getValue().save(hashFile(e.getKey()));
+    }
+
+    private TileHashes hashes(int zoom) {
+        return hashes.computeIfAbsent(zoom, z -> {
+            File f = hashFile(z);
+            TileHashes th = TileHashes.load(f);
+            if (f.exists() && !f.delete())
+                throw new RuntimeException("Failed to delete old file: " + f);
+            return th;
+        });
+    }
+
+    private File hashFile(int zoom) {
+        return new File(hashDir, "z" + zoom + HASH_SUFFIX);
+    }
+}
@@ -18,11 +18,18 @@ import static com.meowster.util.StringUtils.printOut;
 /**
  * A zoom quad level builder. This implementation knows how to create a quad
  * level that is zoomed-out by one from the supplied source level.
+ * <p>
+ * Only those tiles with at least one populated child tile (according to
+ * the source level's {@link QuadLevel#occupancy() occupancy index}) are
+ * visited, in Morton order.
  *
  * @author Simon Hunt
  */
 class ZoomQuadLevelBuilder extends QuadLevelBuilder {
 
+    // number of tiles generated between writes to disk
+    private static final int WRITE_BATCH = 32;
+
     private final QuadLevel sourceLevel;
     private QdLvl q;
 
@@ -40,12 +47,27 @@ class ZoomQuadLevelBuilder extends QuadLevelBuilder {
     @Override
     public void prepare(Set<Coord> stale) {
         toProcess = stale;
-        q = new QdLvl();
-        q.setZoom(sourceLevel.zoom() - 1);
-        q.setBlocksPerTileSide(sourceLevel.blocksPerTileSide() * 2);
-        q.setOriginTile(sourceLevel.originTile().div2());
+        q = zoomedOutLevel(tilesDir, sourceLevel);
+        if (stale != null)
+            seedOccupancy(q);
+    }
+
+    /**
+     * Creates the (empty) quad level zoomed out by one from the given
+     * source level.
+     *
+     * @param tilesDir the top level tiles output directory
+     * @param source   the source level (zoom factor Z)
+     * @return the level (zoom factor Z-1)
+     */
+    static QdLvl zoomedOutLevel(File tilesDir, QuadLevel source) {
+        QdLvl q = new QdLvl();
+        q.setZoom(source.zoom() - 1);
+        q.setBlocksPerTileSide(source.blocksPerTileSide() * 2);
+        q.setOriginTile(source.originTile().div2());
         q.setOriginDisplace(ORIGIN);    // TODO: review
         q.setOutputDir(new File(tilesDir, q.name()));
+        return q;
     }
 
     @Override
@@ -59,45 +81,46 @@ class ZoomQuadLevelBuilder extends QuadLevelBuilder {
     }
 
     private long genTiles(boolean suppressWrite) {
-        final int dim = sourceLevel.dim();
+        final MortonSet occupied = sourceLevel.occupancy();
         List<QuadTile> tiles = new ArrayList<>();
         long totalTilesGenerated = 0;
         QuadTile tile;
+        int batches = 0;
 
         q.startTracker();
 
         printOut(String.format(EOL + "Rendering zoom level %d:", q.zoom()));
-        for (int a = 0; a < dim; a += 2) {
-            for (int b = 0; b < dim; b += 2) {
-                Coord c = new Coord(a / 2, b / 2);
-                if (toProcess != null && !toProcess.contains(c)) {
-                    continue;
-                    // TODO: how to track tiles that were skipped?
-                }
-
-                // get TopLeft, TopRight, BottomLeft, BottomRight tiles
-                QuadTile tl = gimmeATile(a, b);
-                QuadTile tr = gimmeATile(a + 1, b);
-                QuadTile bl = gimmeATile(a, b + 1);
-                QuadTile br = gimmeATile(a + 1, b + 1);
-                // generate new tile from the 4 input tiles (zoom out 1 level)
-                tile = mergeTiles(a, b, tl, tr, bl, br);
-                q.addTile(tile);
-
-                if (tile != null) {
-                    tiles.add(tile);
-                }
-            }
 
-            if (!suppressWrite && !tiles.isEmpty()) {
-                writeTiles(tiles, q.outputDir());
+        // only visit those tiles that have at least one populated child
+        for (long code : occupied.parents().toArray()) {
+            Coord c = Morton.decode(code);
+            if (toProcess != null && !toProcess.contains(c)) {
+                continue;
+                // TODO: how to track tiles that were skipped?
+            }
+            int a = c.x() * 2;
+            int b = c.z() * 2;
+
+            // get TopLeft, TopRight, BottomLeft, BottomRight tiles
+            QuadTile tl = gimmeATile(a, b, occupied);
+            QuadTile tr = gimmeATile(a + 1, b, occupied);
+            QuadTile bl = gimmeATile(a, b + 1, occupied);
+            QuadTile br = gimmeATile(a + 1, b + 1, occupied);
+            // generate new tile from the 4 input tiles (zoom out 1 level)
+            tile = mergeTiles(a, b, tl, tr, bl, br, suppressWrite);
+            q.addTile(tile);
+
+            if (tile != null) {
+                tiles.add(tile);
             }
 
-            printMark(a + 2);
-
-            totalTilesGenerated += tiles.size();
-            releaseTiles(tiles);
+            if (tiles.size() == WRITE_BATCH) {
+                totalTilesGenerated += writeBatch(tiles, suppressWrite);
+                printMark(++batches);
+            }
         }
+        totalTilesGenerated += writeBatch(tiles, suppressWrite);
+        saveOccupancy(q);
 
         print(EOL);
 
@@ -106,28 +129,60 @@ class ZoomQuadLevelBuilder extends QuadLevelBuilder {
         return totalTilesGenerated;
     }
 
-    private QuadTile gimmeATile(int a, int b) {
+    private long writeBatch(List<QuadTile> tiles, boolean suppressWrite) {
+        if (!suppressWrite && !tiles.isEmpty()) {
+            writeTiles(tiles, q);
+            // (the tile renderer zooms out no further than zoom 1)
+            if (q.zoom() > 1)
+                cacheTiles(tiles, q.zoom());
+        }
+        long count = tiles.size();
+        releaseTiles(tiles);
+        return count;
+    }
+
+    private QuadTile gimmeATile(int a, int b, MortonSet occupied) {
+        if (!occupied.contains(a, b))
+            return null;    // no tile there, now or on a previous run
+
         // first, check to see if the tile is in-memory...
         QuadTile qt = sourceLevel.at(a, b);
 
         if (toProcess != null && qt == null) {
-            // hmmm, sparse rendering and tile not in memory; is it on disk?
-            Coord coord = new Coord(a, b);
-            String tp = AbsQuadTile.tilePath(sourceLevel.zoom(), coord);
-            File tileFile = new File(tilesDir, tp);
-            if (tileFile.exists()) {
-                qt = new FromDiskQTile(coord, tileFile);
-            }
+            // sparse rendering and tile not in memory; so it is on disk
+            qt = tileWriter.fromDisk(sourceLevel.zoom(), new Coord(a, b));
         }
         return qt;
     }
 
     // Merge the four tiles into a single tile "one-fourth the size"
     private QuadTile mergeTiles(int a, int b, QuadTile tl, QuadTile tr,
-                                QuadTile bl, QuadTile br) {
+                                QuadTile bl, QuadTile br,
+                                boolean suppressWrite) {
         // if no input tiles, no output tile
-        return (tl == null && tr == null && bl == null && br == null)
-                ? null : new FourQTile(a, b, tl, tr, bl, br);
+        if (tl == null && tr == null && bl == null && br == null)
+            return null;
+        int[] ptl = pixels(tl);
+        int[] ptr = pixels(tr);
+        int[] pbl = pixels(bl);
+        int[] pbr = pixels(br);
+        if (ptl == null && ptr == null && pbl == null && pbr == null) {
+            // the children are indexed, but have gone (deleted as blank);
+            // so this tile is now blank too
+            if (!suppressWrite)
+                tileWriter.delete(q, new Coord(a / 2, b / 2));
+            return null;
+        }
+        return new FourQTile(a, b, ptl, ptr, pbl, pbr);
+    }
+
+    // take the tile's pixels from the cache if we can, else from disk
+    private int[] pixels(QuadTile tile) {
+        if (tile == null)
+            return null;
+        int[] p = tileCache == null ? null
+                : tileCache.take(sourceLevel.zoom(), tile.coord());
+        return p != null ? p : CompositeTile.loadPixels(tile);
     }
 
     @Override
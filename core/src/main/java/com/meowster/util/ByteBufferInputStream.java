@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.util;
+
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream that reads from the remaining bytes of a
+ * {@link ByteBuffer}. The buffer's position is advanced as bytes are read.
+ * No data is copied up front, so wrapping a slice of a memory-mapped file
+ * is cheap.
+ *
+ * @author Simon Hunt
+ */
+public class ByteBufferInputStream extends InputStream {
+
+    private static final int FF = 0xff;
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates an input stream backed by the given buffer.
+     *
+     * @param buffer the backing buffer
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & FF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        if (!buffer.hasRemaining())
+            return -1;
+
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0)
+            return 0;
+        int skipped = (int) Math.min(n, buffer.remaining());
+        // invoked via Buffer to remain compatible with the Java 8 runtime
+        ((Buffer) buffer).position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.util;
+
+import java.util.Arrays;
+
+/**
+ * Reduces the colours of an image to a palette of a given size, using
+ * the median cut algorithm. The colour space (including alpha) is split
+ * repeatedly into boxes, always splitting the box with the widest range
+ * of values in any one channel, at the (population weighted) median of
+ * that channel. Each box then contributes one palette entry: the average
+ * of the colours it contains.
+ *
+ * @author Simon Hunt
+ */
+public final class ColorQuantizer {
+
+    private static final int N_CHANNELS = 4;
+    private static final int N_VALUES = 256;
+
+    // no instantiation
+    private ColorQuantizer() {
+    }
+
+    /**
+     * Computes a palette of (at most) the given number of colours for the
+     * given (non-premultiplied) ARGB pixels, and maps each pixel to its
+     * palette entry.
+     *
+     * @param argb      the pixels
+     * @param n         the number of pixels
+     * @param maxColors the maximum palette size (at most 256)
+     * @param palette   the array to receive the palette entries
+     * @param indices   the array to receive the palette index of each pixel
+     * @return the number of palette entries
+     */
+    public static int quantize(int[] argb, int n, int maxColors,
+                               int[] palette, byte[] indices) {
+        // distinct colours, in ascending order, and their populations
+        int[] colors = Arrays.copyOf(argb, n);
+        Arrays.sort(colors);
+        int[] counts = new int[n];
+        int u = 0;
+        for (int i = 0; i < n; i++) {
+            if (u == 0 || colors[i] != colors[u - 1])
+                colors[u++] = colors[i];
+            counts[u - 1]++;
+        }
+
+        // the boxes partition perm[]; box b spans [start[b], start[b + 1])
+        int[] perm = new int[u];
+        for (int i = 0; i < u; i++)
+            perm[i] = i;
+        int[] start = new int[maxColors + 1];
+        int boxes = 1;
+        start[1] = u;
+        // the widest channel of each box, and its range; measured once,
+        // when the box is made
+        int[] widest = new int[maxColors];
+        int[] range = new int[maxColors];
+        measure(colors, perm, start, 0, widest, range);
+
+        int[] scratch = new int[u];
+        while (boxes < maxColors) {
+            int best = -1;
+            int bestRange = 0;
+            for (int b = 0; b < boxes; b++) {
+                if (range[b] > bestRange) {
+                    best = b;
+                    bestRange = range[b];
+                }
+            }
+            if (best < 0)
+                break;  // every box holds a single colour
+
+            int lo = start[best];
+            int hi = start[best + 1];
+            sortByChannel(colors, perm, lo, hi, widest[best], scratch);
+            int split = medianSplit(counts, perm, lo, hi);
+
+            System.arraycopy(start, best + 1, start, best + 2, boxes - best);
+            System.arraycopy(widest, best + 1, widest, best + 2, boxes - best - 1);
+            System.arraycopy(range, best + 1, range, best + 2, boxes - best - 1);
+            start[best + 1] = split;
+            boxes++;
+            measure(colors, perm, start, best, widest, range);
+            measure(colors, perm, start, best + 1, widest, range);
+        }
+
+        // each box contributes its average colour
+        int[] boxOf = new int[u];
+        for (int b = 0; b < boxes; b++) {
+            long a = 0, r = 0, g = 0, bl = 0, total = 0;
+            for (int i = start[b]; i < start[b + 1]; i++) {
+                int k = perm[i];
+                int c = colors[k];
+                long w = counts[k];
+                a += (c >>> 24) * w;
+                r += (c >> 16 & 0xff) * w;
+                g += (c >> 8 & 0xff) * w;
+                bl += (c & 0xff) * w;
+                total += w;
+                boxOf[k] = b;
+            }
+            long half = total / 2;
+            palette[b] = (int) ((a + half) / total) << 24 |
+                    (int) ((r + half) / total) << 16 |
+                    (int) ((g + half) / total) << 8 |
+                    (int) ((bl + half) / total);
+        }
+
+        for (int i = 0; i < n; i++)
+            indices[i] = (byte) boxOf[Arrays.binarySearch(colors, 0, u, argb[i])];
+        return boxes;
+    }
+
+    private static int channel(int argb, int c) {
+        return argb >>> (24 - c * 8) & 0xff;
+    }
+
+    // notes the channel with the widest range of values across box b
+    // (the first, if several), and that range; zero for a single colour
+    private static void measure(int[] colors, int[] perm, int[] start, int b,
+                                int[] widest, int[] range) {
+        int[] min = new int[N_CHANNELS];
+        int[] max = new int[N_CHANNELS];
+        Arrays.fill(min, N_VALUES);
+        Arrays.fill(max, -1);
+        for (int i = start[b]; i < start[b + 1]; i++) {
+            int argb = colors[perm[i]];
+            for (int c = 0; c < N_CHANNELS; c++) {
+                int v = channel(argb, c);
+                if (v < min[c])
+                    min[c] = v;
+                if (v > max[c])
+                    max[c] = v;
+            }
+        }
+        widest[b] = 0;
+        range[b] = 0;
+        for (int c = 0; c < N_CHANNELS; c++) {
+            if (max[c] - min[c] > range[b]) {
+                widest[b] = c;
+                range[b] = max[c] - min[c];
+            }
+        }
+    }
+
+    // (stable) counting sort of perm[lo..hi) by the given channel
+    private static void sortByChannel(int[] colors, int[] perm, int lo, int hi,
+                                      int c, int[] scratch) {
+        int[] offsets = new int[N_VALUES + 1];
+        for (int i = lo; i < hi; i++)
+            offsets[channel(colors[perm[i]], c) + 1]++;
+        for (int v = 0; v < N_VALUES; v++)
+            offsets[v + 1] += offsets[v];
+        for (int i = lo; i < hi; i++)
+            scratch[lo + offsets[channel(colors[perm[i]], c)]++] = perm[i];
+        System.arraycopy(scratch, lo, perm, lo, hi - lo);
+    }
+
+    // index at which half the population of perm[lo..hi) lies below;
+    // both halves are non-empty
+    private static int medianSplit(int[] counts, int[] perm, int lo, int hi) {
+        long total = 0;
+        for (int i = lo; i < hi; i++)
+            total += counts[perm[i]];
+        long sum = 0;
+        int i = lo;
+        while (i < hi - 1) {
+            sum += counts[perm[i++]];
+            if (sum * 2 >= total)
+                break;
+        }
+        return i;
+    }
+}
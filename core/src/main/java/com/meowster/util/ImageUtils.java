@@ -19,19 +19,16 @@ public class ImageUtils {
     private static final String PNG = "png";
 
     /**
-     * Writes the specified image to disk as a .png file.
+     * Writes the specified image to disk as a .png file. The file is
+     * replaced atomically; see {@link PathUtils#writeAtomically}.
      *
      * @param bi  the buffered image to write
      * @param out the file to write the image into
      * @throws RuntimeException if an error occurred
      */
     public static void writeImageToDisk(BufferedImage bi, File out) {
-        if (out.exists())
-            if (!out.delete())
-                throw new RuntimeException("Failed to delete old file: " + out);
-
         try {
-            ImageIO.write(bi, PNG, out);
+            PathUtils.writeAtomically(out, os -> ImageIO.write(bi, PNG, os));
         } catch (IOException e) {
             throw new RuntimeException("Error writing .png: " + out, e);
         }
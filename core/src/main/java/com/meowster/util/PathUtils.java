@@ -5,6 +5,11 @@
 package com.meowster.util;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 import static com.meowster.util.StringUtils.printErr;
 
@@ -15,6 +20,9 @@ import static com.meowster.util.StringUtils.printErr;
  */
 // TODO: UNIT TESTS
 public class PathUtils {
+
+    private static final String TMP_SUFFIX = ".tmp";
+
     /**
      * Deletes the specified directory and everything underneath it.
      *
@@ -41,7 +49,8 @@ public class PathUtils {
      * @param path the directory path
      */
     public static void makeDir(File path) {
-        if (!path.mkdir())
+        // another thread may have beaten us to it, which is fine
+        if (!path.mkdir() && !path.isDirectory())
             printErr("Failed to create output directory: {}", path);
     }
 
@@ -76,4 +85,82 @@ public class PathUtils {
         makeDir(sub);
         return true;
     }
+
+    /**
+     * Writes the content of a file.
+     */
+    public interface Content {
+        /**
+         * Writes the content to the given output stream.
+         *
+         * @param out the output stream
+         * @throws IOException if an error occurred
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes the specified file atomically. The content is written to a
+     * temporary file in the same directory, which is then moved into
+     * place, replacing any existing file; so that readers of the file see
+     * either the old content or the new, never a partially written file.
+     * Note that, since an existing file is replaced rather than
+     * overwritten, any other (hard) links to it are unaffected.
+     *
+     * @param file    the file to write
+     * @param content the content writer
+     * @throws IOException if an error occurred
+     */
+    public static void writeAtomically(File file, Content content)
+            throws IOException {
+        File tmp = File.createTempFile("." + file.getName(), TMP_SUFFIX,
+                file.getParentFile());
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                content.writeTo(out);
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            if (tmp.exists() && !tmp.delete())
+                printErr("Failed to delete temporary file: {}", tmp);
+        }
+    }
+
+    /**
+     * Makes the specified file a (hard) link to the given existing file.
+     * As with {@link #writeAtomically}, any existing file is replaced
+     * atomically.
+     *
+     * @param file     the file to create
+     * @param existing the file to link to
+     * @throws IOException if an error occurred, such as the file system
+     *                     not supporting hard links
+     */
+    public static void linkAtomically(File file, File existing)
+            throws IOException {
+        File tmp = File.createTempFile("." + file.getName(), TMP_SUFFIX,
+                file.getParentFile());
+        try {
+            Files.delete(tmp.toPath());
+            Files.createLink(tmp.toPath(), existing.toPath());
+            try {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (UnsupportedOperationException e) {
+            throw new IOException("Hard links not supported: " + file, e);
+        } finally {
+            if (tmp.exists() && !tmp.delete())
+                printErr("Failed to delete temporary file: {}", tmp);
+        }
+    }
 }
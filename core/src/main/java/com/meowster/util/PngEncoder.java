@@ -0,0 +1,599 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A PNG encoder tuned for writing map tiles. Images are encoded straight
+ * from an array of (non-premultiplied) ARGB pixels, bypassing the generic
+ * {@code ImageIO} machinery:
+ * <ul>
+ *     <li>images with no more than 256 colours are written as indexed
+ *     colour, with a palette (and transparency table, if need be), at
+ *     the smallest bit depth that will do; optionally, images with more
+ *     colours are quantized to a palette</li>
+ *     <li>otherwise, fully opaque images are written as RGB (no alpha
+ *     channel)</li>
+ *     <li>the deflate level is selectable</li>
+ *     <li>optionally, the filter for each row is chosen adaptively,
+ *     using the "minimum sum of absolute differences" heuristic</li>
+ *     <li>the {@link Deflater} and the working buffers are reused,
+ *     one set per thread</li>
+ * </ul>
+ * Note that map tiles, with their large areas of flat colour, generally
+ * compress best (and fastest) with no row filtering at all, which is
+ * therefore the default.
+ * <p>
+ * An encoder may be shared freely between threads. A thread that has
+ * finished encoding should invoke {@link #releaseForThread()}, to free
+ * the native state of its deflaters.
+ *
+ * @author Simon Hunt
+ */
+public class PngEncoder {
+
+    /**
+     * The default deflate level; a good compromise between speed and size
+     * for map tiles (and the level used by the JDK's own PNG writer).
+     */
+    public static final int DEFAULT_LEVEL = 4;
+
+    /**
+     * Determines when images are written with a colour palette.
+     */
+    public enum Palette {
+        /** Images are always written as true colour. */
+        NONE,
+        /** Images with no more than 256 colours are written with a palette. */
+        EXACT,
+        /**
+         * As {@link #EXACT}; other images are reduced to 256 colours (see
+         * {@link ColorQuantizer}). Note that this is lossy.
+         */
+        QUANTIZED
+    }
+
+    private static final byte[] SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+    };
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] PLTE = {'P', 'L', 'T', 'E'};
+    private static final byte[] TRNS = {'t', 'R', 'N', 'S'};
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+
+    private static final int BIT_DEPTH = 8;
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_INDEXED = 3;
+    private static final int COLOR_RGBA = 6;
+
+    private static final int FILTER_NONE = 0;
+    private static final int FILTER_SUB = 1;
+    private static final int FILTER_UP = 2;
+    private static final int FILTER_AVERAGE = 3;
+    private static final int FILTER_PAETH = 4;
+    private static final int N_FILTERS = 5;
+
+    private static final int MAX_PALETTE = 256;
+
+    // colour lookup table for palette detection; a power of 2, and at
+    // least four times the size of the largest palette
+    private static final int HASH_BITS = 10;
+    private static final int HASH_SIZE = 1 << HASH_BITS;
+    private static final int HASH_MASK = HASH_SIZE - 1;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    // the current thread's workspace for each encoder it has used
+    private static final ThreadLocal<Map<PngEncoder, Workspace>> WORKSPACES =
+            new ThreadLocal<>();
+
+    private final int level;
+    private final boolean adaptive;
+    private final Palette palette;
+
+    /**
+     * Constructs an encoder using the {@link #DEFAULT_LEVEL default}
+     * deflate level, no row filtering, and {@link Palette#EXACT exact}
+     * palettes.
+     */
+    public PngEncoder() {
+        this(DEFAULT_LEVEL, false, Palette.EXACT);
+    }
+
+    /**
+     * Constructs an encoder using the given deflate level.
+     *
+     * @param level    the deflate level (0 - 9)
+     * @param adaptive true to choose a filter for each (true colour) row;
+     *                 false to leave the rows unfiltered
+     * @param palette  when to write images with a colour palette
+     * @throws IllegalArgumentException if the level is out of range
+     */
+    public PngEncoder(int level, boolean adaptive, Palette palette) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Bad deflate level: " + level);
+        this.level = level;
+        this.adaptive = adaptive;
+        this.palette = palette;
+    }
+
+    @Override
+    public String toString() {
+        return "PngEncoder{level=" + level + ", adaptive=" + adaptive +
+                ", palette=" + palette + "}";
+    }
+
+    /**
+     * Returns the deflate level used by this encoder.
+     *
+     * @return the deflate level
+     */
+    public int level() {
+        return level;
+    }
+
+    /**
+     * Returns true if this encoder chooses a filter for each row.
+     *
+     * @return true if filtering adaptively
+     */
+    public boolean adaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Returns when this encoder writes images with a colour palette.
+     *
+     * @return the palette mode
+     */
+    public Palette palette() {
+        return palette;
+    }
+
+    /**
+     * Encodes the given pixels as a PNG image.
+     *
+     * @param argb   the pixels, in row order
+     * @param width  the image width
+     * @param height the image height
+     * @return the PNG data
+     */
+    public byte[] encode(int[] argb, int width, int height) {
+        Workspace ws = workspace();
+        ws.encode(argb, width, height);
+        return Arrays.copyOf(ws.out, ws.outLen);
+    }
+
+    /**
+     * Encodes the given pixels as a PNG image, writing it to the given
+     * file (atomically replacing any existing file; see
+     * {@link PathUtils#writeAtomically}).
+     *
+     * @param argb   the pixels, in row order
+     * @param width  the image width
+     * @param height the image height
+     * @param out    the file to write the image into
+     * @throws RuntimeException if an error occurred
+     */
+    public void write(int[] argb, int width, int height, File out) {
+        Workspace ws = workspace();
+        ws.encode(argb, width, height);
+        try {
+            PathUtils.writeAtomically(out, os -> os.write(ws.out, 0, ws.outLen));
+        } catch (IOException e) {
+            throw new RuntimeException("Error writing .png: " + out, e);
+        }
+    }
+
+    private static boolean isOpaque(int[] argb, int n) {
+        for (int i = 0; i < n; i++) {
+            if ((argb[i] >>> 24) != 0xff)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the native resources held by the current thread's
+     * workspaces (if it has any), for all encoders. Should be invoked when
+     * a thread has finished encoding images; should the thread encode
+     * again, fresh workspaces are created.
+     */
+    public static void releaseForThread() {
+        Map<PngEncoder, Workspace> map = WORKSPACES.get();
+        if (map != null) {
+            for (Workspace ws : map.values())
+                ws.deflater.end();
+            WORKSPACES.remove();
+        }
+    }
+
+    // this encoder's workspace for the current thread
+    private Workspace workspace() {
+        Map<PngEncoder, Workspace> map = WORKSPACES.get();
+        if (map == null) {
+            map = new IdentityHashMap<>();
+            WORKSPACES.set(map);
+        }
+        Workspace ws = map.get(this);
+        if (ws == null) {
+            ws = new Workspace();
+            map.put(this, ws);
+        }
+        return ws;
+    }
+
+    // smallest bit depth able to index the given number of colours
+    private static int indexBitDepth(int colors) {
+        return colors <= 2 ? 1 : colors <= 4 ? 2 : colors <= 16 ? 4 : 8;
+    }
+
+    // paeth predictor, as defined by the PNG specification
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc)
+            return a;
+        return pb <= pc ? b : c;
+    }
+
+    // per-thread encoding state
+    private final class Workspace {
+        private final Deflater deflater = new Deflater(level);
+        private final CRC32 crc = new CRC32();
+
+        // raw bytes of the previous and current rows
+        private byte[] prior = new byte[0];
+        private byte[] row = new byte[0];
+
+        // the current row, filtered each way (filter type in byte 0)
+        private final byte[][] filtered = new byte[N_FILTERS][];
+
+        // the palette, and the palette index of each pixel
+        private final int[] colors = new int[MAX_PALETTE];
+        private byte[] indices = new byte[0];
+
+        // colour lookup table; an entry is live if its stamp is current
+        private final int[] hashKeys = new int[HASH_SIZE];
+        private final int[] hashValues = new int[HASH_SIZE];
+        private final int[] hashStamps = new int[HASH_SIZE];
+        private int stamp;
+
+        private byte[] out = new byte[INITIAL_BUFFER_SIZE];
+        private int outLen;
+
+        private void encode(int[] argb, int width, int height) {
+            int n = width * height;
+            if (width <= 0 || height <= 0 || argb.length < n)
+                throw new IllegalArgumentException("Bad image dimensions: " +
+                        width + "x" + height);
+
+            int nColors = -1;
+            if (palette != Palette.NONE) {
+                if (indices.length < n)
+                    indices = new byte[n];
+                nColors = collectPalette(argb, n);
+                if (nColors < 0 && palette == Palette.QUANTIZED)
+                    nColors = ColorQuantizer.quantize(argb, n, MAX_PALETTE,
+                            colors, indices);
+            }
+
+            outLen = 0;
+            put(SIGNATURE);
+            if (nColors > 0)
+                encodeIndexed(width, height, nColors);
+            else
+                encodeTrueColor(argb, width, height);
+            putChunk(IEND, 0);
+        }
+
+        // builds the palette of the given pixels, returning the number of
+        // colours, or -1 if there are too many
+        private int collectPalette(int[] argb, int n) {
+            if (++stamp == 0) {
+                Arrays.fill(hashStamps, 0);
+                stamp = 1;
+            }
+            int nColors = 0;
+            int last = 0;
+            int lastIndex = -1;
+            for (int i = 0; i < n; i++) {
+                int p = argb[i];
+                if (p != last || lastIndex < 0) {
+                    int h = (p * 0x9e3779b9) >>> (32 - HASH_BITS);
+                    while (hashStamps[h] == stamp && hashKeys[h] != p)
+                        h = (h + 1) & HASH_MASK;
+                    if (hashStamps[h] != stamp) {
+                        if (nColors == MAX_PALETTE)
+                            return -1;
+                        hashStamps[h] = stamp;
+                        hashKeys[h] = p;
+                        hashValues[h] = nColors;
+                        colors[nColors++] = p;
+                    }
+                    last = p;
+                    lastIndex = hashValues[h];
+                }
+                indices[i] = (byte) lastIndex;
+            }
+            return nColors;
+        }
+
+        // reorders the palette so that translucent entries come first,
+        // returning the number of translucent entries
+        private int orderPalette(int nColors, int n) {
+            int[] remap = new int[nColors];
+            int[] ordered = new int[nColors];
+            int k = 0;
+            int trans = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < nColors; i++) {
+                    boolean opaque = (colors[i] >>> 24) == 0xff;
+                    if (opaque == (pass == 1)) {
+                        remap[i] = k;
+                        ordered[k++] = colors[i];
+                    }
+                }
+                if (pass == 0)
+                    trans = k;
+            }
+            System.arraycopy(ordered, 0, colors, 0, nColors);
+            for (int i = 0; i < n; i++)
+                indices[i] = (byte) remap[indices[i] & 0xff];
+            return trans;
+        }
+
+        private void encodeIndexed(int width, int height, int nColors) {
+            int trans = orderPalette(nColors, width * height);
+            int bitDepth = indexBitDepth(nColors);
+            int rowBytes = (width * bitDepth + 7) / 8;
+            prepareRows(rowBytes);
+
+            putHeader(width, height, bitDepth, COLOR_INDEXED);
+
+            int start = outLen;
+            putInt(nColors * 3);
+            put(PLTE);
+            for (int i = 0; i < nColors; i++) {
+                int c = colors[i];
+                putByte(c >> 16);
+                putByte(c >> 8);
+                putByte(c);
+            }
+            putCrc(start + 4, nColors * 3 + 4);
+
+            if (trans > 0) {
+                start = outLen;
+                putInt(trans);
+                put(TRNS);
+                for (int i = 0; i < trans; i++)
+                    putByte(colors[i] >>> 24);
+                putCrc(start + 4, trans + 4);
+            }
+
+            // (filtering does not help with indexed colour)
+            int idatStart = startImageData();
+            byte[] unfiltered = filtered[FILTER_NONE];
+            int perByte = 8 / bitDepth;
+            for (int y = 0; y < height; y++) {
+                int offset = y * width;
+                if (bitDepth == 8) {
+                    System.arraycopy(indices, offset, unfiltered, 1, width);
+                } else {
+                    Arrays.fill(unfiltered, 1, rowBytes + 1, (byte) 0);
+                    for (int x = 0; x < width; x++) {
+                        int shift = 8 - bitDepth * (x % perByte + 1);
+                        unfiltered[1 + x / perByte] |= indices[offset + x] << shift;
+                    }
+                }
+                deflate(unfiltered, rowBytes + 1);
+            }
+            finishImageData(idatStart);
+        }
+
+        private void encodeTrueColor(int[] argb, int width, int height) {
+            boolean opaque = isOpaque(argb, width * height);
+            int bpp = opaque ? 3 : 4;
+            int rowBytes = width * bpp;
+            prepareRows(rowBytes);
+
+            putHeader(width, height, BIT_DEPTH, opaque ? COLOR_RGB : COLOR_RGBA);
+
+            int idatStart = startImageData();
+            byte[] unfiltered = filtered[FILTER_NONE];
+            for (int y = 0; y < height; y++) {
+                if (adaptive) {
+                    byte[] t = prior;
+                    prior = row;
+                    row = t;
+                    unpackRow(argb, y * width, width, opaque, row, 0);
+                    deflate(filterRow(rowBytes, bpp, y == 0), rowBytes + 1);
+                } else {
+                    unpackRow(argb, y * width, width, opaque, unfiltered, 1);
+                    deflate(unfiltered, rowBytes + 1);
+                }
+            }
+            finishImageData(idatStart);
+        }
+
+        // the image data goes in a single IDAT chunk; its length is
+        // filled in once known
+        private int startImageData() {
+            int idatStart = outLen;
+            putInt(0);
+            put(IDAT);
+            return idatStart;
+        }
+
+        private void finishImageData(int idatStart) {
+            deflater.finish();
+            while (!deflater.finished())
+                drain();
+            deflater.reset();
+
+            int idatLen = outLen - idatStart - 8;
+            setInt(idatStart, idatLen);
+            putCrc(idatStart + 4, idatLen + 4);
+        }
+
+        // (the row buffers only ever grow)
+        private void prepareRows(int rowBytes) {
+            if (row.length < rowBytes) {
+                prior = new byte[rowBytes];
+                row = new byte[rowBytes];
+                for (int i = 0; i < N_FILTERS; i++) {
+                    filtered[i] = new byte[rowBytes + 1];
+                    filtered[i][0] = (byte) i;
+                }
+            }
+        }
+
+        // unpacks a row of pixels into RGB(A) bytes
+        private void unpackRow(int[] argb, int offset, int width,
+                               boolean opaque, byte[] dst, int dstOffset) {
+            int j = dstOffset;
+            for (int i = offset, end = offset + width; i < end; i++) {
+                int p = argb[i];
+                dst[j++] = (byte) (p >> 16);
+                dst[j++] = (byte) (p >> 8);
+                dst[j++] = (byte) p;
+                if (!opaque)
+                    dst[j++] = (byte) (p >>> 24);
+            }
+        }
+
+        // applies each filter to the current row, returning the filtered
+        // row with the smallest sum of absolute (signed) values
+        private byte[] filterRow(int rowBytes, int bpp, boolean firstRow) {
+            byte[] none = filtered[FILTER_NONE];
+            byte[] sub = filtered[FILTER_SUB];
+            byte[] up = filtered[FILTER_UP];
+            byte[] avg = filtered[FILTER_AVERAGE];
+            byte[] pae = filtered[FILTER_PAETH];
+            long sNone = 0, sSub = 0, sUp = 0, sAvg = 0, sPae = 0;
+
+            for (int i = 0; i < rowBytes; i++) {
+                int x = row[i] & 0xff;
+                int a = i < bpp ? 0 : row[i - bpp] & 0xff;
+                int b = firstRow ? 0 : prior[i] & 0xff;
+                int c = i < bpp || firstRow ? 0 : prior[i - bpp] & 0xff;
+
+                byte v = (byte) x;
+                none[i + 1] = v;
+                sNone += Math.abs(v);
+                v = (byte) (x - a);
+                sub[i + 1] = v;
+                sSub += Math.abs(v);
+                v = (byte) (x - b);
+                up[i + 1] = v;
+                sUp += Math.abs(v);
+                v = (byte) (x - ((a + b) >> 1));
+                avg[i + 1] = v;
+                sAvg += Math.abs(v);
+                v = (byte) (x - paeth(a, b, c));
+                pae[i + 1] = v;
+                sPae += Math.abs(v);
+            }
+
+            byte[] best = none;
+            long min = sNone;
+            if (sSub < min) {
+                best = sub;
+                min = sSub;
+            }
+            if (sUp < min) {
+                best = up;
+                min = sUp;
+            }
+            if (sAvg < min) {
+                best = avg;
+                min = sAvg;
+            }
+            if (sPae < min) {
+                best = pae;
+            }
+            return best;
+        }
+
+        private void deflate(byte[] data, int len) {
+            deflater.setInput(data, 0, len);
+            while (!deflater.needsInput())
+                drain();
+        }
+
+        private void drain() {
+            ensureCapacity(1);
+            outLen += deflater.deflate(out, outLen, out.length - outLen);
+        }
+
+        private void putHeader(int width, int height, int bitDepth,
+                               int colorType) {
+            int start = outLen;
+            putInt(13);
+            put(IHDR);
+            putInt(width);
+            putInt(height);
+            putByte(bitDepth);
+            putByte(colorType);
+            putByte(0);     // compression method: deflate
+            putByte(0);     // filter method: adaptive
+            putByte(0);     // interlace method: none
+            putCrc(start + 4, 17);
+        }
+
+        private void putChunk(byte[] type, int dataLen) {
+            int start = outLen;
+            putInt(dataLen);
+            put(type);
+            putCrc(start + 4, dataLen + 4);
+        }
+
+        // appends the CRC of the given range (chunk type and data)
+        private void putCrc(int offset, int len) {
+            crc.reset();
+            crc.update(out, offset, len);
+            putInt((int) crc.getValue());
+        }
+
+        private void put(byte[] b) {
+            ensureCapacity(b.length);
+            System.arraycopy(b, 0, out, outLen, b.length);
+            outLen += b.length;
+        }
+
+        private void putByte(int b) {
+            ensureCapacity(1);
+            out[outLen++] = (byte) b;
+        }
+
+        private void putInt(int v) {
+            ensureCapacity(4);
+            setInt(outLen, v);
+            outLen += 4;
+        }
+
+        private void setInt(int offset, int v) {
+            out[offset] = (byte) (v >>> 24);
+            out[offset + 1] = (byte) (v >>> 16);
+            out[offset + 2] = (byte) (v >>> 8);
+            out[offset + 3] = (byte) v;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (outLen + extra > out.length)
+                out = Arrays.copyOf(out, Math.max(out.length * 2, outLen + extra));
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A pipeline of processing stages, connected by bounded queues. Each stage
+ * has its own pool of worker threads, so that (for example) I/O bound and
+ * CPU bound stages may overlap. A stage whose output queue is full blocks
+ * until the next stage catches up, so the number of items in flight, and
+ * hence the memory used, is bounded by the queue capacity.
+ * <p>
+ * Items are fed into the first stage from a source iterator, on a thread
+ * of their own, and the results of the last stage are handed to a sink on
+ * the calling thread, in source order. Should any stage fail, the pipeline
+ * is shut down, and the failure rethrown on the calling thread.
+ *
+ * @param <S> the type of the source items
+ * @param <T> the type of the results of the (current) last stage
+ * @author Simon Hunt
+ */
+public final class StagedPipeline<S, T> {
+
+    private static final String FEEDER = "feed";
+
+    // marks the end of the source items
+    private static final Object END = new Object();
+
+    private final String name;
+    private final int capacity;
+    private final List<Stage> stages = new ArrayList<>();
+    private Runnable threadExit = () -> { };
+
+    private StagedPipeline(String name, int capacity) {
+        this.name = name;
+        this.capacity = capacity < 1 ? 1 : capacity;
+    }
+
+    /**
+     * Creates a pipeline, as yet with no stages. The name is used as the
+     * prefix of the names of the worker threads.
+     *
+     * @param name     the pipeline name
+     * @param capacity the capacity of each queue between stages
+     * @param <S>      the type of the source items
+     * @return the pipeline
+     */
+    public static <S> StagedPipeline<S, S> create(String name, int capacity) {
+        return new StagedPipeline<>(name, capacity);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("StagedPipeline{").append(name)
+                .append(", capacity=").append(capacity);
+        for (Stage s : stages)
+            sb.append(", ").append(s.name).append('=').append(s.threads);
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Appends a stage to the pipeline, which applies the given function
+     * to each item, using the given number of worker threads.
+     *
+     * @param name    the stage name
+     * @param threads the number of worker threads
+     * @param fn      the function to apply
+     * @param <R>     the type of the results of the stage
+     * @return self, for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public <R> StagedPipeline<S, R> stage(String name, int threads,
+                                         Function<? super T, ? extends R> fn) {
+        stages.add(new Stage(name, threads < 1 ? 1 : threads,
+                (Function<Object, Object>) fn));
+        return (StagedPipeline<S, R>) this;
+    }
+
+    /**
+     * Sets an action to be run by each worker thread, as it exits; for
+     * example, to release thread-local resources.
+     *
+     * @param threadExit the action to run
+     * @return self, for chaining
+     */
+    public StagedPipeline<S, T> threadExit(Runnable threadExit) {
+        this.threadExit = threadExit;
+        return this;
+    }
+
+    /**
+     * Runs the given source items through the pipeline, handing the
+     * results to the given sink in the order of the source items. This
+     * method returns when all the items have been processed.
+     *
+     * @param source the source items
+     * @param sink   the consumer of the results
+     * @throws RuntimeException if any stage fails, or the calling thread
+     *                          is interrupted
+     */
+    @SuppressWarnings("unchecked")
+    public void run(Iterator<? extends S> source, Consumer<? super T> sink) {
+        final int n = stages.size();
+        List<BlockingQueue<Item>> queues = new ArrayList<>(n + 1);
+        int threads = 0;
+        for (Stage s : stages) {
+            queues.add(new ArrayBlockingQueue<>(capacity));
+            threads += s.threads;
+        }
+        final BlockingQueue<Item> results = new ArrayBlockingQueue<>(capacity);
+        queues.add(results);
+
+        // limits the items awaiting their turn to be handed to the sink
+        final Semaphore window = new Semaphore(capacity * (n + 1) + threads);
+
+        List<ExecutorService> pools = new ArrayList<>(n + 1);
+        try {
+            for (int i = 0; i < n; i++) {
+                Stage s = stages.get(i);
+                ExecutorService pool = pool(s.name, s.threads);
+                pools.add(pool);
+                for (int t = 0; t < s.threads; t++)
+                    pool.execute(new Worker(s, queues.get(i),
+                            queues.get(i + 1), results));
+            }
+            ExecutorService feeder = pool(FEEDER, 1);
+            pools.add(feeder);
+            feeder.execute(() -> feed(source, window,
+                    n == 0 ? results : queues.get(0), results));
+
+            Map<Long, Item> pending = new HashMap<>();
+            long next = 0;
+            while (true) {
+                Item item = pending.remove(next);
+                if (item == null) {
+                    item = results.take();
+                    if (item.failure != null)
+                        throw failure(item.failure);
+                    pending.put(item.seq, item);
+                    continue;
+                }
+                if (item.value == END)
+                    return;
+                sink.accept((T) item.value);
+                window.release();
+                next++;
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while running " + name, e);
+
+        } finally {
+            for (ExecutorService pool : pools)
+                pool.shutdownNow();
+        }
+    }
+
+    // feeds the source items into the first queue, then marks the end
+    private void feed(Iterator<? extends S> source, Semaphore window,
+                      BlockingQueue<Item> first, BlockingQueue<Item> results) {
+        long seq = 0;
+        try {
+            try {
+                while (source.hasNext()) {
+                    window.acquire();
+                    first.put(new Item(seq++, source.next()));
+                }
+            } catch (RuntimeException e) {
+                results.put(new Item(e));
+                return;
+            }
+            results.put(new Item(seq, END));
+
+        } catch (InterruptedException e) {
+            // the pipeline is being shut down
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ExecutorService pool(String stage, int threads) {
+        String prefix = name + "-" + stage + "-";
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(() -> {
+                try {
+                    r.run();
+                } finally {
+                    threadExit.run();
+                }
+            }, prefix + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private RuntimeException failure(Throwable cause) {
+        if (cause instanceof RuntimeException)
+            return (RuntimeException) cause;
+        if (cause instanceof Error)
+            throw (Error) cause;
+        return new RuntimeException("Failure in " + name, cause);
+    }
+
+    // a stage of the pipeline
+    private static final class Stage {
+        private final String name;
+        private final int threads;
+        private final Function<Object, Object> fn;
+
+        private Stage(String name, int threads, Function<Object, Object> fn) {
+            this.name = name;
+            this.threads = threads;
+            this.fn = fn;
+        }
+    }
+
+    // an item passing through the pipeline, tagged with its source order;
+    // or the failure of a stage
+    private static final class Item {
+        private final long seq;
+        private final Object value;
+        private final Throwable failure;
+
+        private Item(long seq, Object value) {
+            this.seq = seq;
+            this.value = value;
+            this.failure = null;
+        }
+
+        private Item(Throwable failure) {
+            this.seq = -1;
+            this.value = null;
+            this.failure = failure;
+        }
+    }
+
+    // takes items from one queue, applies the stage function, and puts
+    // the results on the next queue; failures go straight to the results
+    private static final class Worker implements Runnable {
+        private final Stage stage;
+        private final BlockingQueue<Item> in;
+        private final BlockingQueue<Item> out;
+        private final BlockingQueue<Item> results;
+
+        private Worker(Stage stage, BlockingQueue<Item> in,
+                       BlockingQueue<Item> out, BlockingQueue<Item> results) {
+            this.stage = stage;
+            this.in = in;
+            this.out = out;
+            this.results = results;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Item item = in.take();
+                    Object result;
+                    try {
+                        result = stage.fn.apply(item.value);
+                    } catch (RuntimeException | Error e) {
+                        results.put(new Item(e));
+                        return;
+                    }
+                    out.put(new Item(item.seq, result));
+                }
+            } catch (InterruptedException e) {
+                // the pipeline is being shut down
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.util;
+
+/**
+ * An implementation of the 64-bit xxHash algorithm (XXH64), a fast
+ * non-cryptographic hash. Arrays of ints are hashed as if they were the
+ * equivalent arrays of bytes, in little-endian order.
+ *
+ * @author Simon Hunt
+ */
+public final class XxHash64 {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private static final int STRIPE_BYTES = 32;
+    private static final int STRIPE_INTS = STRIPE_BYTES / 4;
+
+    // no instantiation
+    private XxHash64() {
+    }
+
+    /**
+     * Returns the hash of the given bytes.
+     *
+     * @param data the data
+     * @param off  the offset of the first byte
+     * @param len  the number of bytes
+     * @param seed the seed
+     * @return the hash
+     */
+    public static long hash(byte[] data, int off, int len, long seed) {
+        int end = off + len;
+        int i = off;
+        long h;
+
+        if (len >= STRIPE_BYTES) {
+            long v1 = seed + P1 + P2;
+            long v2 = seed + P2;
+            long v3 = seed;
+            long v4 = seed - P1;
+            for (int limit = end - STRIPE_BYTES; i <= limit; i += STRIPE_BYTES) {
+                v1 = round(v1, getLong(data, i));
+                v2 = round(v2, getLong(data, i + 8));
+                v3 = round(v3, getLong(data, i + 16));
+                v4 = round(v4, getLong(data, i + 24));
+            }
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = seed + P5;
+        }
+        h += len;
+
+        for (; i + 8 <= end; i += 8)
+            h = mixLong(h, getLong(data, i));
+        if (i + 4 <= end) {
+            h = mixInt(h, getInt(data, i));
+            i += 4;
+        }
+        for (; i < end; i++)
+            h = mixByte(h, data[i]);
+        return avalanche(h);
+    }
+
+    /**
+     * Returns the hash of the given ints, taken as little-endian bytes.
+     *
+     * @param data the data
+     * @param off  the offset of the first int
+     * @param len  the number of ints
+     * @param seed the seed
+     * @return the hash
+     */
+    public static long hash(int[] data, int off, int len, long seed) {
+        int end = off + len;
+        int i = off;
+        long h;
+
+        if (len >= STRIPE_INTS) {
+            long v1 = seed + P1 + P2;
+            long v2 = seed + P2;
+            long v3 = seed;
+            long v4 = seed - P1;
+            for (int limit = end - STRIPE_INTS; i <= limit; i += STRIPE_INTS) {
+                v1 = round(v1, pair(data, i));
+                v2 = round(v2, pair(data, i + 2));
+                v3 = round(v3, pair(data, i + 4));
+                v4 = round(v4, pair(data, i + 6));
+            }
+            h = converge(v1, v2, v3, v4);
+        } else {
+            h = seed + P5;
+        }
+        h += (long) len * 4;
+
+        for (; i + 2 <= end; i += 2)
+            h = mixLong(h, pair(data, i));
+        if (i < end)
+            h = mixInt(h, data[i]);
+        return avalanche(h);
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * P2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * P1;
+    }
+
+    private static long mergeRound(long acc, long v) {
+        acc ^= round(0, v);
+        return acc * P1 + P4;
+    }
+
+    private static long converge(long v1, long v2, long v3, long v4) {
+        long h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) +
+                Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        h = mergeRound(h, v1);
+        h = mergeRound(h, v2);
+        h = mergeRound(h, v3);
+        return mergeRound(h, v4);
+    }
+
+    private static long mixLong(long h, long k) {
+        h ^= round(0, k);
+        return Long.rotateLeft(h, 27) * P1 + P4;
+    }
+
+    private static long mixInt(long h, int k) {
+        h ^= (k & 0xffffffffL) * P1;
+        return Long.rotateLeft(h, 23) * P2 + P3;
+    }
+
+    private static long mixByte(long h, byte b) {
+        h ^= (b & 0xff) * P5;
+        return Long.rotateLeft(h, 11) * P1;
+    }
+
+    private static long avalanche(long h) {
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        return h ^ (h >>> 32);
+    }
+
+    // two consecutive ints, as a little-endian long
+    private static long pair(int[] data, int i) {
+        return (data[i] & 0xffffffffL) | ((long) data[i + 1] << 32);
+    }
+
+    private static long getLong(byte[] b, int i) {
+        return (getInt(b, i) & 0xffffffffL) | ((long) getInt(b, i + 4) << 32);
+    }
+
+    private static int getInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 |
+                (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link Argb}.
+ *
+ * @author Simon Hunt
+ */
+public class ArgbTest extends AbstractTest {
+
+    private static final int N_RANDOM = 100000;
+
+    private static String hex(int argb) {
+        return String.format("0x%08x", argb);
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    private static int encode(int a, int r, int g, int b) {
+        return (clamp(a) << 24) | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+    }
+
+    // reference implementation of overlay, on unpacked components
+    private static int refOverlay(int base, int over) {
+        int oa = over >>> 24;
+        int t = 255 - oa;
+        return encode(oa + (base >>> 24) * t / 255,
+                (((over >> 16) & 0xff) * oa + ((base >> 16) & 0xff) * t) / 255,
+                (((over >> 8) & 0xff) * oa + ((base >> 8) & 0xff) * t) / 255,
+                ((over & 0xff) * oa + (base & 0xff) * t) / 255);
+    }
+
+    @Test
+    public void components() {
+        title("components");
+        int c = 0x80c0d0e0;
+        assertEquals(AM_NEQ, 0x80, Argb.alpha(c));
+        assertEquals(AM_NEQ, 0xc0, Argb.red(c));
+        assertEquals(AM_NEQ, 0xd0, Argb.green(c));
+        assertEquals(AM_NEQ, 0xe0, Argb.blue(c));
+        assertEquals(AM_NEQ, c, Argb.argb(0x80, 0xc0, 0xd0, 0xe0));
+        assertEquals(AM_NEQ, 0xff00ff00, Argb.argb(300, -5, 256, 0));
+    }
+
+    @Test
+    public void shade() {
+        title("shade");
+        assertEquals(AM_NEQ, 0xff213141, Argb.shade(0xff203040, 1));
+        assertEquals(AM_NEQ, 0x00f2ffff, Argb.shade(0x00a0b0c0, 0x52));
+        assertEquals(AM_NEQ, 0xffaaddcc, Argb.shade(0xffbbeedd, -0x11));
+    }
+
+    @Test
+    public void overlay() {
+        title("overlay");
+        assertEquals(AM_NEQ, 0, Argb.overlay(0, 0));
+        assertEquals(AM_NEQ, 0xff363e45, Argb.overlay(0xff1e2832, 0x40808080));
+        assertEquals(AM_NEQ, 0x9f454e46, Argb.overlay(0x8032281e, 0x4080c0c0));
+    }
+
+    @Test
+    public void overlayMatchesReference() {
+        title("overlayMatchesReference");
+        Random r = new Random(42);
+        for (int i = 0; i < N_RANDOM; i++) {
+            int base = r.nextInt();
+            int over = r.nextInt();
+            assertEquals(hex(base) + " / " + hex(over),
+                    refOverlay(base, over), Argb.overlay(base, over));
+        }
+    }
+
+    @Test
+    public void demultiplyAlpha() {
+        title("demultiplyAlpha");
+        assertEquals(AM_NEQ, Argb.TRANSPARENT, Argb.demultiplyAlpha(0x00ffffff));
+        assertEquals(AM_NEQ, 0xff102030, Argb.demultiplyAlpha(0xff102030));
+        assertEquals(AM_NEQ, 0x801f3f5f, Argb.demultiplyAlpha(0x80102030));
+    }
+
+    @Test
+    public void multiplySolid() {
+        title("multiplySolid");
+        assertEquals(AM_NEQ, 0x80102030,
+                Argb.multiplySolid(0x80102030, 0x00ffffff));
+        assertEquals(AM_NEQ, 0xff000000,
+                Argb.multiplySolid(0xff102030, 0xff000000));
+    }
+
+    @Test
+    public void matchesColor() {
+        title("matchesColor");
+        Random r = new Random(7);
+        for (int i = 0; i < N_RANDOM; i++) {
+            int a = r.nextInt();
+            int b = r.nextInt();
+            int amt = r.nextInt(64) - 32;
+            Color ca = new Color(a);
+            Color cb = new Color(b);
+            assertEquals(AM_NEQ, ca.shade(amt).toInt(), Argb.shade(a, amt));
+            assertEquals(AM_NEQ, ca.multiply(cb).toInt(), Argb.multiply(a, b));
+            assertEquals(AM_NEQ, ca.multiplySolid(cb).toInt(),
+                    Argb.multiplySolid(a, b));
+            assertEquals(AM_NEQ, ca.demultiplyAlpha().toInt(),
+                    Argb.demultiplyAlpha(a));
+        }
+    }
+
+    @Test
+    public void average() {
+        title("average");
+        assertEquals(AM_NEQ, Argb.TRANSPARENT, Argb.average());
+        assertEquals(AM_NEQ, 0xff7f007f,
+                Argb.average(0xffff0000, 0xff0000ff));
+        assertEquals(AM_NEQ, 0x3f3f3f3f,
+                Argb.average(0xffffffff, 0, 0, 0));
+    }
+}
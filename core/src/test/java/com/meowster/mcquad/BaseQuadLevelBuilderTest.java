@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link BaseQuadLevelBuilder}; in particular, incremental
+ * renders in which tiles turn blank.
+ *
+ * @author Simon Hunt
+ */
+public class BaseQuadLevelBuilderTest extends AbstractTest {
+
+    private static final File REGION_FILE =
+            new File("src/test/resources/unittesting/r00/r.0.0.mca");
+    private static final Coord REGION = new Coord(0, 0);
+    private static final int CHUNKS_PER_SIDE = 32;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File regionDir;
+
+    @Before
+    public void setUp() throws IOException {
+        // (a second region, so that there are zoomed-out levels to reduce)
+        regionDir = tmp.newFolder();
+        Files.copy(REGION_FILE.toPath(), new File(regionDir,
+                REGION_FILE.getName()).toPath());
+        Files.copy(REGION_FILE.toPath(), new File(regionDir,
+                "r.1.1.mca").toPath());
+    }
+
+    // renders the regions into the given output directory; incrementally,
+    // if stale is not null
+    private File render(File outDir, boolean fused, Set<Coord> stale) {
+        QuadData quad = new QuadData(new RegionData().load(regionDir));
+        File tilesDir = new File(outDir, "tiles");
+        new TileRenderer(quad, tilesDir)
+                .rasterCache(dir(outDir, "raster"))
+                .tileIndex(dir(outDir, "tile-index"))
+                .tileHashes(dir(outDir, "tile-hash"))
+                .fusedPyramid(fused)
+                .render(stale == null ? null : quad.adjust(stale));
+        return tilesDir;
+    }
+
+    private static File dir(File parent, String name) {
+        File d = new File(parent, name);
+        assertTrue(AM_HUH, d.isDirectory() || d.mkdirs());
+        return d;
+    }
+
+    // drops the chunks in rows [fromZ..] of region [0,0], as if they had
+    // been trimmed from the world
+    private void dropChunks(int fromZ) throws IOException {
+        File f = new File(regionDir, REGION_FILE.getName());
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek(fromZ * CHUNKS_PER_SIDE * 4);
+            int rows = CHUNKS_PER_SIDE - fromZ;
+            raf.write(new byte[rows * CHUNKS_PER_SIDE * 4]);
+        }
+        // (so that the region is seen to have changed)
+        assertTrue(AM_HUH, f.setLastModified(f.lastModified() + 2000));
+    }
+
+    // the tile files under the given directory, with their content hashes
+    private static Map<String, Integer> tiles(File tilesDir)
+            throws IOException {
+        List<Path> files;
+        Path root = tilesDir.toPath();
+        try (Stream<Path> s = Files.walk(root)) {
+            files = s.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        Map<String, Integer> tiles = new TreeMap<>();
+        for (Path p : files)
+            tiles.put(root.relativize(p).toString(),
+                    Arrays.hashCode(Files.readAllBytes(p)));
+        return tiles;
+    }
+
+    private static long[] index(File outDir, String name) {
+        return MortonSet.load(new File(outDir, "tile-index/" + name)).toArray();
+    }
+
+    // renders the regions in full, then again incrementally as chunks of
+    // region [0,0] go; first the lower half of the region (one whole base
+    // tile), then half of what is left (part of the other). Each time, the
+    // tiles (and the tile index) should be as if rendered from scratch
+    private void trimmed(boolean fused) throws IOException {
+        File outDir = tmp.newFolder();
+        File tilesDir = render(outDir, fused, null);
+        int count = tiles(tilesDir).size();
+
+        for (int fromZ = CHUNKS_PER_SIDE / 2; fromZ >= CHUNKS_PER_SIDE / 4;
+             fromZ /= 2) {
+            dropChunks(fromZ);
+            render(outDir, fused, Collections.singleton(REGION));
+            Map<String, Integer> tiles = tiles(tilesDir);
+            print(count + " tiles, then " + tiles.size());
+            assertTrue(AM_HUH, tiles.size() < count);
+            count = tiles.size();
+
+            File freshDir = tmp.newFolder();
+            assertEquals(AM_NEQ, tiles(render(freshDir, fused, null)), tiles);
+            String[] names = new File(freshDir, "tile-index").list();
+            assertTrue(AM_HUH, names != null && names.length > 0);
+            for (String name : names)
+                assertArrayEquals(AM_NEQ, index(freshDir, name),
+                        index(outDir, name));
+        }
+    }
+
+    @Test
+    public void tilesTurnBlank() throws IOException {
+        title("tilesTurnBlank");
+        trimmed(false);
+    }
+
+    @Test
+    public void tilesTurnBlankFused() throws IOException {
+        title("tilesTurnBlankFused");
+        trimmed(true);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import static com.meowster.mcquad.BlockColorTable.DEFAULT_BIOME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link BlockColorTable}.
+ *
+ * @author Simon Hunt
+ */
+public class BlockColorTableTest extends AbstractTest {
+
+    private static final BlockColors BLOCKS = new BlockColors();
+    private static final BiomeColors BIOMES = new BiomeColors();
+    private static final BlockColorTable TABLE =
+            new BlockColorTable(BLOCKS, BIOMES);
+
+    private static int expected(int id, int dv, int biome) {
+        Block b = BLOCKS.peek(BlockColors.key(id, dv));
+        Biome bi = biome == DEFAULT_BIOME ? BIOMES.getDefaultBiome()
+                : BIOMES.peek(biome);
+        return b.color().multiplySolid(bi.influence(b.biomeInfluence()))
+                .toInt();
+    }
+
+    @Test
+    public void basic() {
+        title("basic");
+        print(TABLE);
+    }
+
+    @Test
+    public void matchesDirectComputation() {
+        title("matchesDirectComputation");
+        // every block ID and data value, in a selection of biomes
+        int[] biomes = {0, 1, 4, 6, 21, 35, 255, DEFAULT_BIOME};
+        for (int id = 0; id < 256; id++)
+            for (int dv = 0; dv < 16; dv++)
+                for (int biome : biomes)
+                    assertEquals(id + ":" + dv + " in " + biome,
+                            expected(id, dv, biome),
+                            TABLE.argb(BlockColors.key(id, dv), biome));
+    }
+
+    @Test
+    public void grassVariesByBiome() {
+        title("grassVariesByBiome");
+        int grass = BlockColors.key(2, 0);
+        int plains = TABLE.argb(grass, 1);
+        int desert = TABLE.argb(grass, 2);
+        print("plains={}, desert={}", Integer.toHexString(plains),
+                Integer.toHexString(desert));
+        assertTrue(AM_HUH, plains != desert);
+    }
+
+    @Test
+    public void unmapped() {
+        title("unmapped");
+        int key = BlockColors.key(2000, 0);
+        assertEquals(AM_NEQ, Color.MAGENTA.toInt(), TABLE.argb(key, 1));
+        assertTrue(AM_HUH, TABLE.fullyOpaque(key));
+        assertEquals(AM_UXS, 0, BLOCKS.getDefaulted().size());
+    }
+
+    @Test
+    public void opacity() {
+        title("opacity");
+        assertFalse(AM_HUH, TABLE.fullyOpaque(BlockColors.key(0, 0)));
+        assertTrue(AM_HUH, TABLE.fullyOpaque(BlockColors.key(3, 0)));
+        for (int id = 0; id < 256; id++)
+            for (int dv = 0; dv < 16; dv++) {
+                int key = BlockColors.key(id, dv);
+                assertEquals(AM_NEQ, BLOCKS.peek(key).isFullyOpaque(),
+                        TABLE.fullyOpaque(key));
+            }
+    }
+}
@@ -89,4 +89,23 @@ public class BlockColorsTest extends AbstractTest {
         assertEquals(AM_NEQ, "dirt", b.comment());
     }
 
+    @Test
+    public void blockKeys() {
+        title("blockKeys");
+        int key = BlockColors.key(2, 0);
+        assertEquals(AM_NEQ, 0x20, key);
+        assertSame(AM_HUH, bc.getBlock(2), bc.blockFor(key));
+
+        bc.checkMapped(BlockColors.key(3, 0));
+        assertEquals(AM_UXS, 0, bc.getDefaulted().size());
+
+        key = BlockColors.key(2000, 5);
+        bc.checkMapped(key);
+        assertSame(AM_HUH, bc.getDefaultBlock(), bc.blockFor(key));
+        Set<BlockId> def = bc.getDefaulted();
+        print(def);
+        assertEquals(AM_UXS, 1, def.size());
+        assertTrue(AM_HUH, def.contains(new BlockId(2000, 5)));
+    }
+
 }
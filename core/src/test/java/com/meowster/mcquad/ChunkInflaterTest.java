@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link ChunkInflater}.
+ *
+ * @author Simon Hunt
+ */
+public class ChunkInflaterTest extends AbstractTest {
+
+    private static ByteBuffer deflate(byte[] data) {
+        Deflater d = new Deflater();
+        d.setInput(data);
+        d.finish();
+        byte[] buf = new byte[data.length + 1024];
+        int n = d.deflate(buf);
+        d.end();
+        return ByteBuffer.wrap(buf, 0, n);
+    }
+
+    private static byte[] sample(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte) (i * 31 % 251);
+        return data;
+    }
+
+    private static byte[] readAll(DataInputStream dis, int n)
+            throws IOException {
+        byte[] result = new byte[n];
+        dis.readFully(result);
+        assertEquals("unexpected trailing data", -1, dis.read());
+        return result;
+    }
+
+    @Test
+    public void samePerThread() {
+        title("samePerThread");
+        assertSame(AM_HUH, ChunkInflater.forThread(), ChunkInflater.forThread());
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        title("roundTrip");
+        byte[] data = sample(5000);
+        ChunkInflater inf = ChunkInflater.forThread();
+        assertEquals(AM_UXS, data.length, inf.inflate(deflate(data)));
+        assertArrayEquals(AM_NEQ, data, readAll(inf.stream(), data.length));
+    }
+
+    @Test
+    public void bufferGrowsAndIsReused() throws Exception {
+        title("bufferGrowsAndIsReused");
+        ChunkInflater inf = ChunkInflater.forThread();
+
+        byte[] big = sample(600 * 1024);
+        assertEquals(AM_UXS, big.length, inf.inflate(deflate(big)));
+        assertArrayEquals(AM_NEQ, big, readAll(inf.stream(), big.length));
+
+        byte[] small = Arrays.copyOf(sample(100), 100);
+        assertEquals(AM_UXS, small.length, inf.inflate(deflate(small)));
+        assertArrayEquals(AM_NEQ, small, readAll(inf.stream(), small.length));
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void truncated() throws Exception {
+        title("truncated");
+        ByteBuffer bb = deflate(sample(5000));
+        bb.limit(bb.limit() / 2);
+        ChunkInflater.forThread().inflate(bb);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ChunkSection}.
+ *
+ * @author Simon Hunt
+ */
+public class ChunkSectionTest extends AbstractTest {
+
+    private static final int CUBE_16 = 16 * 16 * 16;
+    private static final int STONE = 1;
+    private static final int GLASS = 0x14;
+
+    private final byte[] blocks = new byte[CUBE_16];
+    private final byte[] data = new byte[CUBE_16 / 2];
+
+    private void set(int x, int y, int z, int id) {
+        blocks[y * 256 + z * 16 + x] = (byte) id;
+    }
+
+    private ChunkSection section() {
+        return new ChunkSection(blocks, null, data, new ChunkBiomeData());
+    }
+
+    @Test
+    public void allAir() {
+        title("allAir");
+        ChunkSection s = section();
+        assertTrue(AM_HUH, s.isAllAir());
+        assertEquals(AM_NEQ, -1, s.highOpaque(3, 4));
+        assertEquals(AM_NEQ, -1, s.highVisible(3, 4));
+    }
+
+    @Test
+    public void columnIndex() {
+        title("columnIndex");
+        set(2, 0, 5, STONE);
+        set(2, 3, 5, STONE);
+        set(2, 10, 5, GLASS);
+        set(7, 12, 9, GLASS);
+
+        ChunkSection s = section();
+        assertFalse(AM_HUH, s.isAllAir());
+
+        assertEquals(AM_NEQ, 3, s.highOpaque(2, 5));
+        assertEquals(AM_NEQ, 10, s.highVisible(2, 5));
+
+        assertEquals(AM_NEQ, -1, s.highOpaque(7, 9));
+        assertEquals(AM_NEQ, 12, s.highVisible(7, 9));
+
+        assertEquals(AM_NEQ, -1, s.highOpaque(5, 2));
+        assertEquals(AM_NEQ, -1, s.highVisible(5, 2));
+    }
+
+    @Test
+    public void blockKeys() {
+        title("blockKeys");
+        set(1, 2, 3, STONE);
+        data[(2 * 256 + 3 * 16 + 1) / 2] = 0x30;   // odd index: high nybble
+
+        ChunkSection s = section();
+        assertEquals(AM_NEQ, BlockColors.key(STONE, 3), s.blockKeyAt(1, 2, 3));
+        assertEquals(AM_NEQ, 0xffb1b1b4, s.argbAt(1, 2, 3));
+        assertEquals(AM_NEQ, 0, s.blockKeyAt(0, 2, 3));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link Chunk}.
+ *
+ * @author Simon Hunt
+ */
+public class ChunkTest extends AbstractTest {
+
+    // path relative to the module base directory (where maven runs tests)
+    private static final File REGION =
+            new File("src/test/resources/unittesting/r00", "r.0.0.mca");
+
+    private static final int NCHUNKS = 32;
+
+    private static Chunk load(RegionFile rf, int x, int z, boolean fast) {
+        DataInputStream dis = rf.getChunkDataStream(x, z);
+        if (dis == null)
+            return null;
+        Chunk c = new Chunk(dis, fast);
+        c.computeColorsAndHeights();
+        return c;
+    }
+
+    @Test
+    public void fastSurfaceMatchesFullScan() {
+        title("fastSurfaceMatchesFullScan");
+        RegionFile rf = new RegionFile(REGION, false);
+
+        int chunks = 0;
+        int deferred = 0;
+        for (int z = 0; z < NCHUNKS; z++) {
+            for (int x = 0; x < NCHUNKS; x++) {
+                Chunk full = load(rf, x, z, false);
+                Chunk fast = load(rf, x, z, true);
+                if (full == null)
+                    continue;
+
+                chunks++;
+                String where = "chunk [" + x + "," + z + "] row ";
+                for (int row = 0; row < 16; row++) {
+                    assertArrayEquals(where + row,
+                            full.getSurfaceColors()[row],
+                            fast.getSurfaceColors()[row]);
+                    assertArrayEquals(where + row,
+                            full.getSurfaceHeights()[row],
+                            fast.getSurfaceHeights()[row]);
+                }
+
+                // "+" marks a section that was never unpacked
+                if (fast.toString().contains("+"))
+                    deferred++;
+            }
+        }
+        print("{} chunks; {} with sections left packed", chunks, deferred);
+        print(load(rf, 8, 8, true));
+        assertTrue(AM_HUH, deferred > chunks / 2);
+    }
+}
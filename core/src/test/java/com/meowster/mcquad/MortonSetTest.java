@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link MortonSet}.
+ *
+ * @author Simon Hunt
+ */
+public class MortonSetTest extends AbstractTest {
+
+    private MortonSet set;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void basic() {
+        title("basic");
+        set = new MortonSet();
+        set.add(new Coord(3, 1));
+        set.add(new Coord(0, 0));
+        set.add(new Coord(3, 1));
+        set.add(new Coord(1, 2));
+        print(set);
+        assertEquals(AM_UXS, 3, set.size());
+        assertTrue(AM_HUH, set.contains(3, 1));
+        assertTrue(AM_HUH, set.contains(1, 2));
+        assertFalse(AM_HUH, set.contains(1, 3));
+        // Morton order: [0,0], [3,1], [1,2]
+        assertArrayEquals(AM_NEQ, new long[]{0, 7, 9}, set.toArray());
+    }
+
+    @Test
+    public void parents() {
+        title("parents");
+        set = new MortonSet();
+        set.add(new Coord(0, 0));
+        set.add(new Coord(1, 1));
+        set.add(new Coord(3, 1));
+        set.add(new Coord(4, 5));
+        MortonSet p = set.parents();
+        print(p);
+        assertEquals(AM_UXS, 3, p.size());
+        assertTrue(AM_HUH, p.contains(0, 0));
+        assertTrue(AM_HUH, p.contains(1, 0));
+        assertTrue(AM_HUH, p.contains(2, 2));
+    }
+
+    @Test
+    public void remove() {
+        title("remove");
+        set = new MortonSet();
+        set.add(new Coord(3, 1));
+        set.add(new Coord(0, 0));
+        set.add(new Coord(1, 2));
+        assertTrue(AM_HUH, set.remove(new Coord(3, 1)));
+        assertFalse(AM_HUH, set.remove(new Coord(3, 1)));
+        assertFalse(AM_HUH, set.remove(new Coord(5, 5)));
+        print(set);
+        assertEquals(AM_UXS, 2, set.size());
+        assertFalse(AM_HUH, set.contains(3, 1));
+        assertArrayEquals(AM_NEQ, new long[]{0, 9}, set.toArray());
+        set.add(new Coord(3, 1));
+        assertArrayEquals(AM_NEQ, new long[]{0, 7, 9}, set.toArray());
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        title("saveAndLoad");
+        set = new MortonSet();
+        for (int i = 0; i < 100; i++)
+            set.add(new Coord(i % 7, i));
+        File f = tmp.newFile();
+        set.save(f);
+        MortonSet copy = MortonSet.load(f);
+        print(copy);
+        assertArrayEquals(AM_NEQ, set.toArray(), copy.toArray());
+    }
+
+    @Test
+    public void loadBadFile() throws IOException {
+        title("loadBadFile");
+        File f = tmp.newFile();
+        assertNull(AM_HUH, MortonSet.load(new File("no-such.idx")));
+        try (FileOutputStream fos = new FileOutputStream(f)) {
+            fos.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        }
+        assertNull(AM_HUH, MortonSet.load(f));
+    }
+
+    @Test
+    public void scanTiles() throws IOException {
+        title("scanTiles");
+        File tilesDir = tmp.newFolder();
+        Coord[] coords = {new Coord(2, 5), new Coord(2, 6), new Coord(7, 0)};
+        for (Coord c : coords) {
+            File f = new File(tilesDir, AbsQuadTile.tilePath(4, c));
+            Files.createDirectories(f.getParentFile().toPath());
+            assertTrue(AM_HUH, f.createNewFile());
+        }
+        File zoomDir = new File(tilesDir, "z4");
+        // not a tile...
+        assertTrue(AM_HUH, new File(zoomDir, "stray.txt").createNewFile());
+
+        set = AbsQuadTile.scanTiles(zoomDir);
+        print(set);
+        assertEquals(AM_UXS, 3, set.size());
+        assertTrue(AM_HUH, set.contains(2, 6));
+        assertTrue(AM_HUH, set.contains(7, 0));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link Morton}.
+ *
+ * @author Simon Hunt
+ */
+public class MortonTest extends AbstractTest {
+
+    @Test
+    public void quadrantOrder() {
+        title("quadrantOrder");
+        assertEquals(AM_NEQ, 0, Morton.encode(0, 0));
+        assertEquals(AM_NEQ, 1, Morton.encode(1, 0));
+        assertEquals(AM_NEQ, 2, Morton.encode(0, 1));
+        assertEquals(AM_NEQ, 3, Morton.encode(1, 1));
+        assertEquals(AM_NEQ, 4, Morton.encode(2, 0));
+        assertEquals(AM_NEQ, 12, Morton.encode(2, 2));
+    }
+
+    @Test
+    public void childrenAreContiguous() {
+        title("childrenAreContiguous");
+        // the four children of any tile have consecutive codes, starting
+        // at four times the parent's code
+        for (int x = 0; x < 50; x += 7) {
+            for (int z = 0; z < 50; z += 3) {
+                long parent = Morton.encode(x, z);
+                assertEquals(AM_NEQ, parent * 4, Morton.encode(x * 2, z * 2));
+                assertEquals(AM_NEQ, parent * 4 + 3,
+                        Morton.encode(x * 2 + 1, z * 2 + 1));
+            }
+        }
+    }
+
+    @Test
+    public void roundTrip() {
+        title("roundTrip");
+        int[] values = {0, 1, 2, 255, 65535, 123456, Integer.MAX_VALUE};
+        for (int x : values) {
+            for (int z : values) {
+                long code = Morton.encode(x, z);
+                assertTrue(AM_HUH, code >= 0);
+                assertEquals(AM_NEQ, new Coord(x, z), Morton.decode(code));
+            }
+        }
+        print(Morton.decode(Morton.encode(new Coord(3, 5))));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link Pixels}.
+ *
+ * @author Simon Hunt
+ */
+public class PixelsTest extends AbstractTest {
+
+    private static final int N_RANDOM = 100000;
+    private static final int W = 6;
+    private static final int H = 4;
+
+    private static int[] sequence(int n) {
+        int[] p = new int[n];
+        for (int i = 0; i < n; i++)
+            p[i] = 0xff000000 | i;
+        return p;
+    }
+
+    @Test
+    public void image() {
+        title("image");
+        int[] p = sequence(W * H);
+        BufferedImage bi = Pixels.image(p, W, H);
+        assertEquals(AM_NEQ, BufferedImage.TYPE_INT_ARGB, bi.getType());
+        assertEquals(AM_NEQ, p[W + 2], bi.getRGB(2, 1));
+        assertSame(AM_NEQ, p, TileCache.pixelsOf(bi));
+    }
+
+    @Test
+    public void blankAndCopy() {
+        title("blankAndCopy");
+        int[] p = new int[W * H];
+        p[W + 4] = 1;
+        assertFalse(AM_HUH, Pixels.isBlank(p, 0, W, W, H));
+        // the 3x2 sub-raster at (1,2) is blank
+        assertTrue(AM_HUH, Pixels.isBlank(p, 2 * W + 1, W, 3, 2));
+        // ... as is the 4x3 one at (0,0)
+        assertTrue(AM_HUH, Pixels.isBlank(p, 0, W, 4, 3));
+
+        int[] s = sequence(W * H);
+        int[] c = Pixels.copy(s, W + 2, W, 3, 2);
+        int[] exp = {s[W + 2], s[W + 3], s[W + 4],
+                s[2 * W + 2], s[2 * W + 3], s[2 * W + 4]};
+        assertArrayEquals(AM_NEQ, exp, c);
+    }
+
+    @Test
+    public void upscale() {
+        title("upscale");
+        int[] s = sequence(W * H);
+        for (int factor : new int[]{2, 4}) {
+            // scale the 3x2 sub-raster at (2,1)
+            int[] d = new int[3 * factor * 2 * factor];
+            Pixels.upscale(s, W + 2, W, 3, 2, factor, d);
+            for (int z = 0; z < 2 * factor; z++)
+                for (int x = 0; x < 3 * factor; x++)
+                    assertEquals(AM_NEQ, s[(1 + z / factor) * W + 2 + x / factor],
+                            d[z * 3 * factor + x]);
+        }
+    }
+
+    @Test
+    public void downscale() {
+        title("downscale");
+        int[] s = sequence(W * H);
+        // into the lower right corner of a 5x3 raster
+        int[] d = new int[5 * 3];
+        Pixels.downscale(s, W, H, d, 5 + 2, 5);
+        for (int z = 0; z < H / 2; z++) {
+            for (int x = 0; x < W / 2; x++) {
+                int i = 2 * z * W + 2 * x;
+                int exp = Argb.average(s[i], s[i + 1], s[i + W], s[i + W + 1]);
+                assertEquals(AM_NEQ, exp, d[(1 + z) * 5 + 2 + x]);
+            }
+        }
+        assertEquals(AM_NEQ, 0, d[5 + 1]);
+    }
+
+    @Test
+    public void averageMatchesArgb() {
+        title("averageMatchesArgb");
+        Random r = new Random(7);
+        for (int i = 0; i < N_RANDOM; i++) {
+            int a = r.nextInt();
+            int b = r.nextInt();
+            int c = r.nextInt();
+            int d = r.nextInt();
+            assertEquals(AM_NEQ, Argb.average(a, b, c, d),
+                    Pixels.average(a, b, c, d));
+        }
+    }
+
+    @Test
+    public void shadeMatchesArgb() {
+        title("shadeMatchesArgb");
+        Random r = new Random(11);
+        for (int i = 0; i < N_RANDOM; i++) {
+            int c = r.nextInt();
+            int amount = r.nextInt(800) - 400;
+            assertEquals(AM_NEQ, Argb.shade(c, amount), Pixels.shade(c, amount));
+        }
+        for (int amount = -300; amount <= 300; amount++)
+            for (int c : new int[]{0, 0xffffffff, 0x80ff0001, 0x01017f80})
+                assertEquals(AM_NEQ, Argb.shade(c, amount),
+                        Pixels.shade(c, amount));
+    }
+
+    @Test
+    public void overlayMatchesArgb() {
+        title("overlayMatchesArgb");
+        Random r = new Random(13);
+        for (int i = 0; i < N_RANDOM; i++) {
+            int base = r.nextInt();
+            int over = r.nextInt();
+            assertEquals(AM_NEQ, Argb.overlay(base, over),
+                    Pixels.overlay(base, over));
+        }
+        for (int a = 0; a < 256; a++) {
+            int over = a << 24 | 0xff00ff;
+            assertEquals(AM_NEQ, Argb.overlay(0xffffffff, over),
+                    Pixels.overlay(0xffffffff, over));
+            assertEquals(AM_NEQ, Argb.overlay(0, over), Pixels.overlay(0, over));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import com.meowster.util.PathUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link PyramidReducer}.
+ *
+ * @author Simon Hunt
+ */
+public class PyramidReducerTest extends AbstractTest {
+
+    private static final int NPIXELS = 256;
+    private static final int BASE_ZOOM = 3;
+
+    private File tilesDir;
+
+    @After
+    public void tearDown() {
+        if (tilesDir != null)
+            PathUtils.deleteTree(tilesDir);
+    }
+
+    private static QdLvl baseLevel() {
+        QdLvl q = new QdLvl();
+        q.setZoom(BASE_ZOOM);
+        q.setBlocksPerTileSide(NPIXELS);
+        q.setOriginTile(new Coord(4, 4));
+        q.setOriginDisplace(new Coord(0, 0));
+        return q;
+    }
+
+    private static int[] solid(int argb) {
+        int[] p = new int[NPIXELS * NPIXELS];
+        Arrays.fill(p, argb);
+        return p;
+    }
+
+    private boolean exists(int zoom, int x, int z) {
+        return new File(tilesDir,
+                AbsQuadTile.tilePath(zoom, new Coord(x, z))).exists();
+    }
+
+    @Test
+    public void sparseBaseTiles() throws IOException {
+        title("sparseBaseTiles");
+        tilesDir = Files.createTempDirectory("pyramid").toFile();
+        PyramidReducer pr = new PyramidReducer(tilesDir, baseLevel(), false);
+        pr.createDirectories();
+        pr.start();
+
+        // base tiles in Morton order: three under parent [0,0] at zoom 2,
+        // and one far away, under [3,3]
+        pr.add(BASE_ZOOM, new Coord(0, 0), solid(0xffff0000));
+        pr.add(BASE_ZOOM, new Coord(1, 0), solid(0xff00ff00));
+        pr.add(BASE_ZOOM, new Coord(1, 1), solid(0xff0000ff));
+        pr.add(BASE_ZOOM, new Coord(7, 7), solid(0xffffffff));
+        long n = pr.finish();
+        print(pr);
+
+        // zoom 2: [0,0] and [3,3]; zoom 1: [0,0] and [1,1]
+        assertEquals(AM_UXS, 4, n);
+        assertTrue(AM_HUH, exists(2, 0, 0));
+        assertTrue(AM_HUH, exists(2, 3, 3));
+        assertFalse(AM_HUH, exists(2, 1, 1));
+        assertTrue(AM_HUH, exists(1, 0, 0));
+        assertTrue(AM_HUH, exists(1, 1, 1));
+        assertFalse(AM_HUH, exists(1, 0, 1));
+        assertEquals(AM_NEQ, 1, pr.topLevel().zoom());
+
+        List<LevelStats> stats = new ArrayList<>();
+        pr.saveStats(stats);
+        print(stats);
+        assertEquals(AM_UXS, 2, stats.size());
+    }
+
+    @Test
+    public void childTurnsBlank() throws IOException {
+        title("childTurnsBlank");
+        tilesDir = Files.createTempDirectory("pyramid").toFile();
+        PyramidReducer pr = new PyramidReducer(tilesDir, baseLevel(), false);
+        pr.createDirectories();
+        pr.start();
+        pr.add(BASE_ZOOM, new Coord(0, 0), solid(0xffff0000));
+        pr.add(BASE_ZOOM, new Coord(7, 7), solid(0xffffffff));
+        pr.finish();
+        assertTrue(AM_HUH, exists(2, 0, 0));
+        assertTrue(AM_HUH, exists(1, 0, 0));
+
+        // next time round, base tile [0,0] is blank (and deleted)...
+        MortonSet baseOnDisk = new MortonSet();
+        baseOnDisk.add(new Coord(0, 0));
+        baseOnDisk.add(new Coord(7, 7));
+        pr = new PyramidReducer(tilesDir, baseLevel(), true);
+        pr.seedOccupancy(new ZoomQuadLevelBuilder(tilesDir, baseLevel()),
+                baseOnDisk);
+        pr.start();
+        pr.add(BASE_ZOOM, new Coord(0, 0), null);
+        long n = pr.finish();
+        print(pr);
+
+        // ...so the tiles zoomed out from it alone go too
+        assertEquals(AM_UXS, 0, n);
+        assertFalse(AM_HUH, exists(2, 0, 0));
+        assertFalse(AM_HUH, exists(1, 0, 0));
+        assertTrue(AM_HUH, exists(2, 3, 3));
+        assertTrue(AM_HUH, exists(1, 1, 1));
+        MortonSet top = pr.topLevel().occupancy();
+        assertFalse(AM_HUH, top.contains(0, 0));
+        assertTrue(AM_HUH, top.contains(1, 1));
+    }
+}
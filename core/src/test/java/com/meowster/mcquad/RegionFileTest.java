@@ -9,8 +9,10 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -23,6 +25,10 @@ public class RegionFileTest extends AbstractTest {
     private static final String R00MCA = "r.0.0.mca";
     private static final File REGION_ZERO = new File(R00, R00MCA);
 
+    // path relative to the module base directory (where maven runs tests)
+    private static final File MAPPED_REGION =
+            new File("src/test/resources/unittesting/" + R00, R00MCA);
+
     @Test @Ignore("Until we can figure out the relative path issue")
     public void basic() {
         assertTrue("test region file does not exist", REGION_ZERO.exists());
@@ -31,4 +37,34 @@ public class RegionFileTest extends AbstractTest {
         print(rf);
         assertEquals(AM_UXS, 586, rf.getSectorCount());
     }
+
+    @Test
+    public void mappedChunkBuffer() {
+        title("mappedChunkBuffer");
+        assertTrue("test region file does not exist", MAPPED_REGION.exists());
+
+        RegionFile rf = new RegionFile(MAPPED_REGION, false);
+        print(rf);
+        assertEquals(AM_UXS, 586, rf.getSectorCount());
+        assertEquals(AM_UXS, 480, rf.chunkCount());
+
+        ByteBuffer chunk = rf.getChunkBuffer(8, 8);
+        assertNotNull(AM_HUH, chunk);
+        assertTrue(AM_HUH, chunk.isReadOnly());
+        assertEquals("unexpected compression version", 2, chunk.get(0));
+
+        // each call should hand out an independent view of the data
+        ByteBuffer again = rf.getChunkBuffer(8, 8);
+        chunk.get();
+        assertEquals(AM_NEQ, 0, again.position());
+        assertNotNull(AM_HUH, rf.getChunkDataStream(8, 8));
+    }
+
+    @Test
+    public void mockHasNoChunks() {
+        title("mockHasNoChunks");
+        RegionFile rf = new RegionFile(new File("foo"), true);
+        assertEquals(AM_UXS, 0, rf.chunkCount());
+        assertEquals(AM_UXS, 1024, rf.getChunkTimestamps().length);
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link RegionRaster}, and the incremental rendering of
+ * {@link RegionStructure} that makes use of it.
+ *
+ * @author Simon Hunt
+ */
+public class RegionRasterTest extends AbstractTest {
+
+    // path relative to the module base directory (where maven runs tests)
+    private static final File REGION_FILE =
+            new File("src/test/resources/unittesting/r00", "r.0.0.mca");
+
+    private static final int NPIXELS = RegionRaster.NPIXELS;
+
+    private static Region region() {
+        return new Region(0, 0, REGION_FILE);
+    }
+
+    private static int[] pixels(RegionStructure rs) {
+        BufferedImage bi = rs.getImage();
+        return bi.getRGB(0, 0, NPIXELS, NPIXELS, null, 0, NPIXELS);
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        title("saveAndLoad");
+        RegionRaster r = new RegionRaster();
+        r.colors[7] = 0xff102030;
+        r.heights[RegionRaster.TOTAL_PIXELS - 1] = 123;
+        r.timestamps[3] = 456789;
+
+        File f = File.createTempFile("raster", ".raster");
+        try {
+            r.save(f);
+            RegionRaster copy = RegionRaster.load(f);
+            print(copy);
+            assertNotNull(AM_HUH, copy);
+            assertArrayEquals(AM_NEQ, r.colors, copy.colors);
+            assertArrayEquals(AM_NEQ, r.heights, copy.heights);
+            assertArrayEquals(AM_NEQ, r.timestamps, copy.timestamps);
+        } finally {
+            assertTrue(AM_HUH, f.delete());
+        }
+    }
+
+    @Test
+    public void loadBadFile() throws IOException {
+        title("loadBadFile");
+        File f = File.createTempFile("raster", ".raster");
+        try {
+            assertNull(AM_HUH, RegionRaster.load(new File("no-such.raster")));
+            try (FileOutputStream fos = new FileOutputStream(f)) {
+                fos.write(new byte[]{1, 2, 3});
+            }
+            assertNull(AM_HUH, RegionRaster.load(f));
+        } finally {
+            assertTrue(AM_HUH, f.delete());
+        }
+    }
+
+    @Test
+    public void fingerprintMismatch() throws IOException {
+        title("fingerprintMismatch");
+        RegionRaster r = new RegionRaster();
+        r.timestamps[0] = 42;
+
+        File f = File.createTempFile("raster", ".raster");
+        try {
+            r.save(f, 1234L);
+            print("raster file is {} bytes", f.length());
+            assertTrue(AM_HUH, f.length() < RegionRaster.TOTAL_PIXELS);
+            assertNotNull(AM_HUH, RegionRaster.load(f, 1234L));
+            assertNull(AM_HUH, RegionRaster.load(f, 1235L));
+        } finally {
+            assertTrue(AM_HUH, f.delete());
+        }
+    }
+
+    @Test
+    public void fileName() {
+        title("fileName");
+        File f = RegionRaster.file(new File("cache"), new Coord(-1, 2));
+        print(f);
+        assertEquals(AM_NEQ, "r.-1.2.raster", f.getName());
+    }
+
+    @Test
+    public void unchangedChunksReused() {
+        title("unchangedChunksReused");
+        RegionStructure full = new RegionStructure(region());
+        print(full);
+
+        RegionStructure again =
+                new RegionStructure(region(), false, full.raster());
+        print(again);
+        assertEquals(AM_UXS, 0, again.chunksDecoded());
+        for (int dz = 0; dz < 2; dz++)
+            for (int dx = 0; dx < 2; dx++)
+                assertFalse(AM_HUH, again.quadrantChanged(dx, dz));
+        assertArrayEquals(AM_NEQ, pixels(full), pixels(again));
+    }
+
+    @Test
+    public void changedChunkDecoded() {
+        title("changedChunkDecoded");
+        RegionStructure full = new RegionStructure(region());
+        RegionRaster previous = full.raster();
+
+        // pretend chunk [12,3] changed, and scribble over its old pixels
+        int cx = 12;
+        int cz = 3;
+        previous.timestamps[cz * RegionRaster.NCHUNKS + cx]--;
+        int[] expected = pixels(full);
+        previous.colors[(cz * 16 + 5) * NPIXELS + cx * 16 + 5] = 0xffff00ff;
+
+        RegionStructure again = new RegionStructure(region(), false, previous);
+        print(again);
+        assertEquals(AM_UXS, 1, again.chunksDecoded());
+        assertTrue(AM_HUH, again.quadrantChanged(0, 0));
+        assertFalse(AM_HUH, again.quadrantChanged(1, 0));
+        assertFalse(AM_HUH, again.quadrantChanged(0, 1));
+        assertFalse(AM_HUH, again.quadrantChanged(1, 1));
+        assertArrayEquals(AM_NEQ, expected, pixels(again));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.jnbt.ByteArrayTag;
+import org.jnbt.ByteTag;
+import org.jnbt.CompoundTag;
+import org.jnbt.IntTag;
+import org.jnbt.ListTag;
+import org.jnbt.NBTOutputStream;
+import org.jnbt.StringTag;
+import org.jnbt.Tag;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link SelectiveNbtReader}.
+ *
+ * @author Simon Hunt
+ */
+public class SelectiveNbtReaderTest extends AbstractTest {
+
+    private static final byte[] BIOMES = {1, 2, 3, 4};
+    private static final byte[] BLOCKS_A = {5, 6, 7};
+    private static final byte[] BLOCKS_B = {8, 9};
+
+    private static CompoundTag compound(String name, Tag... tags) {
+        Map<String, Tag> map = new HashMap<>();
+        for (Tag t : tags)
+            map.put(t.getName(), t);
+        return new CompoundTag(name, map);
+    }
+
+    private static CompoundTag section(int y, byte[] blocks) {
+        return compound("",
+                new ByteTag("Y", (byte) y),
+                new ByteArrayTag("Blocks", blocks),
+                new ByteArrayTag("SkyLight", new byte[2048]));
+    }
+
+    private static DataInputStream chunkStream() throws IOException {
+        List<Tag> sections = new ArrayList<>();
+        sections.add(section(0, BLOCKS_A));
+        sections.add(section(3, BLOCKS_B));
+
+        List<Tag> entities = new ArrayList<>();
+        entities.add(compound("", new StringTag("id", "Pig")));
+
+        CompoundTag root = compound("",
+                compound("Level",
+                        new IntTag("xPos", 7),
+                        new ListTag("Entities", CompoundTag.class, entities),
+                        new ListTag("Sections", CompoundTag.class, sections),
+                        new ByteArrayTag("Biomes", BIOMES)));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (NBTOutputStream nbt = new NBTOutputStream(bytes)) {
+            nbt.writeTag(root);
+        }
+        return new DataInputStream(new GZIPInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static class Recorder implements SelectiveNbtReader.Handler {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void startCompound(String path) {
+            events.add("<" + path);
+        }
+
+        @Override
+        public void endCompound(String path) {
+            events.add(">" + path);
+        }
+
+        @Override
+        public void byteValue(String path, byte value) {
+            events.add(path + "=" + value);
+        }
+
+        @Override
+        public void intValue(String path, int value) {
+            events.add(path + "=" + value);
+        }
+
+        @Override
+        public void byteArray(String path, byte[] value) {
+            events.add(path + "[" + value.length + "]");
+        }
+    }
+
+    @Test
+    public void selectedOnly() throws IOException {
+        title("selectedOnly");
+        SelectiveNbtReader reader = new SelectiveNbtReader(
+                "Level/xPos", "Level/Sections/Y", "Level/Sections/Blocks",
+                "Level/Biomes");
+        print(reader);
+
+        Recorder rec = new Recorder();
+        reader.read(chunkStream(), rec);
+        print(rec.events);
+
+        // the order of tags within a compound is not guaranteed
+        List<String> sorted = new ArrayList<>(rec.events);
+        sorted.sort(null);
+        assertEquals(AM_NEQ, Arrays.asList(
+                "<", "<Level", "<Level/Sections", "<Level/Sections",
+                ">", ">Level", ">Level/Sections", ">Level/Sections",
+                "Level/Biomes[4]",
+                "Level/Sections/Blocks[2]", "Level/Sections/Blocks[3]",
+                "Level/Sections/Y=0", "Level/Sections/Y=3",
+                "Level/xPos=7"), sorted);
+    }
+
+    @Test
+    public void arrayContents() throws IOException {
+        title("arrayContents");
+        SelectiveNbtReader reader = new SelectiveNbtReader("Level/Biomes");
+        final byte[][] found = new byte[1][];
+        reader.read(chunkStream(), new SelectiveNbtReader.Handler() {
+            @Override
+            public void byteArray(String path, byte[] value) {
+                found[0] = value;
+            }
+        });
+        assertArrayEquals(AM_HUH, BIOMES, found[0]);
+    }
+
+    @Test
+    public void nothingSelected() throws IOException {
+        title("nothingSelected");
+        SelectiveNbtReader reader = new SelectiveNbtReader("Level/Nope");
+        Recorder rec = new Recorder();
+        DataInputStream dis = chunkStream();
+        reader.read(dis, rec);
+        print(rec.events);
+        // only the containers on the way to the (missing) tag are reported
+        assertEquals(AM_UXS, 4, rec.events.size());
+        assertEquals("stream not consumed", -1, dis.read());
+    }
+}
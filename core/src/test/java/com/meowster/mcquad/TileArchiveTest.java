@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link TileArchive}.
+ *
+ * @author Simon Hunt
+ */
+public class TileArchiveTest extends AbstractTest {
+
+    private static final int ZOOM = 7;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static File pack(File dir, String name) {
+        return new File(dir, "z" + ZOOM + "/" + name);
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        title("writeAndRead");
+        File dir = tmp.newFolder();
+        TileArchive ta = TileArchive.openForWriting(dir);
+        ta.write(ZOOM, new Coord(1, 2), bytes("one-two"));
+        ta.write(ZOOM, new Coord(70, 3), bytes("seventy-three"));
+        ta.write(ZOOM, new Coord(1, 2), bytes("again"));
+        print(ta);
+        // readable before the archive is closed
+        assertArrayEquals(AM_NEQ, bytes("again"), ta.read(ZOOM, 1, 2));
+        ta.close();
+
+        // two blocks, each with its index
+        assertTrue(AM_HUH, pack(dir, "b.0.0.pack").isFile());
+        assertTrue(AM_HUH, pack(dir, "b.1.0.pidx").isFile());
+
+        ta = TileArchive.open(dir);
+        assertArrayEquals(AM_NEQ, bytes("again"), ta.read(ZOOM, 1, 2));
+        assertArrayEquals(AM_NEQ, bytes("seventy-three"),
+                ta.read(ZOOM, 70, 3));
+        assertNull(AM_HUH, ta.read(ZOOM, 2, 1));
+        assertNull(AM_HUH, ta.read(ZOOM + 1, 1, 2));
+        assertFalse(AM_HUH, ta.contains(ZOOM, 0, 0));
+
+        MortonSet tiles = ta.tiles(ZOOM);
+        assertEquals(AM_UXS, 2, tiles.size());
+        assertTrue(AM_HUH, tiles.contains(70, 3));
+        ta.close();
+    }
+
+    @Test
+    public void rebuildIndex() throws IOException {
+        title("rebuildIndex");
+        File dir = tmp.newFolder();
+        TileArchive ta = TileArchive.openForWriting(dir);
+        ta.write(ZOOM, new Coord(5, 6), bytes("five-six"));
+        ta.write(ZOOM, new Coord(6, 5), bytes("six-five"));
+        ta.close();
+
+        // as if interrupted: the index is missing, and the last
+        // record only partly written
+        assertTrue(AM_HUH, pack(dir, "b.0.0.pidx").delete());
+        File f = pack(dir, "b.0.0.pack");
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        ta = TileArchive.openForWriting(dir);
+        assertArrayEquals(AM_NEQ, bytes("five-six"), ta.read(ZOOM, 5, 6));
+        assertFalse(AM_HUH, ta.contains(ZOOM, 6, 5));
+        ta.write(ZOOM, new Coord(6, 5), bytes("six-five"));
+        ta.close();
+
+        ta = TileArchive.open(dir);
+        assertArrayEquals(AM_NEQ, bytes("six-five"), ta.read(ZOOM, 6, 5));
+        assertEquals(AM_UXS, 2, ta.tiles(ZOOM).size());
+        ta.close();
+    }
+
+    @Test
+    public void linkIdentical() throws IOException {
+        title("linkIdentical");
+        File dir = tmp.newFolder();
+        TileArchive ta = TileArchive.openForWriting(dir);
+        assertFalse(AM_HUH, ta.link(ZOOM, new Coord(0, 0), 42L));
+        ta.write(ZOOM, new Coord(0, 0), bytes("ocean"), 42L);
+        assertTrue(AM_HUH, ta.link(ZOOM, new Coord(0, 1), 42L));
+        assertTrue(AM_HUH, ta.link(ZOOM, new Coord(1, 1), 42L));
+        // ... but only within the same pack
+        assertFalse(AM_HUH, ta.link(ZOOM, new Coord(64, 0), 42L));
+        long size = pack(dir, "b.0.0.pack").length();
+        ta.close();
+
+        ta = TileArchive.open(dir);
+        assertArrayEquals(AM_NEQ, bytes("ocean"), ta.read(ZOOM, 1, 1));
+        ta.close();
+
+        // the shared image survives an index rebuild
+        assertTrue(AM_HUH, pack(dir, "b.0.0.pidx").delete());
+        ta = TileArchive.open(dir);
+        assertArrayEquals(AM_NEQ, bytes("ocean"), ta.read(ZOOM, 0, 1));
+        assertEquals(AM_UXS, 3, ta.tiles(ZOOM).size());
+        ta.close();
+        assertEquals(AM_NEQ, size, pack(dir, "b.0.0.pack").length());
+    }
+
+    @Test
+    public void deleteTile() throws IOException {
+        title("deleteTile");
+        File dir = tmp.newFolder();
+        TileArchive ta = TileArchive.openForWriting(dir);
+        ta.write(ZOOM, new Coord(3, 4), bytes("three-four"));
+        ta.write(ZOOM, new Coord(4, 3), bytes("four-three"));
+        assertTrue(AM_HUH, ta.delete(ZOOM, new Coord(3, 4)));
+        assertFalse(AM_HUH, ta.delete(ZOOM, new Coord(3, 4)));
+        assertFalse(AM_HUH, ta.delete(ZOOM + 1, new Coord(3, 4)));
+        assertNull(AM_HUH, ta.read(ZOOM, 3, 4));
+        ta.close();
+
+        // the deletion survives an index rebuild
+        assertTrue(AM_HUH, pack(dir, "b.0.0.pidx").delete());
+        ta = TileArchive.open(dir);
+        assertFalse(AM_HUH, ta.contains(ZOOM, 3, 4));
+        assertArrayEquals(AM_NEQ, bytes("four-three"), ta.read(ZOOM, 4, 3));
+        assertEquals(AM_UXS, 1, ta.tiles(ZOOM).size());
+        ta.close();
+    }
+
+    @Test
+    public void sharedPackUntouched() throws IOException {
+        title("sharedPackUntouched");
+        File dir = tmp.newFolder();
+        File other = tmp.newFolder();
+        TileArchive ta = TileArchive.openForWriting(dir);
+        ta.write(ZOOM, new Coord(0, 0), bytes("old"));
+        ta.close();
+
+        // as carried over into the next generation
+        File otherPack = pack(other, "b.0.0.pack");
+        Files.createDirectories(otherPack.getParentFile().toPath());
+        Files.createLink(otherPack.toPath(), pack(dir, "b.0.0.pack").toPath());
+        Files.createLink(pack(other, "b.0.0.pidx").toPath(),
+                pack(dir, "b.0.0.pidx").toPath());
+
+        ta = TileArchive.openForWriting(other);
+        ta.write(ZOOM, new Coord(0, 0), bytes("new"));
+        ta.close();
+
+        assertArrayEquals(AM_NEQ, bytes("new"),
+                TileArchive.open(other).read(ZOOM, 0, 0));
+        assertArrayEquals(AM_NEQ, bytes("old"),
+                TileArchive.open(dir).read(ZOOM, 0, 0));
+    }
+
+    @Test
+    public void sharedPackOnlyRead() throws IOException {
+        title("sharedPackOnlyRead");
+        File dir = tmp.newFolder();
+        File other = tmp.newFolder();
+        TileArchive ta = TileArchive.openForWriting(dir);
+        ta.write(ZOOM, new Coord(0, 0), bytes("old"));
+        ta.close();
+
+        File otherPack = pack(other, "b.0.0.pack");
+        Files.createDirectories(otherPack.getParentFile().toPath());
+        Files.createLink(otherPack.toPath(), pack(dir, "b.0.0.pack").toPath());
+
+        // reads, and the deletion of an absent tile, modify nothing...
+        ta = TileArchive.openForWriting(other);
+        assertArrayEquals(AM_NEQ, bytes("old"), ta.read(ZOOM, 0, 0));
+        assertFalse(AM_HUH, ta.contains(ZOOM, 1, 1));
+        assertFalse(AM_HUH, ta.delete(ZOOM, new Coord(1, 1)));
+        assertEquals(AM_UXS, 1, ta.tiles(ZOOM).size());
+        ta.close();
+
+        // ...so the pack is not copied
+        assertTrue(AM_HUH, Files.isSameFile(otherPack.toPath(),
+                pack(dir, "b.0.0.pack").toPath()));
+    }
+
+    @Test
+    public void emptyPackReadOnly() throws IOException {
+        title("emptyPackReadOnly");
+        File dir = tmp.newFolder();
+        // as left by a render interrupted as it created the pack
+        File f = pack(dir, "b.0.0.pack");
+        Files.createDirectories(f.getParentFile().toPath());
+        Files.createFile(f.toPath());
+
+        TileArchive ta = TileArchive.open(dir);
+        assertFalse(AM_HUH, ta.contains(ZOOM, 0, 0));
+        assertNull(AM_HUH, ta.read(ZOOM, 0, 0));
+        assertEquals(AM_UXS, 0, ta.tiles(ZOOM).size());
+        ta.close();
+        assertEquals(AM_NEQ, 0, f.length());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link TileCache}.
+ *
+ * @author Simon Hunt
+ */
+public class TileCacheTest extends AbstractTest {
+
+    private static final Coord C00 = new Coord(0, 0);
+    private static final Coord C01 = new Coord(0, 1);
+    private static final Coord C10 = new Coord(1, 0);
+
+    private static final int TILE_INTS = 16;
+    private static final long TILE_BYTES = TILE_INTS * 4;
+
+    private TileCache cache;
+
+    @Test
+    public void putAndTake() {
+        title("putAndTake");
+        cache = new TileCache(10 * TILE_BYTES);
+        int[] p = new int[TILE_INTS];
+        cache.put(5, C01, p);
+        print(cache);
+        assertEquals(AM_NEQ, TILE_BYTES, cache.bytes());
+
+        assertNull(AM_HUH, cache.take(4, C01));
+        assertNull(AM_HUH, cache.take(5, C10));
+        assertSame(AM_HUH, p, cache.take(5, C01));
+        // taking removes the tile
+        assertNull(AM_HUH, cache.take(5, C01));
+        print(cache);
+        assertEquals(AM_NEQ, 0, cache.bytes());
+        assertEquals(AM_NEQ, 1, cache.hits());
+        assertEquals(AM_NEQ, 3, cache.misses());
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() {
+        title("leastRecentlyUsedEvicted");
+        cache = new TileCache(2 * TILE_BYTES);
+        cache.put(3, C00, new int[TILE_INTS]);
+        cache.put(3, C01, new int[TILE_INTS]);
+        cache.put(3, C10, new int[TILE_INTS]);
+        print(cache);
+        assertEquals(AM_NEQ, 2 * TILE_BYTES, cache.bytes());
+        assertNull(AM_HUH, cache.take(3, C00));
+        assertEquals(AM_UXS, TILE_INTS, cache.take(3, C01).length);
+        assertEquals(AM_UXS, TILE_INTS, cache.take(3, C10).length);
+    }
+
+    @Test
+    public void replaceSameTile() {
+        title("replaceSameTile");
+        cache = new TileCache(10 * TILE_BYTES);
+        cache.put(2, C00, new int[TILE_INTS]);
+        cache.put(2, C00, new int[TILE_INTS * 2]);
+        assertEquals(AM_NEQ, 2 * TILE_BYTES, cache.bytes());
+    }
+
+    @Test
+    public void pixelsOfImage() {
+        title("pixelsOfImage");
+        BufferedImage bi = new BufferedImage(4, 4, TYPE_INT_ARGB);
+        bi.setRGB(1, 2, 0xff123456);
+        int[] p = TileCache.pixelsOf(bi);
+        assertEquals(AM_NEQ, 0xff123456, p[2 * 4 + 1]);
+        // no copy needed...
+        assertSame(AM_HUH, p, TileCache.pixelsOf(bi));
+
+        // ...but a sub-image shares its parent's (larger) array
+        BufferedImage sub = bi.getSubimage(1, 2, 2, 2);
+        int[] sp = TileCache.pixelsOf(sub);
+        assertNotSame(AM_HUH, p, sp);
+        assertArrayEquals(AM_NEQ, new int[]{0xff123456, 0, 0, 0}, sp);
+    }
+}
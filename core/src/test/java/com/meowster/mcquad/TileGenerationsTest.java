@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import com.meowster.util.PathUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link TileGenerations}.
+ *
+ * @author Simon Hunt
+ */
+public class TileGenerationsTest extends AbstractTest {
+
+    private static final String TILE = "z1/x0/t.0.png";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static void write(File file, String content) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+        PathUtils.writeAtomically(file,
+                out -> out.write(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()),
+                StandardCharsets.UTF_8);
+    }
+
+    private static String target(File link) throws IOException {
+        Path p = link.toPath();
+        assertTrue(AM_HUH, Files.isSymbolicLink(p));
+        return Files.readSymbolicLink(p).toString();
+    }
+
+    @Test
+    public void adoptCarryOverAndPublish() throws IOException {
+        title("adoptCarryOverAndPublish");
+        File outDir = tmp.newFolder();
+        File tiles = new File(outDir, "tiles");
+        // tiles rendered in place
+        write(new File(tiles, TILE), "old");
+
+        TileGenerations tg = new TileGenerations(tiles);
+        File next = tg.stage(true);
+        print(tg);
+        assertEquals(AM_NEQ, "tiles.g1", next.getName());
+        assertEquals(AM_NEQ, "tiles.g0", target(tiles));
+        assertEquals(AM_UXS, 1, tg.carried());
+        assertFalse(AM_HUH, tg.abandoned());
+
+        // replacing the carried over tile leaves the live one alone
+        write(new File(next, TILE), "new");
+        assertEquals(AM_NEQ, "old", read(new File(tiles, TILE)));
+
+        tg.publish();
+        assertEquals(AM_NEQ, "tiles.g1", target(tiles));
+        assertEquals(AM_NEQ, "new", read(new File(tiles, TILE)));
+
+        // the previous generation is kept until the next render...
+        assertTrue(AM_HUH, new File(outDir, "tiles.g0").isDirectory());
+        next = new TileGenerations(tiles).stage(false);
+        assertEquals(AM_NEQ, "tiles.g2", next.getName());
+        assertFalse(AM_HUH, new File(next, TILE).exists());
+        assertFalse(AM_HUH, new File(outDir, "tiles.g0").exists());
+    }
+
+    @Test
+    public void discardAbandoned() throws IOException {
+        title("discardAbandoned");
+        File outDir = tmp.newFolder();
+        File tiles = new File(outDir, "tiles");
+        TileGenerations tg = new TileGenerations(tiles);
+        write(new File(tg.stage(true), TILE), "first");
+        tg.publish();
+        assertEquals(AM_NEQ, "tiles.g0", target(tiles));
+
+        // as left behind by an interrupted render (and remap)
+        write(new File(new TileGenerations(tiles).stage(true), TILE), "x");
+        assertTrue(AM_HUH, new File(outDir, "tiles.g1")
+                .renameTo(new File(outDir, "tiles.g1-remap")));
+
+        tg = new TileGenerations(tiles);
+        File next = tg.stage(true);
+        print(tg);
+        assertTrue(AM_HUH, tg.abandoned());
+        assertEquals(AM_NEQ, "tiles.g2", next.getName());
+        assertFalse(AM_HUH, new File(outDir, "tiles.g1-remap").exists());
+        // nothing is carried over; all tiles are to be rendered again
+        assertEquals(AM_UXS, 0, tg.carried());
+        assertFalse(AM_HUH, new File(next, TILE).exists());
+        // ... while the published generation is left untouched
+        assertEquals(AM_NEQ, "first", read(new File(tiles, TILE)));
+    }
+}
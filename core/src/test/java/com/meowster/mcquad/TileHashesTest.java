@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link TileHashes}.
+ *
+ * @author Simon Hunt
+ */
+public class TileHashesTest extends AbstractTest {
+
+    private static final Coord C00 = new Coord(0, 0);
+    private static final Coord C31 = new Coord(3, 1);
+
+    private TileHashes th;
+
+    @Test
+    public void update() {
+        title("update");
+        th = new TileHashes();
+        assertTrue(AM_HUH, th.update(C00, 123L));
+        assertTrue(AM_HUH, th.update(C31, 123L));
+        assertFalse(AM_HUH, th.update(C00, 123L));
+        assertTrue(AM_HUH, th.update(C00, 456L));
+        print(th);
+        assertEquals(AM_UXS, 2, th.size());
+    }
+
+    @Test
+    public void growAndSaveLoad() throws IOException {
+        title("growAndSaveLoad");
+        th = new TileHashes();
+        for (int i = 0; i < 1000; i++)
+            th.update(new Coord(i % 40, i / 40), i * 31L);
+        assertEquals(AM_UXS, 1000, th.size());
+
+        File f = File.createTempFile("tiles", ".hash");
+        try {
+            th.save(f);
+            TileHashes copy = TileHashes.load(f);
+            print(copy);
+            assertEquals(AM_UXS, 1000, copy.size());
+            for (int i = 0; i < 1000; i++)
+                assertFalse(AM_HUH, copy.update(new Coord(i % 40, i / 40), i * 31L));
+        } finally {
+            assertTrue(AM_HUH, f.delete());
+        }
+    }
+
+    @Test
+    public void loadMissing() {
+        title("loadMissing");
+        assertEquals(AM_UXS, 0, TileHashes.load(new File("no-such.hash")).size());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link TileRemapper}.
+ *
+ * @author Simon Hunt
+ */
+public class TileRemapperTest extends AbstractTest {
+
+    private static final Coord ORIGIN = new Coord(0, 0);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    // creates a (fake) tile file, whose content names its original location
+    private static void tile(File tilesDir, int zoom, int x, int z)
+            throws IOException {
+        File f = new File(tilesDir, AbsQuadTile.tilePath(zoom, new Coord(x, z)));
+        Files.createDirectories(f.getParentFile().toPath());
+        Files.write(f.toPath(), label(zoom, x, z));
+    }
+
+    private static byte[] label(int zoom, int x, int z) {
+        return (zoom + ":" + x + "," + z).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertTile(File tilesDir, int zoom, int x, int z,
+                                   byte[] label) throws IOException {
+        File f = new File(tilesDir, AbsQuadTile.tilePath(zoom, new Coord(x, z)));
+        assertTrue(AM_HUH, f.isFile());
+        assertEquals(AM_NEQ, new String(label, StandardCharsets.UTF_8),
+                new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shiftAndZoom() throws IOException {
+        title("shiftAndZoom");
+        File outDir = tmp.newFolder();
+        File tilesDir = new File(outDir, "tiles");
+        tile(tilesDir, 2, 0, 0);
+        tile(tilesDir, 2, 3, 3);
+        tile(tilesDir, 3, 1, 1);
+        tile(tilesDir, 4, 7, 7);
+        // a zoomed-out tile
+        tile(tilesDir, 1, 0, 0);
+        assertEquals(AM_NEQ, 2, TileRemapper.inferBaseZoom(tilesDir));
+
+        TileRemapper tr = new TileRemapper(tilesDir, ORIGIN, 2,
+                new Coord(-1, -2), 3).remap();
+        print(tr);
+        assertEquals(AM_UXS, 4, tr.moved());
+        assertEquals(AM_UXS, 0, tr.dropped());
+
+        // shifted by (1,2) at the base level, doubling at each level
+        assertTile(tilesDir, 3, 1, 2, label(2, 0, 0));
+        assertTile(tilesDir, 3, 4, 5, label(2, 3, 3));
+        assertTile(tilesDir, 4, 3, 5, label(3, 1, 1));
+        assertTile(tilesDir, 5, 11, 15, label(4, 7, 7));
+
+        assertFalse(AM_HUH, new File(tilesDir, "z1").exists());
+        assertFalse(AM_HUH, new File(tilesDir, "z2").exists());
+        assertFalse(AM_HUH, TileRemapper.interrupted(tilesDir));
+        assertEquals(AM_NEQ, 3, TileRemapper.inferBaseZoom(tilesDir));
+    }
+
+    @Test
+    public void dropOutOfBounds() throws IOException {
+        title("dropOutOfBounds");
+        File outDir = tmp.newFolder();
+        File tilesDir = new File(outDir, "tiles");
+        tile(tilesDir, 2, 0, 1);
+        tile(tilesDir, 2, 2, 1);
+
+        TileRemapper tr = new TileRemapper(tilesDir, ORIGIN, 2,
+                new Coord(1, 0), 2).remap();
+        print(tr);
+        assertEquals(AM_UXS, 1, tr.moved());
+        assertEquals(AM_UXS, 1, tr.dropped());
+        assertTile(tilesDir, 2, 1, 1, label(2, 2, 1));
+        assertFalse(AM_HUH, new File(tilesDir,
+                AbsQuadTile.tilePath(2, new Coord(0, 1))).exists());
+    }
+
+    @Test
+    public void interruptedRemap() throws IOException {
+        title("interruptedRemap");
+        File outDir = tmp.newFolder();
+        File tilesDir = new File(outDir, "tiles");
+        assertEquals(AM_NEQ, -1, TileRemapper.inferBaseZoom(tilesDir));
+        tile(tilesDir, 2, 0, 0);
+        assertFalse(AM_HUH, TileRemapper.interrupted(tilesDir));
+
+        // as left by a remap that did not complete
+        assertTrue(AM_HUH, tilesDir.renameTo(
+                new File(outDir, "tiles-remap")));
+        assertTrue(AM_HUH, TileRemapper.interrupted(tilesDir));
+        TileRemapper.cleanUp(tilesDir);
+        assertFalse(AM_HUH, TileRemapper.interrupted(tilesDir));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.mcquad;
+
+import com.meowster.test.AbstractTest;
+import com.meowster.util.PngEncoder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the {@link TileSink} and {@link TileSource}
+ * implementations: {@link FileTileStore} and {@link ArchiveTileStore}.
+ *
+ * @author Simon Hunt
+ */
+public class TileStoreTest extends AbstractTest {
+
+    private static final int ZOOM = 3;
+    private static final int SIZE = 4;
+
+    private static final Coord C1 = new Coord(1, 2);
+    private static final Coord C2 = new Coord(2, 1);
+    private static final Coord C3 = new Coord(5, 5);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static int[] image(int argb) {
+        int[] pixels = new int[SIZE * SIZE];
+        Arrays.fill(pixels, argb);
+        return pixels;
+    }
+
+    private static int pixel(TileSource source, Coord c) throws IOException {
+        int[] pixels = source.read(ZOOM, c);
+        assertEquals(AM_UXS, SIZE * SIZE, pixels.length);
+        return pixels[SIZE + 1];
+    }
+
+    // exercises the given store, through the sink/source interfaces
+    private <S extends TileSink & TileSource> void exercise(S store,
+                                                           S reopened)
+            throws IOException {
+        print(store);
+        assertFalse(AM_HUH, store.write(ZOOM, C1, image(0xff102030), SIZE, SIZE, 1L));
+        assertFalse(AM_HUH, store.write(ZOOM, C2, image(0xff405060), SIZE, SIZE, 2L));
+        // identical to the first tile
+        assertTrue(AM_HUH, store.write(ZOOM, C3, image(0xff102030), SIZE, SIZE, 1L));
+
+        assertTrue(AM_HUH, store.exists(ZOOM, C2));
+        assertFalse(AM_HUH, store.exists(ZOOM, new Coord(0, 0)));
+        assertFalse(AM_HUH, store.exists(ZOOM + 1, C1));
+        assertEquals(AM_NEQ, 0xff405060, pixel(store, C2));
+        assertEquals(AM_NEQ, 0xff102030, pixel(store, C3));
+
+        assertTrue(AM_HUH, store.delete(ZOOM, C1));
+        assertFalse(AM_HUH, store.delete(ZOOM, C1));
+        assertNull(AM_HUH, store.read(ZOOM, C1));
+        store.flush();
+
+        MortonSet tiles = reopened.tiles(ZOOM);
+        assertEquals(AM_UXS, 2, tiles.size());
+        assertTrue(AM_HUH, tiles.contains(C3.x(), C3.z()));
+        assertFalse(AM_HUH, tiles.contains(C1.x(), C1.z()));
+        assertEquals(AM_NEQ, 0xff102030, pixel(reopened, C3));
+        assertNull(AM_HUH, reopened.read(ZOOM, C1));
+    }
+
+    @Test
+    public void fileStore() throws IOException {
+        title("fileStore");
+        File dir = tmp.newFolder();
+        PngEncoder encoder = new PngEncoder();
+        exercise(new FileTileStore(dir, encoder).dedup(true),
+                new FileTileStore(dir, encoder));
+        assertTrue(AM_HUH, new File(dir,
+                AbsQuadTile.tilePath(ZOOM, C2)).isFile());
+    }
+
+    @Test
+    public void fileStoreReplacesLostBlob() throws IOException {
+        title("fileStoreReplacesLostBlob");
+        File dir = tmp.newFolder();
+        FileTileStore store = new FileTileStore(dir, new PngEncoder())
+                .dedup(true);
+        int[] ocean = image(0xff2040a0);
+        assertFalse(AM_HUH, store.write(ZOOM, C1, ocean, SIZE, SIZE, 7L));
+        // as if the blob could no longer be linked to
+        assertTrue(AM_HUH, new File(dir,
+                AbsQuadTile.tilePath(ZOOM, C1)).delete());
+        assertFalse(AM_HUH, store.write(ZOOM, C2, ocean, SIZE, SIZE, 7L));
+        // ... so the new file takes its place
+        assertTrue(AM_HUH, store.write(ZOOM, C3, ocean, SIZE, SIZE, 7L));
+        assertEquals(AM_NEQ, 0xff2040a0, pixel(store, C3));
+    }
+
+    @Test
+    public void archiveStore() throws IOException {
+        title("archiveStore");
+        File dir = tmp.newFolder();
+        PngEncoder encoder = new PngEncoder();
+        exercise(new ArchiveTileStore(TileArchive.openForWriting(dir),
+                        encoder).dedup(true),
+                new ArchiveTileStore(TileArchive.open(dir), encoder));
+    }
+}
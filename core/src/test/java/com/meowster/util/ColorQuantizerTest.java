@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.util;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests for {@link ColorQuantizer}.
+ *
+ * @author Simon Hunt
+ */
+public class ColorQuantizerTest extends AbstractTest {
+
+    private final int[] palette = new int[256];
+
+    private int[] quantize(int[] argb, int maxColors, int expColors) {
+        byte[] indices = new byte[argb.length];
+        int n = ColorQuantizer.quantize(argb, argb.length, maxColors,
+                palette, indices);
+        print("{} colours", n);
+        assertEquals(AM_UXS, expColors, n);
+        int[] result = new int[argb.length];
+        for (int i = 0; i < argb.length; i++)
+            result[i] = palette[indices[i] & 0xff];
+        return result;
+    }
+
+    @Test
+    public void fewColorsExact() {
+        title("fewColorsExact");
+        int[] p = {0xff102030, 0x00000000, 0xff102030, 0x80ffffff, 0x00000000};
+        int[] q = quantize(p, 4, 3);
+        for (int i = 0; i < p.length; i++)
+            assertEquals(AM_NEQ, p[i], q[i]);
+    }
+
+    @Test
+    public void clustersAveraged() {
+        title("clustersAveraged");
+        // two equally populous clusters, of reds and blues
+        int[] p = {0xff100000, 0xff0000f0, 0xff120000, 0xff0000f2,
+                0xff140000, 0xff0000f4};
+        int[] q = quantize(p, 2, 2);
+        for (int i = 0; i < p.length; i += 2) {
+            assertEquals(AM_NEQ, 0xff120000, q[i]);
+            assertEquals(AM_NEQ, 0xff0000f2, q[i + 1]);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.util;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static com.meowster.util.PngEncoder.Palette.EXACT;
+import static com.meowster.util.PngEncoder.Palette.NONE;
+import static com.meowster.util.PngEncoder.Palette.QUANTIZED;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link PngEncoder}.
+ *
+ * @author Simon Hunt
+ */
+public class PngEncoderTest extends AbstractTest {
+
+    private static final int W = 37;
+    private static final int H = 23;
+
+    private static final int COLOR_TYPE_OFFSET = 25;
+
+    private static final Random RANDOM = new Random(42);
+
+    // offsets of the bit depth and colour type bytes in the IHDR chunk
+    private static final int BIT_DEPTH_OFFSET = 24;
+
+    private final PngEncoder encoder =
+            new PngEncoder(PngEncoder.DEFAULT_LEVEL, false, NONE);
+
+    private static int[] pixels(boolean opaque) {
+        int[] p = new int[W * H];
+        for (int i = 0; i < p.length; i++) {
+            // a mixture of gradients and noise, to exercise all filters
+            int rgb = (i % W) * 5 << 16 | (i / W) * 9 << 8 |
+                    RANDOM.nextInt(4) * 60;
+            int alpha = opaque ? 0xff : RANDOM.nextInt(256);
+            p[i] = alpha << 24 | rgb;
+        }
+        return p;
+    }
+
+    private static int[] decode(byte[] png) throws IOException {
+        BufferedImage bi = ImageIO.read(new ByteArrayInputStream(png));
+        assertEquals(AM_UXS, W, bi.getWidth());
+        assertEquals(AM_UXS, H, bi.getHeight());
+        return bi.getRGB(0, 0, W, H, null, 0, W);
+    }
+
+    private void roundTrip(boolean opaque, int expColorType) throws IOException {
+        roundTrip(encoder, opaque, expColorType);
+    }
+
+    private void roundTrip(PngEncoder encoder, boolean opaque,
+                           int expColorType) throws IOException {
+        int[] p = pixels(opaque);
+        byte[] png = encoder.encode(p, W, H);
+        print("{} bytes", png.length);
+        assertEquals(AM_NEQ, expColorType, png[COLOR_TYPE_OFFSET]);
+        assertArrayEquals(AM_NEQ, p, decode(png));
+    }
+
+    @Test
+    public void opaqueIsRgb() throws IOException {
+        title("opaqueIsRgb");
+        roundTrip(true, 2);
+    }
+
+    @Test
+    public void translucentIsRgba() throws IOException {
+        title("translucentIsRgba");
+        roundTrip(false, 6);
+        // the workspace is reused for the next image
+        roundTrip(true, 2);
+    }
+
+    @Test
+    public void adaptiveFilters() throws IOException {
+        title("adaptiveFilters");
+        PngEncoder adaptive =
+                new PngEncoder(PngEncoder.DEFAULT_LEVEL, true, NONE);
+        roundTrip(adaptive, true, 2);
+        roundTrip(adaptive, false, 6);
+    }
+
+    // a few colours, with runs of each
+    private static int[] fewColors(int[] colors) {
+        int[] p = new int[W * H];
+        for (int i = 0; i < p.length; i++)
+            p[i] = colors[(i / 5 + i / W) % colors.length];
+        return p;
+    }
+
+    private void checkIndexed(int[] p, int expBitDepth) throws IOException {
+        byte[] png = new PngEncoder().encode(p, W, H);
+        print("{} bytes", png.length);
+        assertEquals(AM_NEQ, 3, png[COLOR_TYPE_OFFSET]);
+        assertEquals(AM_NEQ, expBitDepth, png[BIT_DEPTH_OFFSET]);
+        assertArrayEquals(AM_NEQ, p, decode(png));
+    }
+
+    @Test
+    public void indexedBitDepths() throws IOException {
+        title("indexedBitDepths");
+        checkIndexed(fewColors(new int[]{0xff112233, 0x80445566}), 1);
+        checkIndexed(fewColors(new int[]{0xff112233, 0x80445566, 0,
+                0xffffffff}), 2);
+        int[] many = new int[200];
+        for (int i = 0; i < many.length; i++)
+            many[i] = 0xff000000 | i * 0x010203;
+        checkIndexed(fewColors(many), 8);
+    }
+
+    @Test
+    public void tooManyColorsForPalette() throws IOException {
+        title("tooManyColorsForPalette");
+        int[] p = pixels(true);
+        byte[] png = new PngEncoder(PngEncoder.DEFAULT_LEVEL, false, EXACT)
+                .encode(p, W, H);
+        assertEquals(AM_NEQ, 2, png[COLOR_TYPE_OFFSET]);
+        assertArrayEquals(AM_NEQ, p, decode(png));
+    }
+
+    @Test
+    public void quantized() throws IOException {
+        title("quantized");
+        int[] p = pixels(false);
+        byte[] png = new PngEncoder(PngEncoder.DEFAULT_LEVEL, false, QUANTIZED)
+                .encode(p, W, H);
+        print("{} bytes", png.length);
+        assertEquals(AM_NEQ, 3, png[COLOR_TYPE_OFFSET]);
+        assertEquals(AM_NEQ, 8, png[BIT_DEPTH_OFFSET]);
+        int[] q = decode(png);
+        for (int i = 0; i < p.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int d = Math.abs((p[i] >>> shift & 0xff) - (q[i] >>> shift & 0xff));
+                assertTrue(AM_HUH, d < 64);
+            }
+        }
+    }
+
+    @Test
+    public void levels() throws IOException {
+        title("levels");
+        int[] p = pixels(true);
+        int stored = new PngEncoder(0, false, NONE).encode(p, W, H).length;
+        int best = new PngEncoder(9, false, NONE).encode(p, W, H).length;
+        print("stored={}, best={}", stored, best);
+        assertTrue(AM_HUH, best < stored);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badLevel() {
+        new PngEncoder(10, false, NONE);
+    }
+
+    @Test
+    public void writeFile() throws IOException {
+        title("writeFile");
+        int[] p = pixels(false);
+        File f = File.createTempFile("tile", ".png");
+        try {
+            encoder.write(p, W, H, f);
+            BufferedImage bi = ImageIO.read(f);
+            assertArrayEquals(AM_NEQ, p, bi.getRGB(0, 0, W, H, null, 0, W));
+        } finally {
+            assertTrue(AM_HUH, f.delete());
+        }
+    }
+
+    @Test
+    public void encodeAfterRelease() throws IOException {
+        title("encodeAfterRelease");
+        int[] p = pixels(true);
+        byte[] before = encoder.encode(p, W, H);
+        PngEncoder.releaseForThread();
+        // a fresh workspace is created for the thread
+        assertArrayEquals(AM_NEQ, before, encoder.encode(p, W, H));
+        PngEncoder.releaseForThread();
+        PngEncoder.releaseForThread();
+    }
+}
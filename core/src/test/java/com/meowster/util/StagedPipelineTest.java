@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.util;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link StagedPipeline}.
+ *
+ * @author Simon Hunt
+ */
+public class StagedPipelineTest extends AbstractTest {
+
+    private static final int N_ITEMS = 200;
+    private static final int CAPACITY = 2;
+
+    private static List<Integer> items(int n) {
+        List<Integer> items = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            items.add(i);
+        return items;
+    }
+
+    private static void nap(Random random) {
+        try {
+            Thread.sleep(random.nextInt(3));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void resultsInOrder() {
+        title("resultsInOrder");
+        Random random = new Random(5);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        List<String> results = new ArrayList<>();
+        StagedPipeline<Integer, String> p =
+                StagedPipeline.<Integer>create("test", CAPACITY)
+                        .stage("a", 1, i -> {
+                            maxInFlight.accumulateAndGet(
+                                    inFlight.incrementAndGet(), Math::max);
+                            return i * 2;
+                        })
+                        .stage("b", 3, i -> {
+                            nap(random);
+                            return i + 1;
+                        })
+                        .stage("c", 2, i -> "#" + i);
+        print(p);
+        p.run(items(N_ITEMS).iterator(), s -> {
+            inFlight.decrementAndGet();
+            results.add(s);
+        });
+
+        assertEquals(AM_UXS, N_ITEMS, results.size());
+        for (int i = 0; i < N_ITEMS; i++)
+            assertEquals(AM_NEQ, "#" + (i * 2 + 1), results.get(i));
+
+        // at most the queues' worth, plus one item per thread
+        print("max in flight: {}", maxInFlight.get());
+        assertTrue(AM_HUH, maxInFlight.get() <= CAPACITY * 4 + 6);
+    }
+
+    @Test
+    public void noItems() {
+        title("noItems");
+        List<Integer> results = new ArrayList<>();
+        StagedPipeline.<Integer>create("test", CAPACITY)
+                .stage("a", 2, i -> i)
+                .run(Collections.<Integer>emptyIterator(), results::add);
+        assertEquals(AM_UXS, 0, results.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failureRethrown() {
+        title("failureRethrown");
+        StagedPipeline.<Integer>create("test", CAPACITY)
+                .stage("a", 2, i -> i)
+                .stage("b", 2, i -> {
+                    if (i == 17)
+                        throw new IllegalStateException("bad item");
+                    return i;
+                })
+                .run(items(N_ITEMS).iterator(), i -> { });
+    }
+}
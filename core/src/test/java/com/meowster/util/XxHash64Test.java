@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2014-2016 Meowster.com
+ */
+
+package com.meowster.util;
+
+import com.meowster.test.AbstractTest;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Unit tests for {@link XxHash64}.
+ *
+ * @author Simon Hunt
+ */
+public class XxHash64Test extends AbstractTest {
+
+    private static long hash(String s) {
+        byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+        return XxHash64.hash(b, 0, b.length, 0);
+    }
+
+    @Test
+    public void referenceValues() {
+        title("referenceValues");
+        assertEquals(AM_NEQ, 0xef46db3751d8e999L, hash(""));
+        assertEquals(AM_NEQ, 0xd24ec4f1a98c6e5bL, hash("a"));
+        assertEquals(AM_NEQ, 0x44bc2cf5ad770999L, hash("abc"));
+        assertEquals(AM_NEQ, 0xfbcea83c8a378bf1L,
+                hash("Nobody inspects the spammish repetition"));
+    }
+
+    @Test
+    public void intsAsBytes() {
+        title("intsAsBytes");
+        // lengths either side of a whole stripe, and odd numbers of ints
+        for (int n : new int[]{0, 1, 3, 7, 8, 9, 17, 100}) {
+            int[] ints = new int[n];
+            ByteBuffer bb = ByteBuffer.allocate(n * 4)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < n; i++) {
+                ints[i] = i * 0x9e3779b9;
+                bb.putInt(ints[i]);
+            }
+            byte[] bytes = bb.array();
+            assertEquals(AM_NEQ, XxHash64.hash(bytes, 0, bytes.length, 7),
+                    XxHash64.hash(ints, 0, n, 7));
+        }
+    }
+
+    @Test
+    public void seedMatters() {
+        title("seedMatters");
+        int[] data = {1, 2, 3};
+        assertNotEquals(AM_HUH, XxHash64.hash(data, 0, 3, 0),
+                XxHash64.hash(data, 0, 3, 1));
+    }
+}